@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -8,6 +9,8 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.UnaryOperator;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.PredicateOperator;
@@ -58,6 +61,8 @@ public class Database implements AutoCloseable {
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4005;
+    // file in the database directory listing the pages in memory when the database was closed
+    private static final String WARM_RESTART_FILE = ".resident_pages";
 
     // information_schema.tables, manages all tables in the database
     private Table tableInfo;
@@ -92,6 +97,8 @@ public class Database implements AutoCloseable {
     private final Transaction secondaryInitTransaction;
     // thread pool for background tasks
     private final ExecutorService executor;
+    // JMX name of the storage metrics (null if they could not be registered)
+    private ObjectName metricsName;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
@@ -167,6 +174,89 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param offHeapBuffers flag to store the buffer cache in direct memory outside of the heap
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean offHeapBuffers) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, offHeapBuffers, true);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param offHeapBuffers flag to store the buffer cache in direct memory outside of the heap
+     * @param syncDataWrites flag to force every data page write to disk; if false, data pages
+     *                       are only forced at checkpoints and on close, and durability relies
+     *                       on the log (so this should only be false with recovery enabled)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean offHeapBuffers,
+                    boolean syncDataWrites) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, offHeapBuffers, syncDataWrites,
+             DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param offHeapBuffers flag to store the buffer cache in direct memory outside of the heap
+     * @param syncDataWrites flag to force every data page write to disk; if false, data pages
+     *                       are only forced at checkpoints and on close, and durability relies
+     *                       on the log (so this should only be false with recovery enabled)
+     * @param pageSize size of pages in bytes, if the database is new (a power of two between
+     *                 DiskSpaceManager.PAGE_SIZE and DiskSpaceManager.MAX_PAGE_SIZE); an existing
+     *                 database keeps the page size it was created with
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean offHeapBuffers,
+                    boolean syncDataWrites, int pageSize) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, offHeapBuffers, syncDataWrites,
+             pageSize, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param offHeapBuffers flag to store the buffer cache in direct memory outside of the heap
+     * @param syncDataWrites flag to force every data page write to disk; if false, data pages
+     *                       are only forced at checkpoints and on close, and durability relies
+     *                       on the log (so this should only be false with recovery enabled)
+     * @param pageSize size of pages in bytes, if the database is new (a power of two between
+     *                 DiskSpaceManager.PAGE_SIZE and DiskSpaceManager.MAX_PAGE_SIZE); an existing
+     *                 database keeps the page size it was created with
+     * @param directIO flag to read and write data pages with direct I/O, so that they are
+     *                 cached in the buffer cache only and not also by the OS (where supported;
+     *                 the log is always written through the OS)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean offHeapBuffers,
+                    boolean syncDataWrites, int pageSize, boolean directIO) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
@@ -186,9 +276,11 @@ public class Database implements AutoCloseable {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager, syncDataWrites, pageSize, directIO);
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+                                              policy, offHeapBuffers);
+        bufferManager.enableWarmRestart(new File(fileDir, WARM_RESTART_FILE).toPath());
+        this.registerMetrics(fileDir);
 
         if (!initialized) {
             // create log partition
@@ -203,8 +295,13 @@ public class Database implements AutoCloseable {
 
         // Analysis and undo are both completed once the next line completes
         Runnable restartRedo = recoveryManager.restart();
-        // The redo phase can be run in parallel with the remaining setup
-        executor.submit(restartRedo);
+        // The redo phase can be run in parallel with the remaining setup. Pages on disk are
+        // up to date once it is done, so the pages that were in memory when the database was
+        // last closed are then loaded back in the background.
+        executor.submit(() -> {
+            restartRedo.run();
+            bufferManager.startWarmUp();
+        });
 
         primaryInitTransaction = beginTransaction();
         secondaryInitTransaction = beginTransaction();
@@ -362,7 +459,8 @@ public class Database implements AutoCloseable {
                     LockContext tableContext = getTableContext(record.tableName, record.partNum);
                     PageDirectory pageDirectory = new PageDirectory(bufferManager, record.partNum, record.pageNum, (short) 0,
                                                           tableContext);
-                    Table table = new Table(record.tableName, record.schema, pageDirectory, tableContext);
+                    Table table = new Table(record.tableName, record.schema, pageDirectory, tableContext,
+                                            record.layout);
                     tableLookup.put(record.tableName, table);
 
                     // sync on lock manager to ensure that multiple jobs don't
@@ -429,6 +527,8 @@ public class Database implements AutoCloseable {
                 indexContext.acquire(secondaryTC, LockType.X);
 
                 try {
+                    diskSpaceManager.getMetrics().setPartitionClass(metadata.getPartNum(),
+                            StorageMetrics.PartitionClass.INDEX);
                     BPlusTree tree = new BPlusTree(bufferManager, metadata, indexContext);
                     if (!tableIndices.containsKey(metadata.getTableName())) {
                         // the list only needs to be synchronized while indices are being loaded, as multiple
@@ -479,7 +579,8 @@ public class Database implements AutoCloseable {
         // finish executor tasks
         this.executor.shutdown();
 
-        this.bufferManager.evictAll();
+        // flush without unloading, so that the buffer manager can save the resident pages on close
+        this.bufferManager.flushAll();
 
         this.recoveryManager.close();
 
@@ -494,6 +595,7 @@ public class Database implements AutoCloseable {
 
         this.bufferManager.close();
         this.diskSpaceManager.close();
+        this.unregisterMetrics();
     }
 
     public ExecutorService getExecutor() {
@@ -512,6 +614,35 @@ public class Database implements AutoCloseable {
         return bufferManager;
     }
 
+    public StorageMetrics getMetrics() {
+        return diskSpaceManager.getMetrics();
+    }
+
+    // expose the storage metrics through JMX; the database works without them, so failing
+    // to register them (e.g. if another database in this JVM uses the same directory) is ignored
+    private void registerMetrics(String fileDir) {
+        try {
+            ObjectName name = new ObjectName("edu.berkeley.cs186.database:type=StorageMetrics,name="
+                    + ObjectName.quote(new File(fileDir).getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(diskSpaceManager.getMetrics(), name);
+            this.metricsName = name;
+        } catch (JMException | SecurityException e) {
+            this.metricsName = null;
+        }
+    }
+
+    private void unregisterMetrics() {
+        if (this.metricsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.metricsName);
+        } catch (JMException | SecurityException e) {
+            // already unregistered
+        }
+        this.metricsName = null;
+    }
+
     @Deprecated
     public Table getTable(String tableName) {
         return tableLookup.get(prefixUserTableName(tableName));
@@ -536,6 +667,9 @@ public class Database implements AutoCloseable {
      * 2 | page_num     | long
      * 3 | is_temporary | bool
      * 4 | schema       | string(MAX_SCHEMA_SIZE)
+     *
+     * The schema is followed by the ordinal of the table's layout (see TableMetadata),
+     * so that the format of the records predates layouts.
      */
     private Schema getTableInfoSchema() {
         return new Schema()
@@ -571,13 +705,16 @@ public class Database implements AutoCloseable {
                 .add("height", Type.intType());
     }
 
-    // a single row of information_schema.tables
+    // a single row of information_schema.tables. The layout of the table is stored as a byte
+    // after the bytes of its schema, in the schema column; FIXED (ordinal 0) is therefore
+    // stored as padding, as in rows written before tables had layouts
     private static class TableMetadata {
         String tableName;
         int partNum;
         long pageNum;
         boolean isTemporary;
         Schema schema;
+        TableLayout layout;
 
         TableMetadata(String tableName) {
             this.tableName = tableName;
@@ -585,6 +722,7 @@ public class Database implements AutoCloseable {
             this.pageNum = -1;
             this.isTemporary = false;
             this.schema = new Schema();
+            this.layout = TableLayout.FIXED;
         }
 
         TableMetadata(Record record) {
@@ -592,13 +730,19 @@ public class Database implements AutoCloseable {
             partNum = record.getValue(1).getInt();
             pageNum = record.getValue(2).getLong();
             isTemporary = record.getValue(3).getBool();
-            schema = Schema.fromBytes(ByteBuffer.wrap(record.getValue(4).toBytes()));
+            byte[] schemaBytes = record.getValue(4).toBytes();
+            schema = Schema.fromBytes(ByteBuffer.wrap(schemaBytes));
+            int end = schema.toBytes().length;
+            layout = end < schemaBytes.length ? TableLayout.values()[schemaBytes[end]] : TableLayout.FIXED;
         }
 
         Record toRecord() {
-            return new Record(tableName, partNum, pageNum, isTemporary,
-                       new String(schema.toBytes())
-            );
+            byte[] schemaBytes = schema.toBytes();
+            if (layout != TableLayout.FIXED) {
+                schemaBytes = Arrays.copyOf(schemaBytes, schemaBytes.length + 1);
+                schemaBytes[schemaBytes.length - 1] = (byte) layout.ordinal();
+            }
+            return new Record(tableName, partNum, pageNum, isTemporary, new String(schemaBytes));
         }
 
         boolean isAllocated() {
@@ -816,12 +960,23 @@ public class Database implements AutoCloseable {
             return Database.this.getWorkMem();
         }
 
+        @Override
+        public short getEffectivePageSize() {
+            return PageDirectory.getEffectivePageSize(bufferManager);
+        }
+
+        @Override
+        public BufferAccessStrategy getBulkAccessStrategy(int numPages, int ringSize) {
+            return bufferManager.getBulkAccessStrategy(numPages, ringSize);
+        }
+
         @Override
         public String createTempTable(Schema schema) {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
             int partNum = diskSpaceManager.allocPart();
+            diskSpaceManager.getMetrics().setPartitionClass(partNum, StorageMetrics.PartitionClass.TEMP);
             long pageNum = diskSpaceManager.allocPage(partNum);
             Record tableEntry = new Record( tableName, partNum, pageNum, true,
                     new String(schema.toBytes()));
@@ -927,6 +1082,11 @@ public class Database implements AutoCloseable {
             return getTable(tableName).iterator();
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, BitSet columns) {
+            return getTable(tableName).iterator(columns);
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
@@ -948,6 +1108,37 @@ public class Database implements AutoCloseable {
             return rid;
         }
 
+        @Override
+        public List<RecordId> addRecords(String tableName, Iterator<Record> records) {
+            Table tab = getTable(tableName);
+            List<String> indexNames = tableIndices.get(tab.getName());
+            if (indexNames.isEmpty()) {
+                return tab.addRecords(records);
+            }
+            // a page worth of records at a time, so that the records can be added to the indices
+            // without holding on to all of them
+            List<String> colNames = tab.getSchema().getFieldNames();
+            List<RecordId> rids = new ArrayList<>();
+            List<Record> batch = new ArrayList<>();
+            while (records.hasNext()) {
+                batch.clear();
+                while (batch.size() < tab.getNumRecordsPerPage() && records.hasNext()) {
+                    batch.add(records.next());
+                }
+                List<RecordId> batchRids = tab.addRecords(batch.iterator());
+                for (String indexName : indexNames) {
+                    String column = indexName.split(",")[1];
+                    int columnIndex = colNames.indexOf(column);
+                    BPlusTree tree = resolveIndexFromName(tableName, column).getSecond();
+                    for (int i = 0; i < batch.size(); ++i) {
+                        tree.put(batch.get(i).getValue(columnIndex), batchRids.get(i));
+                    }
+                }
+                rids.addAll(batchRids);
+            }
+            return rids;
+        }
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             Table tab = getTable(tableName);
@@ -1213,10 +1404,15 @@ public class Database implements AutoCloseable {
         }
 
         @Override
-        public void createTable(Schema s, String tableName) {
+        public void createTable(Schema s, String tableName, TableLayout layout) {
             if (tableName.contains(".") && !tableName.startsWith(USER_TABLE_PREFIX)) {
                 throw new IllegalArgumentException("name of new table may not contain '.'");
             }
+            // the layout takes a byte after the schema in information_schema.tables
+            if (layout != TableLayout.FIXED && s.toBytes().length >= MAX_SCHEMA_SIZE) {
+                throw new DatabaseException("schema of table " + tableName + " is too large for the "
+                                            + layout + " layout");
+            }
 
             String prefixedTableName = prefixUserTableName(tableName);
             TransactionContext.setTransaction(transactionContext);
@@ -1233,13 +1429,14 @@ public class Database implements AutoCloseable {
                 metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
                 metadata.isTemporary = false;
                 metadata.schema = s;
+                metadata.layout = layout;
                 tableInfo.updateRecord(tableInfoLookup.get(prefixedTableName), metadata.toRecord());
 
                 LockContext tableContext = getTableContext(prefixedTableName, metadata.partNum);
                 PageDirectory pageDirectory = new PageDirectory(bufferManager, metadata.partNum, metadata.pageNum,
                                                       (short) 0, tableContext);
                 tableLookup.put(prefixedTableName, new Table(prefixedTableName, s,
-                                pageDirectory, tableContext));
+                                pageDirectory, tableContext, layout));
                 tableIndices.put(prefixedTableName, new ArrayList<>());
             } finally {
                 TransactionContext.unsetTransaction();
@@ -1340,7 +1537,7 @@ public class Database implements AutoCloseable {
                     throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
                 }
 
-                int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+                int order = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), colType);
                 Record indexEntry = new Record(tableName, columnName, order,
                         diskSpaceManager.allocPart(),
                         DiskSpaceManager.INVALID_PAGE_NUM,
@@ -1350,6 +1547,8 @@ public class Database implements AutoCloseable {
                 indexInfo.updateRecord(indexInfoLookup.get(indexName), indexEntry);
                 metadata = parseIndexMetadata(indexEntry);
                 assert (metadata != null);
+                diskSpaceManager.getMetrics().setPartitionClass(metadata.getPartNum(),
+                        StorageMetrics.PartitionClass.INDEX);
 
                 LockContext indexContext = getIndexContext(indexName, metadata.getPartNum());
                 indexLookup.put(indexName, new BPlusTree(bufferManager, metadata, indexContext));
@@ -1361,8 +1560,15 @@ public class Database implements AutoCloseable {
                 if (bulkLoad) {
                     throw new UnsupportedOperationException("not implemented");
                 } else {
-                    for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
-                        Record record = table.getRecord(rid);
+                    // scan a large table through a ring of buffer frames, so that the scan
+                    // does not evict the pages of the tree being built
+                    BufferAccessStrategy strategy = bufferManager.getBulkAccessStrategy(
+                            table.getNumDataPages(), BufferAccessStrategy.SCAN_RING_SIZE);
+                    BacktrackingIterator<RecordId> rids = strategy == null
+                            ? table.ridIterator() : strategy.wrap(strategy.call(table::ridIterator));
+                    for (RecordId rid : (Iterable<RecordId>) () -> rids) {
+                        Record record = strategy == null
+                                ? table.getRecord(rid) : strategy.call(() -> table.getRecord(rid));
                         tree.put(record.getValue(columnIndex), rid);
                     }
                 }
@@ -1419,6 +1625,16 @@ public class Database implements AutoCloseable {
             }
         }
 
+        @Override
+        public void insertAll(String tableName, Iterator<Record> records) {
+            TransactionContext.setTransaction(transactionContext);
+            try {
+                transactionContext.addRecords(tableName, records);
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+        }
+
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {
             update(tableName, targetColumnName, targetValue, null, null, null);
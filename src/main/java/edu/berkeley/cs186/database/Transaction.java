@@ -6,7 +6,9 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.TableLayout;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.UnaryOperator;
 
@@ -122,7 +124,18 @@ public abstract class Transaction implements AutoCloseable {
      * @param s schema of new table
      * @param tableName name of new table
      */
-    public abstract void createTable(Schema s, String tableName);
+    public void createTable(Schema s, String tableName) {
+        createTable(s, tableName, TableLayout.FIXED);
+    }
+
+    /**
+     * Creates a table with the given layout of data pages (see TableLayout).
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param layout layout of the data pages of the new table
+     */
+    public abstract void createTable(Schema s, String tableName, TableLayout layout);
 
     /**
      * Drops a table. Equivalent to
@@ -205,6 +218,20 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void insert(String tableName, Record record);
 
+    /**
+     * Inserts rows into a table in bulk. Equivalent to inserting each record with
+     * insert, but rows are packed into pages a page at a time, which suits loading
+     * large amounts of data.
+     *
+     * @param tableName name of table to insert into
+     * @param records records containing the values to be inserted
+     */
+    public void insertAll(String tableName, Iterator<Record> records) {
+        while (records.hasNext()) {
+            insert(tableName, records.next());
+        }
+    }
+
     /**
      * Updates rows in a table. Equivalent to
      *      UPDATE tableName SET targetColumnName = targetValue(targetColumnName)
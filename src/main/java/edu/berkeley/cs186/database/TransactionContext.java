@@ -4,6 +4,8 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
+import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -11,6 +13,7 @@ import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +89,24 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return the number of bytes of a data page available for records, for the page
+     * size of this transaction's database (used to size blocks of records held in
+     * the work memory)
+     */
+    public short getEffectivePageSize() {
+        return PageDirectory.EFFECTIVE_PAGE_SIZE;
+    }
+
+    /**
+     * Gets a buffer access strategy for a bulk operation (see BufferManager::getBulkAccessStrategy).
+     *
+     * @param numPages number of pages the operation is expected to read or write
+     * @param ringSize number of buffer frames the operation would like to cycle through
+     * @return a buffer access strategy, or null if the operation should use the shared buffer pool
+     */
+    public abstract BufferAccessStrategy getBulkAccessStrategy(int numPages, int ringSize);
+
     @Override
     public abstract void close();
 
@@ -154,11 +175,32 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract BacktrackingIterator<Record> getRecordIterator(String tableName);
 
+    /**
+     * Returns a backtracking iterator over all of the records in `tableName` that only
+     * needs to read the given columns (see Table#iterator(BitSet)). The values of other
+     * columns may be null.
+     */
+    public BacktrackingIterator<Record> getRecordIterator(String tableName, BitSet columns) {
+        return this.getRecordIterator(tableName);
+    }
+
     public abstract boolean contains(String tableName, String columnName, DataBox key);
 
     // Record Operations ///////////////////////////////////////////////////////
     public abstract RecordId addRecord(String tableName, Record record);
 
+    /**
+     * Adds records to a table in bulk (see Table#addRecords), updating the table's indices.
+     * @return record ids of the added records, in order
+     */
+    public List<RecordId> addRecords(String tableName, Iterator<Record> records) {
+        List<RecordId> rids = new ArrayList<>();
+        while (records.hasNext()) {
+            rids.add(this.addRecord(tableName, records.next()));
+        }
+        return rids;
+    }
+
     public abstract RecordId deleteRecord(String tableName, RecordId rid);
 
     public abstract void deleteRecordWhere(String tableName, String predColumnName, PredicateOperator predOperator,
@@ -182,6 +182,9 @@ public class CommandLineInterface {
             QueryOperator op = t.query("information_schema.indices").getFinalOperator();
             PrettyPrinter.printRecords(op.getSchema().getFieldNames(), op.iterator());
             t.close();
+        } else if (cmd.equals("metrics")) {
+            // buffer pool and disk I/O counters, by class of partition
+            System.out.print(db.getMetrics());
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
@@ -253,7 +253,7 @@ abstract class BPlusNode {
                                       LockContext treeContext, long pageNum) {
         Page p = bufferManager.fetchPage(treeContext, pageNum);
         try {
-            Buffer buf = p.getBuffer();
+            Buffer buf = p.getPinnedBuffer();
             byte b = buf.get();
             if (b == 1) {
                 return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
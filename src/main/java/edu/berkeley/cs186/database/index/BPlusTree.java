@@ -99,7 +99,7 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        int maxOrder = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), metadata.getKeySchema());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                     "You cannot construct a B+ tree with order %d greater than the " +
@@ -409,7 +409,7 @@ class InnerNode extends BPlusNode {
     public static InnerNode fromBytes(BPlusTreeMetadata metadata,
                                       BufferManager bufferManager, LockContext treeContext, long pageNum) {
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        Buffer buf = page.getBuffer();
+        Buffer buf = page.getPinnedBuffer();
 
         byte nodeType = buf.get();
         assert(nodeType == (byte) 0);
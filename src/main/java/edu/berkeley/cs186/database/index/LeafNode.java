@@ -425,7 +425,7 @@ class LeafNode extends BPlusNode {
         // use the constructor that reuses an existing page instead of fetching a
         // brand new one.
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        Buffer buf = page.getBuffer();
+        Buffer buf = page.getPinnedBuffer();
 
         byte nodeType = buf.get();
         assert(nodeType == (byte) 1);
@@ -0,0 +1,309 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compressed copies of the data pages of a partition, stored in a file of their own.
+ *
+ * Each page is compressed with PageCodec when it is written, and stored in a slot of as
+ * many SECTOR_SIZE-byte sectors as it needs (pages that do not compress are stored as is).
+ * Each slot starts with a header holding the data page number, a sequence number, the
+ * length of the stored bytes, and a checksum; the slot of each page is kept in memory (the
+ * indirection map), and rebuilt when the store is opened by scanning the file, keeping the
+ * slot with the highest sequence number of each page. Torn slots fail their checksum and
+ * are skipped.
+ *
+ * Slots are never overwritten while they hold the latest copy of a page: a page is always
+ * written to a free slot (of the same size) or the end of the file, and its old slot is
+ * only reused once the new one has been forced to disk.
+ *
+ * Not thread-safe: the partition lock of the partition is held for every call.
+ */
+class CompressedPageStore implements AutoCloseable {
+    static final int SECTOR_SIZE = 512;
+
+    // page number, sequence number, stored length, flags, checksum
+    static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Short.BYTES + Byte.BYTES + Integer.BYTES;
+
+    // flag set on slots holding an uncompressed page
+    private static final byte RAW = 1;
+
+    // bytes of the file read at a time when scanning it
+    private static final int SCAN_CHUNK_SIZE = 256 * SECTOR_SIZE;
+
+    private static class Slot {
+        long sector;
+        int sectors;
+        long sequence;
+
+        Slot(long sector, int sectors, long sequence) {
+            this.sector = sector;
+            this.sectors = sectors;
+            this.sequence = sequence;
+        }
+    }
+
+    // size of pages, in bytes
+    private int pageSize;
+
+    // number of sectors of the largest slot, holding an uncompressed page
+    private int maxSlotSectors;
+
+    private RandomAccessFile file;
+    private FileChannel fileChannel;
+
+    // slot holding the latest copy of each page
+    private Map<Integer, Slot> slots;
+
+    // first sector of free slots, by number of sectors
+    private List<ArrayDeque<Long>> freeSlots;
+
+    // slots no longer holding the latest copy of a page, reusable once the file is forced
+    private List<Slot> pendingFree;
+
+    // sector at the end of the file
+    private long endSector;
+
+    // sequence number of the next write
+    private long nextSequence;
+
+    // metrics to count compressed I/O in, and partition number to classify it by
+    private StorageMetrics metrics;
+    private int partNum;
+
+    /**
+     * Opens (creating it if needed) a store, and reads in its indirection map.
+     * @param fileName name of the OS file of the store
+     * @param metrics metrics to count compressed I/O in
+     * @param partNum partition number of the partition the store is for
+     * @param pageSize size of pages, in bytes
+     */
+    CompressedPageStore(String fileName, StorageMetrics metrics, int partNum, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        this.maxSlotSectors = sectorsFor(pageSize);
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.fileChannel = this.file.getChannel();
+        this.slots = new HashMap<>();
+        this.freeSlots = new ArrayList<>();
+        for (int i = 0; i <= this.maxSlotSectors; ++i) {
+            this.freeSlots.add(new ArrayDeque<>());
+        }
+        this.pendingFree = new ArrayList<>();
+        this.metrics = metrics;
+        this.partNum = partNum;
+        this.scan();
+    }
+
+    /**
+     * @param fileName name of the OS file of a partition
+     * @return name of the OS file of the partition's compressed pages
+     */
+    static String fileNameFor(String fileName) {
+        File partFile = new File(fileName);
+        return new File(partFile.getParentFile(), "." + partFile.getName() + ".compressed").getPath();
+    }
+
+    /**
+     * Rebuilds the indirection map from the slots in the file.
+     */
+    private void scan() throws IOException {
+        long fileSize = this.fileChannel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK_SIZE);
+        long chunkStart = 0;
+        chunk.limit(0);
+        long sector = 0;
+        while (sector * SECTOR_SIZE + HEADER_SIZE <= fileSize) {
+            long position = sector * SECTOR_SIZE;
+            if (position + this.maxSlotSectors * SECTOR_SIZE > chunkStart + chunk.limit() &&
+                    chunkStart + chunk.limit() < fileSize) {
+                // read the next chunk, starting at this slot
+                chunk.clear();
+                chunkStart = position;
+                this.readFully(chunk, chunkStart);
+                chunk.flip();
+            }
+            int offset = (int) (position - chunkStart);
+            int length = Short.toUnsignedInt(chunk.getShort(offset + Integer.BYTES + Long.BYTES));
+            if (length > this.pageSize) {
+                // not a slot (e.g. the end of a torn write at the end of the file)
+                break;
+            }
+            int sectors = sectorsFor(length);
+            if (offset + sectors * SECTOR_SIZE > chunk.limit()) {
+                // slot past the end of the file, from a torn write
+                break;
+            }
+            int pageNum = chunk.getInt(offset);
+            long sequence = chunk.getLong(offset + Integer.BYTES);
+            Slot slot = new Slot(sector, sectors, sequence);
+            Slot current = this.slots.get(pageNum);
+            if (checksum(chunk.array(), offset, length) != chunk.getInt(offset + HEADER_SIZE - Integer.BYTES)) {
+                this.freeSlots.get(sectors).add(sector);
+            } else if (current == null || current.sequence < sequence) {
+                this.slots.put(pageNum, slot);
+                if (current != null) {
+                    this.freeSlots.get(current.sectors).add(current.sector);
+                }
+                this.nextSequence = Math.max(this.nextSequence, sequence + 1);
+            } else {
+                this.freeSlots.get(sectors).add(sector);
+            }
+            sector += sectors;
+        }
+        this.endSector = sector;
+    }
+
+    /**
+     * @param pageNum data page number
+     * @return whether the store holds a copy of the page
+     */
+    boolean contains(int pageNum) {
+        return this.slots.containsKey(pageNum);
+    }
+
+    /**
+     * Reads in a page.
+     * @param pageNum data page number
+     * @param buf output buffer to be filled with page - assumed to have a page remaining
+     * @return whether the store held a copy of the page
+     */
+    boolean readPage(int pageNum, ByteBuffer buf) throws IOException {
+        Slot slot = this.slots.get(pageNum);
+        if (slot == null) {
+            return false;
+        }
+        byte[] bytes = new byte[slot.sectors * SECTOR_SIZE];
+        this.readFully(ByteBuffer.wrap(bytes), slot.sector * SECTOR_SIZE);
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        int length = Short.toUnsignedInt(header.getShort(Integer.BYTES + Long.BYTES));
+        if (header.getInt(0) != pageNum || length > this.pageSize ||
+                checksum(bytes, 0, length) != header.getInt(HEADER_SIZE - Integer.BYTES)) {
+            throw new PageException("compressed copy of page " + pageNum + " is corrupt");
+        }
+        if ((bytes[Integer.BYTES + Long.BYTES + Short.BYTES] & RAW) != 0) {
+            buf.put(bytes, HEADER_SIZE, this.pageSize);
+        } else {
+            byte[] page = new byte[this.pageSize];
+            PageCodec.decompress(bytes, HEADER_SIZE, length, page, this.pageSize);
+            buf.put(page);
+        }
+        this.metrics.add(this.metrics.getPartitionClass(this.partNum), StorageMetrics.Counter.IO_BYTES_SAVED,
+                         this.pageSize - bytes.length);
+        return true;
+    }
+
+    /**
+     * Writes a page, compressed, to a new slot. The slot previously holding the page is
+     * reused after the next call to force.
+     * @param pageNum data page number
+     * @param buf input buffer with new contents of page - assumed to have a page remaining
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
+        byte[] page = new byte[this.pageSize];
+        buf.get(page);
+        byte[] bytes = new byte[this.maxSlotSectors * SECTOR_SIZE];
+        // pages that do not compress to less than a page are stored as is
+        int length = PageCodec.compress(page, this.pageSize, bytes, HEADER_SIZE, this.pageSize - 1);
+        byte flags = 0;
+        if (length < 0) {
+            System.arraycopy(page, 0, bytes, HEADER_SIZE, this.pageSize);
+            length = this.pageSize;
+            flags = RAW;
+        }
+        int sectors = sectorsFor(length);
+        long sequence = this.nextSequence++;
+        ByteBuffer.wrap(bytes)
+        .putInt(pageNum)
+        .putLong(sequence)
+        .putShort((short) length)
+        .put(flags);
+        ByteBuffer.wrap(bytes).putInt(HEADER_SIZE - Integer.BYTES, checksum(bytes, 0, length));
+
+        Long free = this.freeSlots.get(sectors).poll();
+        long sector;
+        if (free != null) {
+            sector = free;
+        } else {
+            sector = this.endSector;
+            this.endSector += sectors;
+        }
+        ByteBuffer b = ByteBuffer.wrap(bytes, 0, sectors * SECTOR_SIZE);
+        while (b.hasRemaining()) {
+            this.fileChannel.write(b, sector * SECTOR_SIZE + b.position());
+        }
+        Slot old = this.slots.put(pageNum, new Slot(sector, sectors, sequence));
+        if (old != null) {
+            this.pendingFree.add(old);
+        }
+        StorageMetrics.PartitionClass partitionClass = this.metrics.getPartitionClass(this.partNum);
+        this.metrics.add(partitionClass, StorageMetrics.Counter.COMPRESSION_INPUT_BYTES, this.pageSize);
+        this.metrics.add(partitionClass, StorageMetrics.Counter.COMPRESSION_OUTPUT_BYTES, length);
+        this.metrics.add(partitionClass, StorageMetrics.Counter.IO_BYTES_SAVED, this.pageSize - sectors * SECTOR_SIZE);
+    }
+
+    /**
+     * Drops the copy of a freed page. Its slot is reused after the next call to force.
+     * @param pageNum data page number
+     */
+    void freePage(int pageNum) {
+        Slot old = this.slots.remove(pageNum);
+        if (old != null) {
+            this.pendingFree.add(old);
+        }
+    }
+
+    /**
+     * Forces writes to disk, and makes the slots of overwritten and freed pages reusable.
+     */
+    void force() throws IOException {
+        this.fileChannel.force(false);
+        for (Slot slot : this.pendingFree) {
+            this.freeSlots.get(slot.sectors).add(slot.sector);
+        }
+        this.pendingFree.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+        this.fileChannel.close();
+    }
+
+    /**
+     * Reads from the file until the buffer is full or the end of the file is reached.
+     * @param buf buffer to read into
+     * @param position position in the file to read from
+     */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            if (this.fileChannel.read(buf, start + buf.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param length number of bytes stored for a page
+     * @return number of sectors of a slot holding the bytes
+     */
+    private static int sectorsFor(int length) {
+        return (HEADER_SIZE + length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+
+    /**
+     * @return checksum of a slot's header (without the checksum) and stored bytes
+     */
+    private static int checksum(byte[] slot, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slot, offset, HEADER_SIZE - Integer.BYTES);
+        crc.update(slot, offset + HEADER_SIZE, length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,12 +1,24 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
 public interface DiskSpaceManager extends AutoCloseable {
-    short PAGE_SIZE = 4096; // size of a page in bytes
+    short PAGE_SIZE = 4096; // default size of a page in bytes
+    int MAX_PAGE_SIZE = 16384; // largest supported page size, in bytes (so that offsets and lengths within
+                               // pages, which are shorts, cover whole pages)
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
 
     @Override
     void close();
 
+    /**
+     * @return size of pages, in bytes: a power of two between PAGE_SIZE and MAX_PAGE_SIZE
+     */
+    default int getPageSize() {
+        return PAGE_SIZE;
+    }
+
     /**
      * Allocates a new partition.
      *
@@ -65,6 +77,123 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into the remaining bytes of a byte buffer.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer with exactly a page of space remaining
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[getPageSize()];
+        readPage(page, bytes);
+        buf.put(bytes);
+    }
+
+    /**
+     * Reads several pages, each into the remaining bytes of a byte buffer. Implementations
+     * may reorder the reads, and combine reads of pages that are next to each other on disk.
+     *
+     * @param pages numbers of pages to be read
+     * @param bufs byte buffers with exactly a page of space remaining each, one per page
+     */
+    default void readPages(long[] pages, ByteBuffer[] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPages expects one buffer per page");
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            readPage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a byte buffer to a page.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer with exactly a page of data remaining
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[getPageSize()];
+        buf.get(bytes);
+        writePage(page, bytes);
+    }
+
+    /**
+     * Starts reading a page into the remaining bytes of a byte buffer. The buffer must not be
+     * used until the returned future completes. The default implementation reads the page
+     * on the calling thread.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer with exactly a page of space remaining
+     * @return future completed once the page is read, or completed exceptionally with the
+     *         exception reading the page threw
+     */
+    default CompletableFuture<Void> readPageAsync(long page, ByteBuffer buf) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            readPage(page, buf);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Starts reading a page into a byte array.
+     *
+     * @param page number of page to be read
+     * @param buf byte array whose contents will be filled with page data
+     * @return future completed once the page is read
+     */
+    default CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        if (buf.length != getPageSize()) {
+            throw new IllegalArgumentException("readPageAsync expects a page-sized buffer");
+        }
+        return readPageAsync(page, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Starts writing the remaining bytes of a byte buffer to a page. The buffer must not be
+     * modified until the returned future completes. Writes to the same page are applied in
+     * the order they were started. The default implementation writes the page on the calling
+     * thread.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer with exactly a page of data remaining
+     * @return future completed once the page is written, or completed exceptionally with the
+     *         exception writing the page threw
+     */
+    default CompletableFuture<Void> writePageAsync(long page, ByteBuffer buf) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            writePage(page, buf);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Starts writing a byte array to a page.
+     *
+     * @param page number of page to be written
+     * @param buf byte array that contains the new page data
+     * @return future completed once the page is written
+     */
+    default CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        if (buf.length != getPageSize()) {
+            throw new IllegalArgumentException("writePageAsync expects a page-sized buffer");
+        }
+        return writePageAsync(page, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Forces all completed page writes to disk, for disk space managers that do not force
+     * every write as it is made.
+     */
+    default void sync() {}
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +202,11 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * @return metrics for this disk space manager, which the buffer manager also reports to
+     */
+    StorageMetrics getMetrics();
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -1,11 +1,18 @@
 package edu.berkeley.cs186.database.io;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
+import edu.berkeley.cs186.database.recovery.records.FreePartLogRecord;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -24,9 +31,18 @@ import java.util.concurrent.locks.ReentrantLock;
  * the number of data pages that have been allocated under the header page (managing 2K header pages).
  * A single partition may therefore have a maximum of 64M data pages.
  *
- * Master and header pages are cached permanently in memory; changes to these are immediately flushed to
- * disk. This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
- * is done separately from the buffer manager's caching.
+ * Pages are PAGE_SIZE bytes by default. The page size of a database is chosen when it is created, and
+ * recorded in PAGE_SIZE_FILE in its directory: larger pages (up to MAX_PAGE_SIZE) suit scans of large
+ * tables and give B+ trees a higher fanout. With larger pages, each header page manages more data pages,
+ * and the master page stores 32-bit integers instead, so the limits above grow with the page size.
+ *
+ * Master and header pages are cached in memory; changes to these are immediately flushed to disk. This
+ * caching is done separately from the buffer manager's caching. Partition files are opened lazily, when
+ * a partition is first used, so that startup does not depend on the number of partitions: at most
+ * maxOpenPartitions (DEFAULT_MAX_OPEN_PARTITIONS by default) files are kept open, and the least recently
+ * used partition not in use is closed (dropping its cached pages) when another is opened. Header pages
+ * are read in when first used, and at most PartitionHandle.MAX_CACHED_HEADER_PAGES are cached per
+ * partition.
  *
  * Virtual page numbers are 64-bit integers (Java longs) assigned to data pages in the following format:
  *       partition number * 10^10 + n
@@ -42,10 +58,41 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * Files grow by extents of EXTENT_PAGES data pages: allocating a page past the end of the file writes
+ * the whole extent containing it, so that pages allocated one at a time (as a table or index grows)
+ * are laid out contiguously, and sequential scans read the file sequentially.
+ *
+ * By default, every data page write is forced to disk before it returns. If data writes are not synced,
+ * data page writes to partitions other than the log are left in the OS's cache until sync is called (the
+ * recovery manager does so at every checkpoint) or the partition is closed. Writes to the log partition
+ * are always forced, so the write-ahead log still makes committed changes durable.
+ *
+ * Pages can also be read and written asynchronously, by a small pool of I/O threads. Reads and writes of
+ * a page (synchronous or not) wait for any asynchronous write of the page that has not completed yet,
+ * so they are applied in the order they were made.
+ *
+ * Cold partitions can be compressed (see setCompressed): their data pages are then stored, compressed,
+ * in a file of their own next to the partition file, and read and written with as few bytes of I/O as
+ * they compress to. This is transparent to callers of the DiskSpaceManager interface.
+ *
+ * Data pages can be read and written with direct I/O (O_DIRECT), bypassing the OS's cache, so that pages
+ * held in the buffer manager are not also cached by the OS. This is set for the whole database when the
+ * disk space manager is created, and falls back to going through the OS's cache on JVMs and file systems
+ * without direct I/O. The log partition, written sequentially in small increments and read back at
+ * restart, always goes through the OS's cache.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
-    static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
-    static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int MAX_HEADER_PAGES = maxHeaderPages(PAGE_SIZE);
+    static final int DATA_PAGES_PER_HEADER = dataPagesPerHeader(PAGE_SIZE);
+    static final int EXTENT_PAGES = 64; // partition files grow by this many data pages at a time
+    static final int DEFAULT_MAX_OPEN_PARTITIONS = 256;
+
+    // Name of the file in the database directory recording the page size
+    static final String PAGE_SIZE_FILE = ".page_size";
+
+    // Size of pages, in bytes
+    private int pageSize;
 
     // Name of base directory.
     private String dbDir;
@@ -53,6 +100,12 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     // Info about each partition.
     private Map<Integer, PartitionHandle> partInfo;
 
+    // Partitions with open files, least recently used first (guarded by its monitor).
+    private LinkedHashMap<Integer, PartitionHandle> openPartitions;
+
+    // Maximum number of partitions with open files.
+    private int maxOpenPartitions;
+
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
@@ -62,6 +115,32 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // I/O counters and latencies
+    private StorageMetrics metrics;
+
+    // Whether every data page write is forced to disk
+    private boolean syncDataWrites;
+
+    // Whether data pages of partitions other than the log are read and written with direct I/O
+    private boolean directIO;
+
+    // Number of threads performing asynchronous reads and writes
+    static final int NUM_IO_THREADS = 4;
+
+    // Maximum number of I/O threads serving the asynchronous reads and writes of one partition,
+    // so that a burst of requests to one partition does not hold up those to others
+    static final int MAX_IO_THREADS_PER_PARTITION = 2;
+
+    // Threads performing asynchronous reads and writes (null until first used)
+    private ExecutorService ioExecutor;
+
+    // Asynchronous reads and writes waiting for an I/O thread, by partition number (partitions
+    // with no requests queued or running have no queue)
+    private ConcurrentHashMap<Integer, IOQueue> ioQueues;
+
+    // Asynchronous writes that have not completed yet, by virtual page number
+    private ConcurrentHashMap<Long, CompletableFuture<Void>> pendingWrites;
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -69,13 +148,81 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, true);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncDataWrites whether every data page write is forced to disk, or only
+     *                       writes to the log partition (other partitions are then forced
+     *                       on sync and close)
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncDataWrites) {
+        this(dbDir, recoveryManager, syncDataWrites, PAGE_SIZE);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncDataWrites whether every data page write is forced to disk, or only
+     *                       writes to the log partition (other partitions are then forced
+     *                       on sync and close)
+     * @param pageSize size of pages, in bytes, if the database is new: a power of two between
+     *                 PAGE_SIZE and MAX_PAGE_SIZE (an existing database keeps the page size it
+     *                 was created with)
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncDataWrites,
+                                int pageSize) {
+        this(dbDir, recoveryManager, syncDataWrites, pageSize, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncDataWrites whether every data page write is forced to disk, or only
+     *                       writes to the log partition (other partitions are then forced
+     *                       on sync and close)
+     * @param pageSize size of pages, in bytes, if the database is new: a power of two between
+     *                 PAGE_SIZE and MAX_PAGE_SIZE (an existing database keeps the page size it
+     *                 was created with)
+     * @param directIO whether data pages of partitions other than the log are read and written
+     *                 with direct I/O, bypassing the OS's cache, where supported
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncDataWrites,
+                                int pageSize, boolean directIO) {
+        if (pageSize < PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("page size must be a power of two between " + PAGE_SIZE +
+                                               " and " + MAX_PAGE_SIZE + ", not " + pageSize);
+        }
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
+        this.syncDataWrites = syncDataWrites;
+        this.directIO = directIO;
+        this.pendingWrites = new ConcurrentHashMap<>();
+        this.ioQueues = new ConcurrentHashMap<>();
         this.partInfo = new HashMap<>();
+        this.openPartitions = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxOpenPartitions = DEFAULT_MAX_OPEN_PARTITIONS;
         this.partNumCounter = new AtomicInteger(0);
         this.managerLock = new ReentrantLock();
+        this.metrics = new StorageMetrics();
 
         File dir = new File(dbDir);
+        File pageSizeFile = new File(dir, PAGE_SIZE_FILE);
+        if (pageSizeFile.exists()) {
+            pageSize = readPageSize(pageSizeFile);
+        } else if (dir.exists() && dir.list() != null && dir.list().length > 0) {
+            // created before the page size was recorded
+            pageSize = PAGE_SIZE;
+        }
+        this.pageSize = pageSize;
         if (!dir.exists()) {
             if (!dir.mkdirs()) {
                 throw new PageException("could not initialize disk space manager - could not make directory");
@@ -87,6 +234,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                if (f.getName().startsWith(".")) {
+                    // not a partition (e.g. the buffer manager's list of resident pages)
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -96,16 +247,61 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
-                pi.open(dbDir + "/" + f.getName());
+                PartitionHandle pi = this.newPartitionHandle(fileNum);
+                pi.setFileName(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
             this.partNumCounter.set(maxFileNum + 1);
         }
+        if (!pageSizeFile.exists()) {
+            writePageSize(pageSizeFile, pageSize);
+        }
+    }
+
+    private static int readPageSize(File pageSizeFile) {
+        try {
+            String contents = new String(Files.readAllBytes(pageSizeFile.toPath()), StandardCharsets.UTF_8);
+            return Integer.parseInt(contents.trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new PageException("could not read page size - " + e.getMessage());
+        }
+    }
+
+    private static void writePageSize(File pageSizeFile, int pageSize) {
+        try {
+            Files.write(pageSizeFile.toPath(), (pageSize + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new PageException("could not record page size - " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param pageSize size of pages, in bytes
+     * @return number of data pages managed by each header page (1 bit per data page)
+     */
+    static int dataPagesPerHeader(int pageSize) {
+        return pageSize * 8;
+    }
+
+    /**
+     * @param pageSize size of pages, in bytes
+     * @return maximum number of header pages of a partition: one per entry of the master page
+     *         (2 bytes each with the default page size, and 4 otherwise), but no more than keeps
+     *         data page numbers within an int
+     */
+    static int maxHeaderPages(int pageSize) {
+        int entrySize = pageSize == PAGE_SIZE ? Short.BYTES : Integer.BYTES;
+        return Math.min(pageSize / entrySize, Integer.MAX_VALUE / dataPagesPerHeader(pageSize));
+    }
+
+    @Override
+    public int getPageSize() {
+        return this.pageSize;
     }
 
     @Override
     public void close() {
+        this.stopIOExecutor();
         for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
             try {
                 part.getValue().close();
@@ -113,6 +309,363 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not close partition " + part.getKey() + ": " + e.getMessage());
             }
         }
+        synchronized (this.openPartitions) {
+            this.openPartitions.clear();
+        }
+    }
+
+    @Override
+    public void sync() {
+        List<Map.Entry<Integer, PartitionHandle>> parts;
+        this.managerLock.lock();
+        try {
+            parts = new ArrayList<>(this.partInfo.entrySet());
+        } finally {
+            this.managerLock.unlock();
+        }
+        for (Map.Entry<Integer, PartitionHandle> part : parts) {
+            PartitionHandle pi = part.getValue();
+            pi.partitionLock.lock();
+            try {
+                pi.sync();
+            } catch (IOException e) {
+                throw new PageException("could not sync partition " + part.getKey() + ": " + e.getMessage());
+            } finally {
+                pi.partitionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Switches a partition between reading and writing data pages with positional FileChannel
+     * calls (the default), and through memory maps of the partition file. Memory-mapped reads
+     * are copies out of the OS page cache, without a system call per page, which suits
+     * read-mostly partitions (the catalog, indices and cold tables).
+     *
+     * The file is mapped in segments of PartitionHandle.MAPPED_SEGMENT_SIZE bytes, each mapped
+     * when a page in it is first read, written or allocated; mapping a segment grows the file
+     * to the end of the segment. The mode is not persisted, and partitions use channel calls
+     * again when the disk space manager is reopened.
+     *
+     * @param partNum partition number
+     * @param memoryMapped whether to read and write data pages through memory maps
+     */
+    public void setMemoryMapped(int partNum, boolean memoryMapped) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            pi.setMemoryMapped(memoryMapped);
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether the partition reads and writes data pages through memory maps
+     */
+    public boolean isMemoryMapped(int partNum) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            return pi.isMemoryMapped();
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * Switches a partition between storing data pages in the partition file (the default), and
+     * compressed with PageCodec, which suits cold partitions read or written in bulk: pages
+     * (especially partly empty ones) take fewer bytes to read and write, at the cost of
+     * compressing and decompressing them. Existing data pages are copied over when switching.
+     *
+     * Compressed pages are stored in slots of CompressedPageStore.SECTOR_SIZE-byte sectors, in
+     * a file of their own (the partition file keeps its header pages, and any stale copies of
+     * data pages, so disk space is not reclaimed). The mode is persisted: a partition with such
+     * a file is compressed when the disk space manager is reopened. Compression ratios and
+     * bytes of I/O saved are counted in the storage metrics.
+     *
+     * @param partNum partition number
+     * @param compressed whether to store data pages compressed
+     */
+    public void setCompressed(int partNum, boolean compressed) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            pi.setCompressed(compressed);
+        } catch (IOException e) {
+            throw new PageException("could not convert partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether the partition stores data pages compressed
+     */
+    public boolean isCompressed(int partNum) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            return pi.isCompressed();
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether the partition reads and writes data pages with direct I/O (false if direct
+     *         I/O was requested but is not supported)
+     */
+    public boolean isDirectIO(int partNum) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            return pi.isDirectIO();
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of partitions whose files are kept open at once. If more
+     * partitions are in use at once, more files are open until they are no longer in use.
+     *
+     * @param maxOpenPartitions maximum number of open partition files
+     */
+    public void setMaxOpenPartitions(int maxOpenPartitions) {
+        if (maxOpenPartitions < 1) {
+            throw new IllegalArgumentException("at least one partition must be allowed to be open");
+        }
+        synchronized (this.openPartitions) {
+            this.maxOpenPartitions = maxOpenPartitions;
+        }
+    }
+
+    /**
+     * @return number of partitions whose files are open
+     */
+    int getNumOpenPartitions() {
+        synchronized (this.openPartitions) {
+            return this.openPartitions.size();
+        }
+    }
+
+    /**
+     * Gets a partition and locks it, opening its file if it is not open.
+     * @param partNum partition number
+     * @return the partition, with its partition lock held
+     */
+    private PartitionHandle lockPartition(int partNum) {
+        this.managerLock.lock();
+        PartitionHandle pi;
+        try {
+            pi = getPartInfo(partNum);
+            pi.partitionLock.lock();
+        } finally {
+            this.managerLock.unlock();
+        }
+        try {
+            this.openPartition(partNum, pi);
+        } catch (RuntimeException e) {
+            pi.partitionLock.unlock();
+            throw e;
+        }
+        return pi;
+    }
+
+    /**
+     * Opens the file of a partition if it is not open, and marks the partition as most
+     * recently used. If more than maxOpenPartitions partitions are then open, the least
+     * recently used partitions not in use are closed. Assumes that the partition lock is held.
+     * @param partNum partition number
+     * @param pi the partition
+     */
+    private void openPartition(int partNum, PartitionHandle pi) {
+        if (!pi.isOpen()) {
+            pi.open();
+        }
+        synchronized (this.openPartitions) {
+            this.openPartitions.put(partNum, pi);
+            Iterator<Map.Entry<Integer, PartitionHandle>> iter = this.openPartitions.entrySet().iterator();
+            while (this.openPartitions.size() > this.maxOpenPartitions && iter.hasNext()) {
+                Map.Entry<Integer, PartitionHandle> entry = iter.next();
+                PartitionHandle victim = entry.getValue();
+                // partitions in use are skipped rather than waited for, since the caller holds
+                // a partition lock (and may hold others, e.g. when logging)
+                if (victim.partitionLock.isHeldByCurrentThread() || !victim.partitionLock.tryLock()) {
+                    continue;
+                }
+                if (victim.hasUnlockedIO()) {
+                    victim.partitionLock.unlock();
+                    continue;
+                }
+                try {
+                    victim.release();
+                } catch (IOException e) {
+                    throw new PageException("could not close partition " + entry.getKey() + ": " + e.getMessage());
+                } finally {
+                    victim.partitionLock.unlock();
+                }
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Waits for an asynchronous write of a page to complete (successfully or not), so that
+     * reads and writes of the page are applied in the order they were made.
+     * @param page virtual page number
+     */
+    private void awaitPendingWrite(long page) {
+        CompletableFuture<Void> pendingWrite = this.pendingWrites.get(page);
+        if (pendingWrite != null) {
+            pendingWrite.handle((result, e) -> null).join();
+        }
+    }
+
+    /**
+     * Queues an asynchronous read or write of a partition, to be run by an I/O thread once
+     * fewer than MAX_IO_THREADS_PER_PARTITION threads are serving the partition.
+     * @param partNum partition number
+     * @param executor the I/O threads
+     * @param request the read or write
+     */
+    private void submitIO(int partNum, Executor executor, Runnable request) {
+        while (!this.ioQueues.computeIfAbsent(partNum, p -> new IOQueue(p, executor)).submit(request)) {
+            // the queue was retired after its last request ran: a new queue is made
+        }
+    }
+
+    /**
+     * Asynchronous reads and writes of one partition. Requests are run in the order they were
+     * queued, by at most MAX_IO_THREADS_PER_PARTITION of the shared I/O threads at a time. Each
+     * thread runs one request and then goes back to the end of the executor's queue, so that
+     * the I/O threads are shared fairly between partitions.
+     */
+    private class IOQueue {
+        private final int partNum;
+        private final Executor executor;
+        private final Deque<Runnable> requests = new ArrayDeque<>();
+
+        // Number of I/O threads running (or about to run) requests of this queue
+        private int numRunning = 0;
+
+        // Whether the queue was removed from ioQueues, and must not take new requests
+        private boolean retired = false;
+
+        IOQueue(int partNum, Executor executor) {
+            this.partNum = partNum;
+            this.executor = executor;
+        }
+
+        /**
+         * @return whether the request was queued (false if the queue was retired)
+         */
+        synchronized boolean submit(Runnable request) {
+            if (this.retired) {
+                return false;
+            }
+            this.requests.add(request);
+            if (this.numRunning < MAX_IO_THREADS_PER_PARTITION) {
+                ++this.numRunning;
+                this.executor.execute(this::runNext);
+            }
+            return true;
+        }
+
+        private void runNext() {
+            Runnable request;
+            synchronized (this) {
+                request = this.requests.poll();
+            }
+            try {
+                if (request != null) {
+                    request.run();
+                }
+            } finally {
+                synchronized (this) {
+                    if (this.requests.isEmpty()) {
+                        if (--this.numRunning == 0) {
+                            this.retired = true;
+                            DiskSpaceManagerImpl.this.ioQueues.remove(this.partNum, this);
+                            this.notifyAll();
+                        }
+                    } else {
+                        this.executor.execute(this::runNext);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits for the queue to run all of its requests, and be retired.
+         * @return whether the wait was interrupted
+         */
+        synchronized boolean awaitRetired() {
+            boolean interrupted = false;
+            while (!this.retired) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return interrupted;
+        }
+    }
+
+    /**
+     * @return threads performing asynchronous reads and writes, started on first use
+     */
+    private synchronized ExecutorService getIOExecutor() {
+        if (this.ioExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_IO_THREADS, NUM_IO_THREADS, 1,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
+                        Thread thread = new Thread(r, "disk-space-manager-io");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            this.ioExecutor = executor;
+        }
+        return this.ioExecutor;
+    }
+
+    /**
+     * Waits for queued asynchronous reads and writes to complete, and stops the I/O threads.
+     */
+    private synchronized void stopIOExecutor() {
+        if (this.ioExecutor == null) {
+            return;
+        }
+        // requests must not be interrupted: interrupting a thread blocked on a FileChannel
+        // closes the channel. Queued requests are run before the threads are shut down, since
+        // each partition's queue hands its requests to the threads one at a time
+        boolean interrupted = false;
+        while (!this.ioQueues.isEmpty()) {
+            for (IOQueue queue : this.ioQueues.values()) {
+                interrupted |= queue.awaitRetired();
+            }
+        }
+        this.ioExecutor.shutdown();
+        while (!this.ioExecutor.isTerminated()) {
+            try {
+                this.ioExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.ioExecutor = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PartitionHandle newPartitionHandle(int partNum) {
+        return new PartitionHandle(partNum, this.recoveryManager,
+                                   this.syncDataWrites || partNum == LogManager.LOG_PARTITION, this.metrics,
+                                   this.pageSize, this.directIO && partNum != LogManager.LOG_PARTITION);
     }
 
     @Override
@@ -135,7 +688,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new IllegalStateException("partition number " + partNum + " already exists");
             }
 
-            pi = new PartitionHandle(partNum, recoveryManager);
+            pi = this.newPartitionHandle(partNum);
             this.partInfo.put(partNum, pi);
 
             pi.partitionLock.lock();
@@ -152,6 +705,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             }
 
             pi.open(dbDir + "/" + partNum);
+            this.openPartition(partNum, pi);
             return partNum;
         } finally {
             pi.partitionLock.unlock();
@@ -173,22 +727,42 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             this.managerLock.unlock();
         }
         try {
+            TransactionContext transaction = TransactionContext.getTransaction();
+            List<Pair<Integer, Integer>> pageRanges;
             try {
-                pi.freeDataPages();
+                if (!pi.isOpen()) {
+                    pi.open();
+                }
+                pageRanges = pi.getAllocatedRanges(FreePartLogRecord.MAX_PAGE_RANGES);
+                if (pageRanges != null) {
+                    // the data pages are freed with a single log record, listing them; the log
+                    // record is flushed before the file is deleted
+                    if (transaction != null) {
+                        recoveryManager.logFreePart(transaction.getTransNum(), partNum, pageRanges);
+                    }
+                    pi.dropDataPages();
+                } else {
+                    // too fragmented to list in a log record: free (and log) pages one at a time
+                    pi.freeDataPages();
+                }
                 pi.close();
+                synchronized (this.openPartitions) {
+                    this.openPartitions.remove(partNum);
+                }
             } catch (IOException e) {
                 throw new PageException("could not close partition " + partNum + ": " + e.getMessage());
             }
 
-            TransactionContext transaction = TransactionContext.getTransaction();
-            if (transaction != null) {
+            if (pageRanges == null && transaction != null) {
                 recoveryManager.logFreePart(transaction.getTransNum(), partNum);
             }
 
             File pf = new File(dbDir + "/" + partNum);
-            if (!pf.delete()) {
+            File cf = new File(CompressedPageStore.fileNameFor(pf.getPath()));
+            if ((cf.exists() && !cf.delete()) || !pf.delete()) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
+            this.metrics.clearPartitionClass(partNum);
         } finally {
             pi.partitionLock.unlock();
         }
@@ -196,17 +770,13 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            if (!pi.extendFor(pageNum)) {
+                pi.writePage(pageNum, new byte[this.pageSize]);
+            }
+            this.metrics.increment(this.metrics.getPartitionClass(partNum), StorageMetrics.Counter.PAGE_ALLOCS);
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -219,20 +789,16 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public long allocPage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        int headerIndex = pageNum / dataPagesPerHeader(this.pageSize);
+        int pageIndex = pageNum % dataPagesPerHeader(this.pageSize);
 
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            if (!pi.extendFor(pageNum)) {
+                pi.writePage(pageNum, new byte[this.pageSize]);
+            }
+            this.metrics.increment(page, StorageMetrics.Counter.PAGE_ALLOCS);
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -245,16 +811,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             pi.freePage(pageNum);
+            this.metrics.increment(page, StorageMetrics.Counter.PAGE_FREES);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -264,21 +824,126 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void readPage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        if (buf.length != this.pageSize) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        this.awaitPendingWrite(page);
+        this.readPageNow(page, buf);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
+            throw new IllegalArgumentException("readPageAsync expects a page-sized buffer");
+        }
+        CompletableFuture<Void> pendingWrite = this.pendingWrites.get(page);
+        CompletableFuture<Void> ready = pendingWrite == null
+                                        ? CompletableFuture.completedFuture(null)
+                                        : pendingWrite.handle((result, e) -> null);
+        int partNum = DiskSpaceManager.getPartNum(page);
+        Executor executor = this.getIOExecutor();
+        return ready.thenRunAsync(() -> this.readPageNow(page, buf),
+                                  (Runnable request) -> this.submitIO(partNum, executor, request));
+    }
+
+    private void readPageNow(long page, ByteBuffer buf) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartition(partNum);
+        boolean unlocked;
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            // the lock is only held to check that the page is allocated, unless the read
+            // cannot be made without it
+            unlocked = pi.beginUnlockedIO(pageNum, false);
+            if (!unlocked) {
+                this.readPartitionPage(partNum, pi, pageNum, buf, true);
+            }
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.unlock();
         }
+        if (unlocked) {
+            try {
+                this.readPartitionPage(partNum, pi, pageNum, buf, false);
+            } finally {
+                pi.endUnlockedIO(false);
+            }
+        }
+    }
+
+    private void readPartitionPage(int partNum, PartitionHandle pi, int pageNum, ByteBuffer buf, boolean locked) {
         try {
-            pi.readPage(pageNum, buf);
+            long start = System.nanoTime();
+            if (locked) {
+                pi.readPage(pageNum, buf);
+            } else {
+                pi.readPageUnlocked(pageNum, buf);
+            }
+            StorageMetrics.PartitionClass partitionClass = this.metrics.getPartitionClass(partNum);
+            this.metrics.recordLatency(partitionClass, StorageMetrics.Latency.PAGE_READ, System.nanoTime() - start);
+            this.metrics.increment(partitionClass, StorageMetrics.Counter.PAGE_READS);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void readPages(long[] pages, ByteBuffer[] bufs) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("readPages expects one buffer per page");
+        }
+        for (ByteBuffer buf : bufs) {
+            if (buf.remaining() != this.pageSize) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        // read pages in order of page number, so that the pages of each partition are
+        // grouped together and in file order
+        Integer[] order = new Integer[pages.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> pages[i]));
+        for (long page : pages) {
+            this.awaitPendingWrite(page);
+        }
+        int start = 0;
+        while (start < order.length) {
+            int partNum = DiskSpaceManager.getPartNum(pages[order[start]]);
+            int end = start + 1;
+            while (end < order.length && DiskSpaceManager.getPartNum(pages[order[end]]) == partNum) {
+                ++end;
+            }
+            int[] pageNums = new int[end - start];
+            ByteBuffer[] partBufs = new ByteBuffer[end - start];
+            for (int i = start; i < end; ++i) {
+                pageNums[i - start] = DiskSpaceManager.getPageNum(pages[order[i]]);
+                partBufs[i - start] = bufs[order[i]];
+            }
+            this.readPartitionPages(partNum, pageNums, partBufs);
+            start = end;
+        }
+    }
+
+    private void readPartitionPages(int partNum, int[] pageNums, ByteBuffer[] bufs) {
+        PartitionHandle pi = this.lockPartition(partNum);
+        try {
+            long start = System.nanoTime();
+            pi.readPages(pageNums, bufs);
+            // latency is recorded per page, to stay comparable with single page reads
+            long perPage = (System.nanoTime() - start) / pageNums.length;
+            StorageMetrics.PartitionClass partitionClass = this.metrics.getPartitionClass(partNum);
+            for (int i = 0; i < pageNums.length; ++i) {
+                this.metrics.recordLatency(partitionClass, StorageMetrics.Latency.PAGE_READ, perPage);
+                this.metrics.increment(partitionClass, StorageMetrics.Counter.PAGE_READS);
+            }
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -288,25 +953,77 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void writePage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        if (buf.length != this.pageSize) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        this.awaitPendingWrite(page);
+        this.writePageNow(page, buf);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, ByteBuffer buf) {
+        if (buf.remaining() != this.pageSize) {
+            throw new IllegalArgumentException("writePageAsync expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        Executor executor = this.getIOExecutor();
+        // chain the write after any write of the same page that has not completed yet
+        CompletableFuture<Void> write = this.pendingWrites.compute(page, (p, previous) -> {
+            CompletableFuture<Void> ready = previous == null
+                                            ? CompletableFuture.completedFuture(null)
+                                            : previous.handle((result, e) -> null);
+            return ready.thenRunAsync(() -> this.writePageNow(page, buf),
+                                      (Runnable request) -> this.submitIO(partNum, executor, request));
+        });
+        write.whenComplete((result, e) -> this.pendingWrites.remove(page, write));
+        return write;
+    }
+
+    private void writePageNow(long page, ByteBuffer buf) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartition(partNum);
+        boolean unlocked;
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            // the lock is only held to check that the page is allocated, unless the write
+            // cannot be made without it
+            unlocked = pi.beginUnlockedIO(pageNum, true);
+            if (!unlocked) {
+                this.writePartitionPage(partNum, pi, pageNum, buf, true);
+            }
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.unlock();
         }
+        if (unlocked) {
+            try {
+                this.writePartitionPage(partNum, pi, pageNum, buf, false);
+            } finally {
+                pi.endUnlockedIO(true);
+            }
+        }
+    }
+
+    private void writePartitionPage(int partNum, PartitionHandle pi, int pageNum, ByteBuffer buf, boolean locked) {
         try {
-            pi.writePage(pageNum, buf);
+            long start = System.nanoTime();
+            if (locked) {
+                pi.writePage(pageNum, buf);
+            } else {
+                pi.writePageUnlocked(pageNum, buf);
+            }
+            StorageMetrics.PartitionClass partitionClass = this.metrics.getPartitionClass(partNum);
+            this.metrics.recordLatency(partitionClass, StorageMetrics.Latency.PAGE_WRITE, System.nanoTime() - start);
+            this.metrics.increment(partitionClass, StorageMetrics.Counter.PAGE_WRITES);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
-        } finally {
-            pi.partitionLock.unlock();
         }
     }
 
@@ -314,14 +1031,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum);
         try {
             return !pi.isNotAllocatedPage(pageNum);
         } finally {
@@ -329,6 +1039,11 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public StorageMetrics getMetrics() {
+        return this.metrics;
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
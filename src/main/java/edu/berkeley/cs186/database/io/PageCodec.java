@@ -0,0 +1,175 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 codec for pages, using the LZ4 block format: a sequence of (literals, match)
+ * pairs, where a match copies bytes from up to 64K bytes back in the output. Each
+ * sequence starts with a token byte holding the number of literals in its upper 4 bits and
+ * the match length minus 4 in its lower 4 bits (15 meaning that more length bytes follow,
+ * each adding up to 255), followed by the literals, and the match offset as a 2-byte
+ * little-endian integer. The last sequence has literals only.
+ *
+ * Matches are found with a single-entry hash table of 4-byte sequences, which suits pages
+ * of fixed-width records with padded strings and zeroed free space.
+ */
+final class PageCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // the last LAST_LITERALS bytes are always literals, and no match starts in the last
+    // MATCH_FIND_LIMIT bytes (as in LZ4)
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int HASH_LOG = 12;
+
+    private PageCodec() {}
+
+    /**
+     * Compresses bytes.
+     * @param src bytes to compress
+     * @param srcLen number of bytes of src to compress
+     * @param dst buffer for the compressed bytes
+     * @param dstOff offset in dst to write the compressed bytes at
+     * @param maxLen maximum number of compressed bytes to write
+     * @return number of compressed bytes, or -1 if they do not fit in maxLen bytes
+     */
+    static int compress(byte[] src, int srcLen, byte[] dst, int dstOff, int maxLen) {
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int dstEnd = dstOff + maxLen;
+        int anchor = 0;
+        int ip = 0;
+        int op = dstOff;
+        int matchLimit = srcLen - LAST_LITERALS;
+        while (ip < srcLen - MATCH_FIND_LIMIT) {
+            int sequence = readInt(src, ip);
+            int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+            int ref = table[hash];
+            table[hash] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ++ip;
+                continue;
+            }
+            // extend the match backwards over literals, then forwards
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                --ip;
+                --ref;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                ++matchLen;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op, dstEnd);
+            if (op < 0) {
+                return -1;
+            }
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(src, anchor, srcLen - anchor, 0, 0, dst, op, dstEnd);
+        return op < 0 ? -1 : op - dstOff;
+    }
+
+    /**
+     * Decompresses bytes compressed by compress.
+     * @param src buffer holding the compressed bytes
+     * @param srcOff offset in src of the compressed bytes
+     * @param srcLen number of compressed bytes
+     * @param dst buffer for the decompressed bytes
+     * @param dstLen number of decompressed bytes expected
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstLen) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                if (ip + literalLen > srcEnd || op + literalLen > dstLen) {
+                    throw new PageException("corrupt compressed page");
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+                if (ip == srcEnd) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & 0xF;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLen > dstLen || ip > srcEnd) {
+                    throw new PageException("corrupt compressed page");
+                }
+                // byte by byte, since the match may overlap the bytes it produces
+                for (int i = 0; i < matchLen; ++i) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PageException("corrupt compressed page");
+        }
+        if (op != dstLen) {
+            throw new PageException("corrupt compressed page");
+        }
+    }
+
+    /**
+     * Writes a sequence of literals followed by a match (if matchLen is not 0).
+     * @return offset in dst after the sequence, or -1 if it does not fit before dstEnd
+     */
+    private static int writeSequence(byte[] src, int literalStart, int literalLen, int offset, int matchLen,
+                                     byte[] dst, int op, int dstEnd) {
+        // token, literal length bytes, literals, offset, match length bytes
+        if (op + 1 + literalLen / 255 + 1 + literalLen + 2 + matchLen / 255 + 1 > dstEnd) {
+            return -1;
+        }
+        int token = op++;
+        int literalNibble = Math.min(literalLen, 15);
+        if (literalLen >= 15) {
+            op = writeLength(literalLen - 15, dst, op);
+        }
+        System.arraycopy(src, literalStart, dst, op, literalLen);
+        op += literalLen;
+        int matchNibble = 0;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            matchNibble = Math.min(matchLen - MIN_MATCH, 15);
+            if (matchLen - MIN_MATCH >= 15) {
+                op = writeLength(matchLen - MIN_MATCH - 15, dst, op);
+            }
+        }
+        dst[token] = (byte) (literalNibble << 4 | matchNibble);
+        return op;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
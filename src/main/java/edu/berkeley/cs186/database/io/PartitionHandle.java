@@ -2,89 +2,292 @@ package edu.berkeley.cs186.database.io;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
-import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
-import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.EXTENT_PAGES;
 
 class PartitionHandle implements AutoCloseable {
+    // Size of each memory-mapped segment of the file, in bytes (a whole number of pages of any
+    // supported page size)
+    static final int MAPPED_SEGMENT_SIZE = 1024 * PAGE_SIZE;
+
+    // Maximum number of header pages of the partition cached in memory at once
+    static final int MAX_CACHED_HEADER_PAGES = 16;
+
+    // Alignment of buffers, file offsets and lengths of direct I/O, in bytes (a multiple of the
+    // logical block size of common devices)
+    static final int DIRECT_IO_ALIGNMENT = PAGE_SIZE;
+
+    // Option to open files for direct I/O (O_DIRECT), or null if the JVM does not support it
+    static final OpenOption DIRECT_OPEN_OPTION = directOpenOption();
+
     // Lock on the partition.
     ReentrantLock partitionLock;
 
-    // Underlying OS file/file channel.
+    // Number of data page reads and writes in progress without the partition lock held (see
+    // beginUnlockedIO), and the condition signalled when one of them ends
+    private int numUnlockedIO;
+    private Condition unlockedIODone;
+
+    // Name of the OS file the partition is stored in
+    private String fileName;
+
+    // Underlying OS file/file channel (null while the file is not open).
     private RandomAccessFile file;
     private FileChannel fileChannel;
 
-    // Contents of the master page of this partition
-    // Ideally would be an unsigned short array but Java doesn't have unsigned types
+    // Size of pages, in bytes, and the layout of the file it implies
+    private int pageSize;
+    private int maxHeaderPages;
+    private int dataPagesPerHeader;
+
+    // Size of each entry of the master page, in bytes: an unsigned short with the default page
+    // size, and an int with larger pages (whose header pages manage more than 64K data pages)
+    private int masterEntrySize;
+
+    // Contents of the master page of this partition (null while the file is not open)
     private int[] masterPage;
 
-    // Contents of the various header pages of this partition
+    // Contents of the various header pages of this partition (null for header pages not
+    // cached; header pages are read in when first used)
     private byte[][] headerPages;
 
+    // Index of allocated data pages, by header page: bit i of allocatedWords[h][w] is set if
+    // data page w * 64 + i of header page h is allocated (null for header pages not cached)
+    private long[][] allocatedWords;
+
+    // Value of headerClock when each cached header page was last used
+    private long[] headerLastUsed;
+    private long headerClock;
+
+    // Number of header pages cached
+    private int numCachedHeaders;
+
+    // No header page before firstFreeHeader has a free data page
+    private int firstFreeHeader;
+
+    // No word of allocatedWords[h] before firstFreeWord[h] has a free data page
+    private int[] firstFreeWord;
+
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Partition number
     private int partNum;
 
+    // Whether each data page write is forced to disk before returning
+    private boolean syncWrites;
+
+    // Whether data pages have been written since the file was last forced to disk
+    private boolean unsynced;
+
+    // Length of the OS file, in bytes
+    private long fileLength;
+
+    // Memory-mapped segments of the file (null for segments not mapped yet), or null if data
+    // pages are read and written with positional channel calls
+    private List<MappedByteBuffer> mappedSegments;
+
+    // Compressed copies of data pages, or null if the partition is not compressed (or not open)
+    private CompressedPageStore compressedPages;
+
+    // Whether data pages should be read and written with direct I/O, bypassing the OS's cache
+    private boolean directIO;
+
+    // Channel of the OS file opened for direct I/O, or null if data pages are read and written
+    // through the OS's cache (direct I/O is off or not supported by the file system, or the file
+    // is not open)
+    private FileChannel directChannel;
+
+    // Aligned buffer for direct I/O, grown as needed (null until first used)
+    private ByteBuffer directBuffer;
+
+    // I/O counters
+    private StorageMetrics metrics;
+
     PartitionHandle(int partNum, RecoveryManager recoveryManager) {
-        this.masterPage = new int[MAX_HEADER_PAGES];
-        this.headerPages = new byte[MAX_HEADER_PAGES][];
+        this(partNum, recoveryManager, true);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncWrites) {
+        this(partNum, recoveryManager, syncWrites, new StorageMetrics(), PAGE_SIZE);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncWrites, StorageMetrics metrics,
+                    int pageSize) {
+        this(partNum, recoveryManager, syncWrites, metrics, pageSize, false);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncWrites, StorageMetrics metrics,
+                    int pageSize, boolean directIO) {
         this.partitionLock = new ReentrantLock();
+        this.unlockedIODone = this.partitionLock.newCondition();
+        this.numUnlockedIO = 0;
+        this.pageSize = pageSize;
+        this.maxHeaderPages = DiskSpaceManagerImpl.maxHeaderPages(pageSize);
+        this.dataPagesPerHeader = DiskSpaceManagerImpl.dataPagesPerHeader(pageSize);
+        this.masterEntrySize = pageSize == PAGE_SIZE ? Short.BYTES : Integer.BYTES;
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        this.syncWrites = syncWrites;
+        this.unsynced = false;
+        this.mappedSegments = null;
+        this.metrics = metrics;
+        this.directIO = directIO;
     }
 
     /**
-     * Opens the OS file and loads master and header pages.
+     * @return the ExtendedOpenOption.DIRECT option, looked up by name since it is not part
+     *         of every JVM, or null if it is not available
+     */
+    private static OpenOption directOpenOption() {
+        try {
+            Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : options.getEnumConstants()) {
+                if (((Enum<?>) option).name().equals("DIRECT")) {
+                    return (OpenOption) option;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // not supported
+        }
+        return null;
+    }
+
+    /**
+     * Sets the OS file the partition is stored in, without opening it. The file is opened
+     * by open().
+     * @param fileName name of OS file partition is stored in
+     */
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Opens the OS file and loads the master page.
      * @param fileName name of OS file partition is stored in
      */
     void open(String fileName) {
+        this.setFileName(fileName);
+        this.open();
+    }
+
+    /**
+     * Opens the OS file set with setFileName and loads the master page. Header pages are
+     * loaded when first used.
+     */
+    void open() {
         assert (this.fileChannel == null);
+        this.masterPage = new int[this.maxHeaderPages];
+        this.headerPages = new byte[this.maxHeaderPages][];
+        this.allocatedWords = new long[this.maxHeaderPages][];
+        this.headerLastUsed = new long[this.maxHeaderPages];
+        this.numCachedHeaders = 0;
+        this.firstFreeHeader = 0;
+        this.firstFreeWord = new int[this.maxHeaderPages];
         try {
-            this.file = new RandomAccessFile(fileName, "rw");
+            this.file = new RandomAccessFile(this.fileName, "rw");
             this.fileChannel = this.file.getChannel();
             long length = this.file.length();
+            this.fileLength = length;
             if (length == 0) {
                 // new file, write empty master page
                 this.writeMasterPage();
+                this.fileLength = this.pageSize;
             } else {
-                // old file, read in master page + header pages
-                ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                this.fileChannel.read(b, PartitionHandle.masterPageOffset());
+                // old file, read in master page
+                ByteBuffer b = ByteBuffer.wrap(new byte[this.pageSize]);
+                this.fileChannel.read(b, this.masterPageOffset());
                 b.position(0);
-                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                    this.masterPage[i] = Short.toUnsignedInt(b.getShort());
-                    if (PartitionHandle.headerPageOffset(i) < length) {
-                        // Load header pages that were already in the file
-                        byte[] headerPage = new byte[PAGE_SIZE];
-                        this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
-                    }
+                for (int i = 0; i < this.maxHeaderPages; ++i) {
+                    this.masterPage[i] = this.masterEntrySize == Short.BYTES ? Short.toUnsignedInt(b.getShort())
+                                                                             : b.getInt();
                 }
             }
+            if (this.directIO && DIRECT_OPEN_OPTION != null) {
+                try {
+                    this.directChannel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ,
+                                                          StandardOpenOption.WRITE, DIRECT_OPEN_OPTION);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // the file system does not support direct I/O: go through the OS's cache
+                    this.directChannel = null;
+                }
+            }
+            String compressedFileName = CompressedPageStore.fileNameFor(this.fileName);
+            if (new File(compressedFileName).exists()) {
+                this.compressedPages = new CompressedPageStore(compressedFileName, this.metrics, this.partNum, this.pageSize);
+            }
         } catch (IOException e) {
             throw new PageException("Could not open or read file: " + e.getMessage());
         }
     }
 
+    /**
+     * @return whether the OS file is open
+     */
+    boolean isOpen() {
+        return this.fileChannel != null;
+    }
+
+    /**
+     * Forces unsynced writes to disk, closes the OS file, and drops the cached master and
+     * header pages. The partition can be opened again with open(). Assumes that the
+     * partition lock is held.
+     */
+    void release() throws IOException {
+        this.awaitUnlockedIO();
+        if (!this.isOpen()) {
+            return;
+        }
+        this.sync();
+        if (this.mappedSegments != null) {
+            // segments are mapped again when next used
+            this.mappedSegments = new ArrayList<>();
+        }
+        if (this.compressedPages != null) {
+            this.compressedPages.close();
+            this.compressedPages = null;
+        }
+        if (this.directChannel != null) {
+            this.directChannel.close();
+            this.directChannel = null;
+            this.directBuffer = null;
+        }
+        this.masterPage = null;
+        this.headerPages = null;
+        this.allocatedWords = null;
+        this.headerLastUsed = null;
+        this.firstFreeWord = null;
+        this.file.close();
+        this.fileChannel.close();
+        this.file = null;
+        this.fileChannel = null;
+    }
+
     @Override
     public void close() throws IOException {
         this.partitionLock.lock();
         try {
-            Arrays.fill(this.headerPages, null);
-            this.file.close();
-            this.fileChannel.close();
+            this.release();
+            this.mappedSegments = null;
         } finally {
             this.partitionLock.unlock();
         }
@@ -94,12 +297,31 @@ class PartitionHandle implements AutoCloseable {
      * Writes the master page to disk.
      */
     private void writeMasterPage() throws IOException {
-        ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            b.putShort((short) masterPage[i]);
+        ByteBuffer b = ByteBuffer.wrap(new byte[this.pageSize]);
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
+            this.putMasterEntry(b, i);
         }
         b.position(0);
-        this.fileChannel.write(b, PartitionHandle.masterPageOffset());
+        this.fileChannel.write(b, this.masterPageOffset());
+    }
+
+    /**
+     * Writes the entry of the master page for one header page to disk.
+     * @param headerIndex which header page
+     */
+    private void writeMasterEntry(int headerIndex) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(this.masterEntrySize);
+        this.putMasterEntry(b, headerIndex);
+        b.position(0);
+        this.fileChannel.write(b, this.masterPageOffset() + (long) headerIndex * this.masterEntrySize);
+    }
+
+    private void putMasterEntry(ByteBuffer b, int headerIndex) {
+        if (this.masterEntrySize == Short.BYTES) {
+            b.putShort((short) this.masterPage[headerIndex]);
+        } else {
+            b.putInt(this.masterPage[headerIndex]);
+        }
     }
 
     /**
@@ -108,7 +330,91 @@ class PartitionHandle implements AutoCloseable {
      */
     private void writeHeaderPage(int headerIndex) throws IOException {
         ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
-        this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        this.fileChannel.write(b, this.headerPageOffset(headerIndex));
+        this.fileLength = Math.max(this.fileLength, this.headerPageOffset(headerIndex) + this.pageSize);
+    }
+
+    /**
+     * Writes the byte of a header page holding the bit of one data page to disk.
+     * @param headerIndex which header page
+     * @param pageIndex index within header page of the data page
+     */
+    private void writeHeaderByte(int headerIndex, int pageIndex) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex], pageIndex / 8, 1);
+        this.fileChannel.write(b, this.headerPageOffset(headerIndex) + pageIndex / 8);
+    }
+
+    /**
+     * Makes sure that a header page with allocated data pages is cached, reading it in if it
+     * is not, and marks it as most recently used.
+     * @param headerIndex which header page
+     * @return the header page, or null if it is not cached and has no allocated data pages
+     */
+    private byte[] loadHeaderPage(int headerIndex) {
+        if (this.headerPages[headerIndex] == null && this.masterPage[headerIndex] > 0) {
+            byte[] headerPage = new byte[this.pageSize];
+            try {
+                this.fileChannel.read(ByteBuffer.wrap(headerPage), this.headerPageOffset(headerIndex));
+            } catch (IOException e) {
+                throw new PageException("Could not read header page: " + e.getMessage());
+            }
+            this.cacheHeaderPage(headerIndex, headerPage);
+        }
+        this.headerLastUsed[headerIndex] = ++this.headerClock;
+        return this.headerPages[headerIndex];
+    }
+
+    /**
+     * Caches a header page, first dropping the least recently used cached header page if
+     * MAX_CACHED_HEADER_PAGES are cached. Header pages are written through to disk, so they
+     * can be dropped at any time.
+     * @param headerIndex which header page
+     * @param headerPage contents of the header page
+     */
+    private void cacheHeaderPage(int headerIndex, byte[] headerPage) {
+        if (this.numCachedHeaders >= MAX_CACHED_HEADER_PAGES) {
+            int victim = -1;
+            for (int i = 0; i < this.maxHeaderPages; ++i) {
+                if (this.headerPages[i] != null &&
+                        (victim == -1 || this.headerLastUsed[i] < this.headerLastUsed[victim])) {
+                    victim = i;
+                }
+            }
+            this.headerPages[victim] = null;
+            this.allocatedWords[victim] = null;
+            --this.numCachedHeaders;
+        }
+        this.headerPages[headerIndex] = headerPage;
+        this.indexHeaderPage(headerIndex);
+        ++this.numCachedHeaders;
+        this.headerLastUsed[headerIndex] = ++this.headerClock;
+    }
+
+    /**
+     * Builds the index of allocated data pages of a header page from its bitmap.
+     * @param headerIndex which header page
+     */
+    private void indexHeaderPage(int headerIndex) {
+        byte[] headerBytes = this.headerPages[headerIndex];
+        long[] words = new long[this.dataPagesPerHeader / Long.SIZE];
+        for (int i = 0; i < this.dataPagesPerHeader; ++i) {
+            if (Bits.getBit(headerBytes, i) == Bits.Bit.ONE) {
+                words[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+            }
+        }
+        this.allocatedWords[headerIndex] = words;
+        this.firstFreeWord[headerIndex] = 0;
+    }
+
+    /**
+     * @param headerIndex which header page
+     * @param pageIndex index within header page of the data page
+     * @return whether the data page is allocated
+     */
+    private boolean isAllocated(int headerIndex, int pageIndex) {
+        this.loadHeaderPage(headerIndex);
+        long[] words = this.allocatedWords[headerIndex];
+        return words != null && (words[pageIndex / Long.SIZE] & (1L << (pageIndex % Long.SIZE))) != 0;
     }
 
     /**
@@ -116,32 +422,31 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage() throws IOException {
-        int headerIndex = -1;
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
-                headerIndex = i;
-                break;
-            }
+        int headerIndex = this.firstFreeHeader;
+        while (headerIndex < this.maxHeaderPages && this.masterPage[headerIndex] >= this.dataPagesPerHeader) {
+            ++headerIndex;
         }
-        if (headerIndex == -1) {
+        this.firstFreeHeader = headerIndex;
+        if (headerIndex == this.maxHeaderPages) {
             throw new PageException("no free pages - partition has reached max size");
         }
 
-        byte[] headerBytes = this.headerPages[headerIndex];
+        this.loadHeaderPage(headerIndex);
+        long[] words = this.allocatedWords[headerIndex];
 
-        int pageIndex = -1;
-        if (headerBytes == null) {
+        int pageIndex;
+        if (words == null) {
             pageIndex = 0;
         } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                    pageIndex = i;
-                    break;
-                }
+            int wordIndex = this.firstFreeWord[headerIndex];
+            while (wordIndex < words.length && words[wordIndex] == -1L) {
+                ++wordIndex;
             }
-            if (pageIndex == -1) {
+            this.firstFreeWord[headerIndex] = wordIndex;
+            if (wordIndex == words.length) {
                 throw new PageException("header page should have free space, but doesn't");
             }
+            pageIndex = wordIndex * Long.SIZE + Long.numberOfTrailingZeros(~words[wordIndex]);
         }
 
         return this.allocPage(headerIndex, pageIndex);
@@ -154,22 +459,26 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
-        byte[] headerBytes = this.headerPages[headerIndex];
-        if (headerBytes == null) {
-            headerBytes = new byte[PAGE_SIZE];
-            this.headerPages[headerIndex] = headerBytes;
+        byte[] headerBytes = this.loadHeaderPage(headerIndex);
+        // a header page with no allocated data pages is all zeroes, so one that is not cached
+        // does not need to be read in, and is written in full below
+        boolean newHeader = headerBytes == null;
+        if (newHeader) {
+            headerBytes = new byte[this.pageSize];
+            this.cacheHeaderPage(headerIndex, headerBytes);
         }
 
-        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
+        if (this.isAllocated(headerIndex, pageIndex)) {
             throw new IllegalStateException("page at (part=" + partNum + ", header=" + headerIndex + ", index="
                                             +
                                             pageIndex + ") already allocated");
         }
 
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+        this.allocatedWords[headerIndex][pageIndex / Long.SIZE] |= 1L << (pageIndex % Long.SIZE);
+        ++this.masterPage[headerIndex];
 
-        int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+        int pageNum = pageIndex + headerIndex * this.dataPagesPerHeader;
 
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction != null) {
@@ -178,32 +487,72 @@ class PartitionHandle implements AutoCloseable {
             recoveryManager.diskIOHook(vpn);
         }
 
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
+        this.writeMasterEntry(headerIndex);
+        if (newHeader) {
+            this.writeHeaderPage(headerIndex);
+        } else {
+            this.writeHeaderByte(headerIndex, pageIndex);
+        }
 
         return pageNum;
     }
 
+    /**
+     * Makes sure the file covers a newly allocated data page. If it does not, the file is
+     * grown by writing the whole extent (DiskSpaceManagerImpl.EXTENT_PAGES aligned data pages)
+     * containing the page as zeroes, so that pages allocated one at a time are laid out
+     * contiguously on disk, and the file grows once per extent instead of once per page.
+     * Assumes that the partition lock is held.
+     * @param pageNum data page number of the allocated page
+     * @return whether the page was zeroed by growing the file (if not, the page may hold the
+     *         contents of a page that was freed)
+     */
+    boolean extendFor(int pageNum) throws IOException {
+        if (this.compressedPages != null) {
+            // data pages of compressed partitions are not stored in the partition file
+            return false;
+        }
+        long pageOffset = this.dataPageOffset(pageNum);
+        if (pageOffset + this.pageSize <= this.fileLength) {
+            return false;
+        }
+        long extentOffset = this.dataPageOffset(pageNum - pageNum % EXTENT_PAGES);
+        long start = Math.max(this.fileLength, extentOffset);
+        long end = extentOffset + (long) EXTENT_PAGES * this.pageSize;
+        ByteBuffer zeroes = ByteBuffer.allocate((int) (end - start));
+        while (zeroes.hasRemaining()) {
+            this.fileChannel.write(zeroes, start + zeroes.position());
+        }
+        if (this.syncWrites) {
+            this.fileChannel.force(false);
+        } else {
+            this.unsynced = true;
+        }
+        this.fileLength = end;
+        return true;
+    }
+
     /**
      * Frees a page in the partition from use.
      * @param pageNum data page number to be freed
      */
     void freePage(int pageNum) throws IOException {
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        int headerIndex = pageNum / this.dataPagesPerHeader;
+        int pageIndex = pageNum % this.dataPagesPerHeader;
 
-        byte[] headerBytes = headerPages[headerIndex];
-        if (headerBytes == null) {
+        if (headerIndex < 0 || headerIndex >= this.maxHeaderPages || !this.isAllocated(headerIndex, pageIndex)) {
             throw new NoSuchElementException("cannot free unallocated page");
         }
 
-        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ZERO) {
-            throw new NoSuchElementException("cannot free unallocated page");
+        Bits.setBit(headerPages[headerIndex], pageIndex, Bits.Bit.ZERO);
+        this.allocatedWords[headerIndex][pageIndex / Long.SIZE] &= ~(1L << (pageIndex % Long.SIZE));
+        --this.masterPage[headerIndex];
+        this.firstFreeWord[headerIndex] = Math.min(this.firstFreeWord[headerIndex], pageIndex / Long.SIZE);
+        this.firstFreeHeader = Math.min(this.firstFreeHeader, headerIndex);
+        if (this.compressedPages != null) {
+            this.compressedPages.freePage(pageNum);
         }
 
-        Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
-
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction != null) {
             long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
@@ -211,8 +560,8 @@ class PartitionHandle implements AutoCloseable {
             recoveryManager.diskIOHook(vpn);
         }
 
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
+        this.writeMasterEntry(headerIndex);
+        this.writeHeaderByte(headerIndex, pageIndex);
     }
 
     /**
@@ -221,11 +570,71 @@ class PartitionHandle implements AutoCloseable {
      * @param buf output buffer to be filled with page - assumed to be page size
      */
     void readPage(int pageNum, byte[] buf) throws IOException {
+        this.readPage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads in a data page. Assumes that the partition lock is held.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to have a page remaining
+     */
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        if (this.compressedPages != null && this.compressedPages.readPage(pageNum, buf)) {
+            return;
+        }
+        if (this.mappedSegments != null) {
+            buf.put(this.mappedPage(pageNum));
+        } else if (this.directChannel != null) {
+            this.readDirect(this.dataPageOffset(pageNum), new ByteBuffer[] {buf}, 0, 1);
+        } else {
+            this.fileChannel.read(buf, this.dataPageOffset(pageNum));
+        }
+    }
+
+    /**
+     * Reads in several data pages. Pages that are next to each other in the file are read
+     * with a single scattering read. Assumes that the partition lock is held.
+     * @param pageNums data page numbers to read in, in increasing order
+     * @param bufs output buffers to be filled with pages - assumed to have a page remaining each
+     */
+    void readPages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        for (int pageNum : pageNums) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+        }
+        if (this.mappedSegments != null || this.compressedPages != null) {
+            for (int i = 0; i < pageNums.length; ++i) {
+                this.readPage(pageNums[i], bufs[i]);
+            }
+            return;
+        }
+        int start = 0;
+        while (start < pageNums.length) {
+            // find the run of pages that are contiguous on disk starting at start
+            long offset = this.dataPageOffset(pageNums[start]);
+            int end = start + 1;
+            while (end < pageNums.length &&
+                    this.dataPageOffset(pageNums[end]) == offset + (long) (end - start) * this.pageSize) {
+                ++end;
+            }
+            if (this.directChannel != null) {
+                this.readDirect(offset, bufs, start, end - start);
+            } else if (end - start == 1) {
+                this.fileChannel.read(bufs[start], offset);
+            } else {
+                this.fileChannel.position(offset);
+                while (bufs[end - 1].hasRemaining()) {
+                    if (this.fileChannel.read(bufs, start, end - start) < 0) {
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
     }
 
     /**
@@ -234,32 +643,351 @@ class PartitionHandle implements AutoCloseable {
      * @param buf input buffer with new contents of page - assumed to be page size
      */
     void writePage(int pageNum, byte[] buf) throws IOException {
+        this.writePage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes to a data page. Assumes that the partition lock is held.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to have a page remaining
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        if (this.compressedPages != null) {
+            this.compressedPages.writePage(pageNum, buf);
+        } else if (this.mappedSegments != null) {
+            this.mappedPage(pageNum).put(buf);
+            this.fileLength = Math.max(this.fileLength, this.dataPageOffset(pageNum) + this.pageSize);
+        } else if (this.directChannel != null) {
+            this.writeDirect(this.dataPageOffset(pageNum), buf);
+            this.fileLength = Math.max(this.fileLength, this.dataPageOffset(pageNum) + this.pageSize);
+        } else {
+            this.fileChannel.write(buf, this.dataPageOffset(pageNum));
+            this.fileLength = Math.max(this.fileLength, this.dataPageOffset(pageNum) + this.pageSize);
+        }
+        if (this.syncWrites) {
+            this.force();
+        } else {
+            this.unsynced = true;
+        }
+
+        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        recoveryManager.diskIOHook(vpn);
+    }
+
+    /**
+     * Starts a read or write of a data page that is made without the partition lock held:
+     * positional channel calls do not depend on the channel's position, so they may run
+     * concurrently with each other and with other operations on the partition. Pages read and
+     * written through memory maps, compressed, or with direct I/O share state (the list of
+     * mapped segments, the compressed page store, the aligned buffer) and are not started.
+     * The partition is not released until every started read and write ends with
+     * endUnlockedIO. Assumes that the partition lock is held.
+     * @param pageNum data page number to read or write
+     * @param write whether the page is to be written
+     * @return whether the read or write was started, or must be made with the lock held
+     */
+    boolean beginUnlockedIO(int pageNum, boolean write) {
+        if (this.isNotAllocatedPage(pageNum)) {
+            throw new PageException("page " + pageNum + " is not allocated");
+        }
+        if (this.compressedPages != null || this.mappedSegments != null || this.directChannel != null) {
+            return false;
+        }
+        if (write) {
+            // the file is grown before the write, so that extendFor does not zero the page
+            // while it is being written
+            this.fileLength = Math.max(this.fileLength, this.dataPageOffset(pageNum) + this.pageSize);
+        }
+        ++this.numUnlockedIO;
+        return true;
+    }
+
+    /**
+     * Reads in a data page, without the partition lock held. Assumes that the read was
+     * started with beginUnlockedIO.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to have a page remaining
+     */
+    void readPageUnlocked(int pageNum, ByteBuffer buf) throws IOException {
+        this.fileChannel.read(buf, this.dataPageOffset(pageNum));
+    }
+
+    /**
+     * Writes to a data page, without the partition lock held. Assumes that the write was
+     * started with beginUnlockedIO.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to have a page remaining
+     */
+    void writePageUnlocked(int pageNum, ByteBuffer buf) throws IOException {
+        this.fileChannel.write(buf, this.dataPageOffset(pageNum));
+        if (this.syncWrites) {
+            this.fileChannel.force(false);
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Ends a read or write started with beginUnlockedIO. Takes the partition lock.
+     * @param wrote whether the page was written (successfully or not)
+     */
+    void endUnlockedIO(boolean wrote) {
+        this.partitionLock.lock();
+        try {
+            if (wrote && !this.syncWrites) {
+                this.unsynced = true;
+            }
+            --this.numUnlockedIO;
+            this.unlockedIODone.signalAll();
+        } finally {
+            this.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * @return whether reads or writes started with beginUnlockedIO are in progress. Assumes
+     *         that the partition lock is held.
+     */
+    boolean hasUnlockedIO() {
+        return this.numUnlockedIO > 0;
+    }
+
+    /**
+     * Waits for reads and writes started with beginUnlockedIO to end. Assumes that the
+     * partition lock is held.
+     */
+    private void awaitUnlockedIO() {
+        while (this.numUnlockedIO > 0) {
+            this.unlockedIODone.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Forces data page writes that were not forced when they were made to disk. Assumes
+     * that the partition lock is held.
+     */
+    void sync() throws IOException {
+        if (this.unsynced) {
+            this.force();
+            this.unsynced = false;
+        }
+    }
+
+    private void force() throws IOException {
+        if (this.compressedPages != null) {
+            this.compressedPages.force();
+        }
+        if (this.mappedSegments != null) {
+            for (MappedByteBuffer segment : this.mappedSegments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+        }
+        if (this.directChannel != null) {
+            // direct writes bypass the OS's cache, but not the device's
+            this.directChannel.force(false);
+        }
+        this.fileChannel.force(false);
+    }
+
+    /**
+     * Reads in consecutive data pages with direct I/O, through the aligned buffer. Assumes
+     * that the partition lock is held.
+     * @param offset offset in the file of the first page
+     * @param bufs output buffers to be filled with pages - assumed to have a page remaining each
+     * @param start index in bufs of the buffer of the first page
+     * @param numPages number of pages to read in
+     */
+    private void readDirect(long offset, ByteBuffer[] bufs, int start, int numPages) throws IOException {
+        ByteBuffer direct = this.directBuffer(numPages * this.pageSize);
+        while (direct.hasRemaining()) {
+            if (this.directChannel.read(direct, offset + direct.position()) < 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < numPages; ++i) {
+            direct.limit((i + 1) * this.pageSize);
+            direct.position(i * this.pageSize);
+            bufs[start + i].put(direct);
+        }
+    }
+
+    /**
+     * Writes a data page with direct I/O, through the aligned buffer. Assumes that the
+     * partition lock is held.
+     * @param offset offset in the file of the page
+     * @param buf input buffer with new contents of page - assumed to have a page remaining
+     */
+    private void writeDirect(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer direct = this.directBuffer(this.pageSize);
+        ByteBuffer page = buf.duplicate();
+        page.limit(page.position() + this.pageSize);
+        direct.put(page);
+        buf.position(page.position());
+        direct.flip();
+        while (direct.hasRemaining()) {
+            this.directChannel.write(direct, offset + direct.position());
+        }
+    }
+
+    /**
+     * Gets the aligned buffer for direct I/O, cleared, growing it if it is too small. Assumes
+     * that the partition lock is held.
+     * @param size number of bytes needed (a multiple of DIRECT_IO_ALIGNMENT)
+     * @return the buffer, with a position of 0 and a limit of size
+     */
+    private ByteBuffer directBuffer(int size) {
+        if (this.directBuffer == null || this.directBuffer.capacity() < size) {
+            this.directBuffer = ByteBuffer.allocateDirect(size + DIRECT_IO_ALIGNMENT).alignedSlice(DIRECT_IO_ALIGNMENT);
+        }
+        this.directBuffer.clear();
+        this.directBuffer.limit(size);
+        return this.directBuffer;
+    }
+
+    /**
+     * @return whether data pages are read and written with direct I/O
+     */
+    boolean isDirectIO() {
+        return this.directChannel != null;
+    }
+
+    /**
+     * Switches between reading and writing data pages with positional channel calls, and
+     * through memory maps of the file. Assumes that the partition lock is held.
+     * @param memoryMapped whether to read and write data pages through memory maps
+     */
+    void setMemoryMapped(boolean memoryMapped) throws IOException {
+        if (memoryMapped == this.isMemoryMapped()) {
+            return;
+        }
+        this.awaitUnlockedIO();
+        if (memoryMapped && this.isCompressed()) {
+            throw new IllegalStateException("compressed partitions cannot be memory-mapped");
+        }
+        if (memoryMapped) {
+            this.mappedSegments = new ArrayList<>();
+        } else {
+            // writes made through the maps must be forced before the maps are dropped
+            this.force();
+            this.unsynced = false;
+            this.mappedSegments = null;
+        }
+    }
+
+    /**
+     * @return whether data pages are read and written through memory maps
+     */
+    boolean isMemoryMapped() {
+        return this.mappedSegments != null;
+    }
+
+    /**
+     * Switches between storing data pages in the partition file, and compressed in a file of
+     * their own (see CompressedPageStore). Existing data pages are copied over; until a page is
+     * copied, it is still read from where it was, so an interrupted switch loses nothing.
+     * Assumes that the partition lock is held.
+     * @param compressed whether to store data pages compressed
+     */
+    void setCompressed(boolean compressed) throws IOException {
+        if (compressed == this.isCompressed()) {
+            return;
+        }
+        if (compressed && this.isMemoryMapped()) {
+            throw new IllegalStateException("memory-mapped partitions cannot be compressed");
+        }
+        this.awaitUnlockedIO();
+        String compressedFileName = CompressedPageStore.fileNameFor(this.fileName);
+        List<Pair<Integer, Integer>> ranges = this.getAllocatedRanges(Integer.MAX_VALUE);
+        ByteBuffer page = ByteBuffer.allocate(this.pageSize);
+        if (compressed) {
+            CompressedPageStore store = new CompressedPageStore(compressedFileName, this.metrics, this.partNum, this.pageSize);
+            for (Pair<Integer, Integer> range : ranges) {
+                for (int pageNum = range.getFirst(); pageNum < range.getFirst() + range.getSecond(); ++pageNum) {
+                    page.clear();
+                    this.readPage(pageNum, page);
+                    page.flip();
+                    store.writePage(pageNum, page);
+                }
+            }
+            store.force();
+            this.compressedPages = store;
+        } else {
+            for (Pair<Integer, Integer> range : ranges) {
+                for (int pageNum = range.getFirst(); pageNum < range.getFirst() + range.getSecond(); ++pageNum) {
+                    page.clear();
+                    this.readPage(pageNum, page);
+                    page.flip();
+                    long offset = this.dataPageOffset(pageNum);
+                    while (page.hasRemaining()) {
+                        this.fileChannel.write(page, offset + page.position());
+                    }
+                    this.fileLength = Math.max(this.fileLength, offset + this.pageSize);
+                }
+            }
+            this.fileChannel.force(false);
+            this.compressedPages.close();
+            this.compressedPages = null;
+            if (!new File(compressedFileName).delete()) {
+                throw new PageException("could not delete compressed pages of partition " + this.partNum);
+            }
+        }
+    }
+
+    /**
+     * @return whether data pages are stored compressed
+     */
+    boolean isCompressed() {
+        return this.compressedPages != null;
+    }
+
+    /**
+     * Gets the part of a memory-mapped segment holding a data page, mapping the segment if
+     * it is not mapped yet. Mapping a segment past the end of the file grows the file to
+     * the end of the segment. Assumes that the partition lock is held.
+     * @param pageNum data page number
+     * @return buffer over the data page, with exactly a page remaining
+     */
+    private ByteBuffer mappedPage(int pageNum) throws IOException {
+        long offset = this.dataPageOffset(pageNum);
+        int segmentIndex = (int) (offset / MAPPED_SEGMENT_SIZE);
+        while (this.mappedSegments.size() <= segmentIndex) {
+            this.mappedSegments.add(null);
+        }
+        MappedByteBuffer segment = this.mappedSegments.get(segmentIndex);
+        if (segment == null) {
+            segment = this.fileChannel.map(FileChannel.MapMode.READ_WRITE,
+                                           (long) segmentIndex * MAPPED_SEGMENT_SIZE, MAPPED_SEGMENT_SIZE);
+            this.mappedSegments.set(segmentIndex, segment);
+            this.fileLength = Math.max(this.fileLength, (long) (segmentIndex + 1) * MAPPED_SEGMENT_SIZE);
+        }
+        ByteBuffer page = segment.duplicate();
+        int start = (int) (offset % MAPPED_SEGMENT_SIZE);
+        page.limit(start + this.pageSize);
+        page.position(start);
+        return page;
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
      * @return true if page is not valid or not allocated
      */
     boolean isNotAllocatedPage(int pageNum) {
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
-        if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
+        int headerIndex = pageNum / this.dataPagesPerHeader;
+        int pageIndex = pageNum % this.dataPagesPerHeader;
+        if (headerIndex < 0 || headerIndex >= this.maxHeaderPages) {
             return true;
         }
         if (masterPage[headerIndex] == 0) {
             return true;
         }
-        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
+        return !this.isAllocated(headerIndex, pageIndex);
     }
 
     /**
@@ -267,22 +995,94 @@ class PartitionHandle implements AutoCloseable {
      * @throws IOException
      */
     void freeDataPages() throws IOException {
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
             if (masterPage[i] > 0) {
-                byte[] headerPage = headerPages[i];
-                for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
-                    if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
-                        this.freePage(i * DATA_PAGES_PER_HEADER + j);
+                this.loadHeaderPage(i);
+                long[] words = allocatedWords[i];
+                for (int w = 0; w < words.length; ++w) {
+                    while (words[w] != 0) {
+                        // freePage clears the bit
+                        int j = w * Long.SIZE + Long.numberOfTrailingZeros(words[w]);
+                        this.freePage(i * this.dataPagesPerHeader + j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the allocated data pages of the partition.
+     * @param maxRanges maximum number of ranges to return
+     * @return allocated data pages, as ranges of (first data page number, number of pages)
+     *         in increasing order, or null if there are more than maxRanges ranges
+     */
+    List<Pair<Integer, Integer>> getAllocatedRanges(int maxRanges) {
+        List<Pair<Integer, Integer>> ranges = new ArrayList<>();
+        int runStart = -1;
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
+            int firstPage = i * this.dataPagesPerHeader;
+            long[] words = this.masterPage[i] > 0 ? this.allocatedWords[i] : null;
+            if (words == null && this.masterPage[i] > 0) {
+                this.loadHeaderPage(i);
+                words = this.allocatedWords[i];
+            }
+            for (int w = 0; w < this.dataPagesPerHeader / Long.SIZE; ++w) {
+                long word = words == null ? 0 : words[w];
+                // skip words that do not start or end a run
+                if ((word == 0 && runStart < 0) || (word == -1L && runStart >= 0)) {
+                    continue;
+                }
+                for (int j = 0; j < Long.SIZE; ++j) {
+                    boolean allocated = (word & (1L << j)) != 0;
+                    int pageNum = firstPage + w * Long.SIZE + j;
+                    if (allocated && runStart < 0) {
+                        runStart = pageNum;
+                    } else if (!allocated && runStart >= 0) {
+                        ranges.add(new Pair<>(runStart, pageNum - runStart));
+                        runStart = -1;
+                        if (ranges.size() > maxRanges) {
+                            return null;
+                        }
                     }
                 }
             }
         }
+        if (runStart >= 0) {
+            ranges.add(new Pair<>(runStart, this.maxHeaderPages * this.dataPagesPerHeader - runStart));
+        }
+        return ranges.size() > maxRanges ? null : ranges;
+    }
+
+    /**
+     * Frees all data pages of the partition at once, when the whole partition is being freed
+     * (and its file deleted) with a single log record: unlike freeDataPages, the pages are
+     * not logged, and the master and header pages are not written, one page at a time. The
+     * recovery manager is told that each page no longer needs to be written.
+     */
+    void dropDataPages() {
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
+            if (this.masterPage[i] == 0) {
+                continue;
+            }
+            this.loadHeaderPage(i);
+            long[] words = this.allocatedWords[i];
+            for (int w = 0; w < words.length; ++w) {
+                long word = words[w];
+                while (word != 0) {
+                    int j = w * Long.SIZE + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    long vpn = DiskSpaceManager.getVirtualPageNum(partNum, i * this.dataPagesPerHeader + j);
+                    recoveryManager.diskIOHook(vpn);
+                }
+            }
+            this.masterPage[i] = 0;
+        }
     }
 
     /**
      * @return offset in OS file for master page
      */
-    private static long masterPageOffset() {
+    private long masterPageOffset() {
         return 0;
     }
 
@@ -290,7 +1090,7 @@ class PartitionHandle implements AutoCloseable {
      * @param headerIndex which header page
      * @return offset in OS file for header page
      */
-    private static long headerPageOffset(int headerIndex) {
+    private long headerPageOffset(int headerIndex) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10 11
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D][H]...
@@ -299,15 +1099,15 @@ class PartitionHandle implements AutoCloseable {
         // the master page, and then take the header index times the number
         // of data pages per header plus 1 to account for the header page
         // itself (in the above example this coefficient would be 5)
-        long spacingCoeff = DATA_PAGES_PER_HEADER + 1; // Promote to long
-        return (1 + headerIndex * spacingCoeff) * PAGE_SIZE;
+        long spacingCoeff = this.dataPagesPerHeader + 1; // Promote to long
+        return (1 + headerIndex * spacingCoeff) * this.pageSize;
     }
 
     /**
      * @param pageNum data page number
      * @return offset in OS file for data page
      */
-    private static long dataPageOffset(int pageNum) {
+    private long dataPageOffset(int pageNum) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D]
@@ -319,7 +1119,7 @@ class PartitionHandle implements AutoCloseable {
         //   (found by floor dividing page num by data pages per header)
         // - add how many data pages precede the given data page
         //   (this works out conveniently to the page's page number)
-        long otherHeaders = pageNum / DATA_PAGES_PER_HEADER;
-        return (2 + otherHeaders + pageNum) * PAGE_SIZE;
+        long otherHeaders = pageNum / this.dataPagesPerHeader;
+        return (2 + otherHeaders + pageNum) * this.pageSize;
     }
 }
\ No newline at end of file
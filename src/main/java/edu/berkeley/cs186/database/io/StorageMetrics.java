@@ -0,0 +1,314 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the buffer manager and disk space manager,
+ * split by the class of partition (log, catalog, user tables, indices, temporary
+ * tables) a page belongs to.
+ *
+ * All updates are lock-free (LongAdder and AtomicLongArray), so they can be made on
+ * every page access; reads are not atomic across counters, and may be slightly out of
+ * date while updates are in progress.
+ *
+ * Partitions are classified by number by default: partition 0 is the log, partitions 1
+ * and 2 are the catalog (information_schema.tables and information_schema.indices),
+ * and any other partition is a user table unless marked otherwise with
+ * setPartitionClass.
+ */
+public class StorageMetrics implements StorageMetricsMXBean {
+    public enum PartitionClass {
+        LOG, CATALOG, TABLE, INDEX, TEMP;
+
+        String key() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public enum Counter {
+        // buffer manager
+        HITS, MISSES, EVICTIONS, DIRTY_WRITE_BACKS, PIN_WAITS,
+        // disk space manager
+        PAGE_READS, PAGE_WRITES, PAGE_ALLOCS, PAGE_FREES,
+        // compressed partitions: bytes of pages written, bytes they were compressed to, and
+        // bytes of I/O saved by reading and writing compressed pages instead of whole pages
+        COMPRESSION_INPUT_BYTES, COMPRESSION_OUTPUT_BYTES, IO_BYTES_SAVED;
+
+        String key() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public enum Latency {
+        // time spent waiting for another thread to release a frame before pinning it
+        PIN_WAIT,
+        // time spent reading/writing a page in the disk space manager
+        PAGE_READ, PAGE_WRITE;
+
+        String key() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final int LOG_PARTITION = 0;
+    private static final int LAST_CATALOG_PARTITION = 2;
+
+    // counters[partition class][counter]
+    private final LongAdder[][] counters;
+
+    // histograms[partition class][latency]
+    private final LatencyHistogram[][] histograms;
+
+    // partitions that are not classified by partition number
+    private final Map<Integer, PartitionClass> partitionClasses;
+
+    public StorageMetrics() {
+        int numClasses = PartitionClass.values().length;
+        this.counters = new LongAdder[numClasses][Counter.values().length];
+        this.histograms = new LatencyHistogram[numClasses][Latency.values().length];
+        for (int i = 0; i < numClasses; ++i) {
+            for (int j = 0; j < this.counters[i].length; ++j) {
+                this.counters[i][j] = new LongAdder();
+            }
+            for (int j = 0; j < this.histograms[i].length; ++j) {
+                this.histograms[i][j] = new LatencyHistogram();
+            }
+        }
+        this.partitionClasses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Marks the class of a partition, e.g. when it is allocated for an index.
+     * @param partNum partition number
+     * @param partitionClass class of the partition
+     */
+    public void setPartitionClass(int partNum, PartitionClass partitionClass) {
+        this.partitionClasses.put(partNum, partitionClass);
+    }
+
+    /**
+     * Forgets the class of a partition, when the partition is freed.
+     * @param partNum partition number
+     */
+    public void clearPartitionClass(int partNum) {
+        this.partitionClasses.remove(partNum);
+    }
+
+    /**
+     * @param partNum partition number
+     * @return class of the partition
+     */
+    public PartitionClass getPartitionClass(int partNum) {
+        PartitionClass partitionClass = this.partitionClasses.get(partNum);
+        if (partitionClass != null) {
+            return partitionClass;
+        }
+        if (partNum == LOG_PARTITION) {
+            return PartitionClass.LOG;
+        }
+        if (partNum <= LAST_CATALOG_PARTITION) {
+            return PartitionClass.CATALOG;
+        }
+        return PartitionClass.TABLE;
+    }
+
+    /**
+     * @param pageNum virtual page number
+     * @return class of the partition of the page
+     */
+    public PartitionClass classify(long pageNum) {
+        return this.getPartitionClass(DiskSpaceManager.getPartNum(pageNum));
+    }
+
+    public void increment(PartitionClass partitionClass, Counter counter) {
+        this.counters[partitionClass.ordinal()][counter.ordinal()].increment();
+    }
+
+    public void increment(long pageNum, Counter counter) {
+        this.increment(this.classify(pageNum), counter);
+    }
+
+    public void add(PartitionClass partitionClass, Counter counter, long amount) {
+        this.counters[partitionClass.ordinal()][counter.ordinal()].add(amount);
+    }
+
+    public void recordLatency(PartitionClass partitionClass, Latency latency, long nanos) {
+        this.histograms[partitionClass.ordinal()][latency.ordinal()].record(nanos);
+    }
+
+    public void recordLatency(long pageNum, Latency latency, long nanos) {
+        this.recordLatency(this.classify(pageNum), latency, nanos);
+    }
+
+    /**
+     * @return value of a counter for a class of partitions
+     */
+    public long getCount(PartitionClass partitionClass, Counter counter) {
+        return this.counters[partitionClass.ordinal()][counter.ordinal()].sum();
+    }
+
+    /**
+     * @return value of a counter summed over all classes of partitions
+     */
+    public long getCount(Counter counter) {
+        long total = 0;
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            total += this.getCount(partitionClass, counter);
+        }
+        return total;
+    }
+
+    /**
+     * @return latency histogram for a class of partitions
+     */
+    public LatencyHistogram getHistogram(PartitionClass partitionClass, Latency latency) {
+        return this.histograms[partitionClass.ordinal()][latency.ordinal()];
+    }
+
+    /**
+     * @return fraction of buffer manager page fetches for a class of partitions that did not
+     *         need to read the page from disk, or NaN if there were no fetches
+     */
+    public double getHitRatio(PartitionClass partitionClass) {
+        long hits = this.getCount(partitionClass, Counter.HITS);
+        long misses = this.getCount(partitionClass, Counter.MISSES);
+        return (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return ratio of the size of pages written to compressed partitions of a class to the
+     *         size they were compressed to, or NaN if no pages were written compressed
+     */
+    public double getCompressionRatio(PartitionClass partitionClass) {
+        long input = this.getCount(partitionClass, Counter.COMPRESSION_INPUT_BYTES);
+        long output = this.getCount(partitionClass, Counter.COMPRESSION_OUTPUT_BYTES);
+        return output == 0 ? Double.NaN : (double) input / output;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            for (Counter counter : Counter.values()) {
+                result.put(partitionClass.key() + "." + counter.key(), this.getCount(partitionClass, counter));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getHitRatios() {
+        Map<String, Double> result = new TreeMap<>();
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            result.put(partitionClass.key(), this.getHitRatio(partitionClass));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getCompressionRatios() {
+        Map<String, Double> result = new TreeMap<>();
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            result.put(partitionClass.key(), this.getCompressionRatio(partitionClass));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> result = new TreeMap<>();
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            for (Latency latency : Latency.values()) {
+                LatencyHistogram histogram = this.getHistogram(partitionClass, latency);
+                String prefix = partitionClass.key() + "." + latency.key();
+                result.put(prefix + ".count", histogram.getCount());
+                result.put(prefix + ".p50_ns", histogram.getPercentile(0.5));
+                result.put(prefix + ".p99_ns", histogram.getPercentile(0.99));
+                result.put(prefix + ".max_ns", histogram.getPercentile(1.0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a table of the counters and latencies, one row per class of partitions
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-8s %10s %10s %7s %10s %10s %9s %10s %10s %12s %12s%n",
+                "class", "hits", "misses", "hit %", "evictions", "writebacks", "pin waits",
+                "reads", "writes", "read p99 ns", "write p99 ns"));
+        for (PartitionClass partitionClass : PartitionClass.values()) {
+            double hitRatio = this.getHitRatio(partitionClass);
+            sb.append(String.format("%-8s %10d %10d %7s %10d %10d %9d %10d %10d %12d %12d%n",
+                    partitionClass.key(),
+                    this.getCount(partitionClass, Counter.HITS),
+                    this.getCount(partitionClass, Counter.MISSES),
+                    Double.isNaN(hitRatio) ? "-" : String.format("%.1f", 100 * hitRatio),
+                    this.getCount(partitionClass, Counter.EVICTIONS),
+                    this.getCount(partitionClass, Counter.DIRTY_WRITE_BACKS),
+                    this.getCount(partitionClass, Counter.PIN_WAITS),
+                    this.getCount(partitionClass, Counter.PAGE_READS),
+                    this.getCount(partitionClass, Counter.PAGE_WRITES),
+                    this.getHistogram(partitionClass, Latency.PAGE_READ).getPercentile(0.99),
+                    this.getHistogram(partitionClass, Latency.PAGE_WRITE).getPercentile(0.99)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A histogram of latencies with power-of-two buckets: bucket i counts latencies in
+     * [2^i, 2^(i+1)) nanoseconds (bucket 0 also counts latencies of 0).
+     */
+    public static class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+
+        public void record(long nanos) {
+            int bucket = nanos <= 1 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+            this.buckets.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return number of latencies recorded
+         */
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < this.buckets.length(); ++i) {
+                count += this.buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @param fraction percentile to compute, between 0 and 1
+         * @return upper bound (in nanoseconds) of the bucket containing the percentile, or 0
+         *         if no latencies were recorded
+         */
+        public long getPercentile(double fraction) {
+            long[] counts = new long[this.buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = this.buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == Long.SIZE - 2 ? Long.MAX_VALUE : (2L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
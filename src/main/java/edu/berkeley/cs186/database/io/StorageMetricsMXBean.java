@@ -0,0 +1,30 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Map;
+
+/**
+ * JMX view of StorageMetrics. Keys are of the form <partition class>.<name>, e.g.
+ * "table.hits" or "index.page_read.p99_ns".
+ */
+public interface StorageMetricsMXBean {
+    /**
+     * @return every counter, for every class of partitions
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return buffer hit ratio of each class of partitions (NaN if there were no fetches)
+     */
+    Map<String, Double> getHitRatios();
+
+    /**
+     * @return compression ratio of compressed partitions of each class (NaN if no pages were
+     *         written compressed)
+     */
+    Map<String, Double> getCompressionRatios();
+
+    /**
+     * @return count, median, 99th percentile and maximum of each latency histogram
+     */
+    Map<String, Long> getLatencies();
+}
@@ -0,0 +1,162 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy, which
+ * works by keeping pages seen once recently (T1) and pages seen at least twice
+ * recently (T2) in separate LRU lists, along with "ghost" lists of the page numbers
+ * recently evicted from each (B1 and B2). A target size for T1 is adjusted on every
+ * load of a page found in a ghost list: a page in B1 means T1 was too small, and a
+ * page in B2 means T2 was too small.
+ *
+ * Consecutive hits on the same frame are treated as a single reference, so that
+ * a page read by a sequential scan is not promoted to T2 just by being read more
+ * than once while it is being scanned.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    // resident pages seen once recently, in order of least to most recently used
+    private LinkedHashSet<BufferFrame> t1;
+    // resident pages seen at least twice recently, in order of least to most recently used
+    private LinkedHashSet<BufferFrame> t2;
+    // page numbers of pages evicted from t1, in order of eviction
+    private LinkedHashSet<Long> b1;
+    // page numbers of pages evicted from t2, in order of eviction
+    private LinkedHashSet<Long> b2;
+
+    // target size of t1
+    private int p;
+
+    // number of buffer frames (0 until the first eviction)
+    private int numFrames;
+
+    // frame that was referenced most recently
+    private BufferFrame lastReferenced;
+
+    private static final Object IN_T1 = "T1";
+    private static final Object IN_T2 = "T2";
+
+    public ARCEvictionPolicy() {
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+        this.p = 0;
+        this.numFrames = 0;
+        this.lastReferenced = null;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        long pageNum = frame.getPageNum();
+        if (b1.contains(pageNum)) {
+            p = Math.min(numFrames, p + Math.max(b2.size() / b1.size(), 1));
+            b1.remove(pageNum);
+            t2.add(frame);
+            frame.tag = IN_T2;
+        } else if (b2.contains(pageNum)) {
+            p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+            b2.remove(pageNum);
+            t2.add(frame);
+            frame.tag = IN_T2;
+        } else {
+            t1.add(frame);
+            frame.tag = IN_T1;
+        }
+        lastReferenced = frame;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame == lastReferenced) {
+            return;
+        }
+        if (frame.tag == IN_T1) {
+            t1.remove(frame);
+        } else {
+            t2.remove(frame);
+        }
+        t2.add(frame);
+        frame.tag = IN_T2;
+        lastReferenced = frame;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted;
+        if (!t1.isEmpty() && t1.size() > p) {
+            evicted = firstUnpinned(t1);
+            if (evicted == null) {
+                evicted = firstUnpinned(t2);
+            }
+        } else {
+            evicted = firstUnpinned(t2);
+            if (evicted == null) {
+                evicted = firstUnpinned(t1);
+            }
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    private static BufferFrame firstUnpinned(Set<BufferFrame> list) {
+        for (BufferFrame frame : list) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        if (frame == lastReferenced) {
+            lastReferenced = null;
+        }
+        boolean inT1 = frame.tag == IN_T1;
+        if (!(inT1 ? t1.remove(frame) : t2.remove(frame))) {
+            return;
+        }
+        frame.tag = null;
+        if (numFrames == 0) {
+            return;
+        }
+        (inT1 ? b1 : b2).add(frame.getPageNum());
+        // keep |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c
+        while (!b1.isEmpty() && t1.size() + b1.size() > numFrames) {
+            removeFirst(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * numFrames) {
+            removeFirst(b2.isEmpty() ? b1 : b2);
+        }
+    }
+
+    private static void removeFirst(Set<Long> list) {
+        Iterator<Long> iter = list.iterator();
+        iter.next();
+        iter.remove();
+    }
+}
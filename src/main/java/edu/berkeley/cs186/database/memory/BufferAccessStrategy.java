@@ -0,0 +1,144 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A buffer access strategy for a bulk operation (a large scan, a spill to a temporary
+ * table, or an index build): a small ring of frames that the operation's page loads
+ * cycle through, so that it does not evict the rest of the buffer pool.
+ *
+ * While the strategy is active on a thread, each page that thread loads takes the
+ * frame at the current position of the ring if that frame still holds the page the
+ * ring last put there and is not pinned; otherwise (while the ring is filling up, or
+ * after the ring's page was evicted or pinned by someone else) a frame is taken from
+ * the shared pool as usual, and becomes part of the ring. Pages that are already
+ * loaded are used as usual, and do not become part of the ring.
+ *
+ * Since operators are evaluated lazily, the strategy is only active for the duration
+ * of a call made through it: use wrap to make an iterator's methods run with the
+ * strategy active, and call or run for anything else.
+ *
+ * A strategy is meant to be used by one operation at a time and is not thread-safe.
+ */
+public class BufferAccessStrategy {
+    // Ring size for operations that only read (or only write) one page at a time
+    public static final int SCAN_RING_SIZE = 32;
+
+    private static final int EMPTY_SLOT = -1;
+
+    private BufferManager bufferManager;
+
+    // index of the frame in each slot of the ring, or EMPTY_SLOT
+    private int[] frameIndices;
+
+    // page that was loaded into the frame in each slot of the ring
+    private long[] pageNums;
+
+    // current position in the ring
+    private int hand;
+
+    BufferAccessStrategy(BufferManager bufferManager, int ringSize) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ring must have at least one frame");
+        }
+        this.bufferManager = bufferManager;
+        this.frameIndices = new int[ringSize];
+        this.pageNums = new long[ringSize];
+        this.hand = 0;
+        Arrays.fill(this.frameIndices, EMPTY_SLOT);
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int getRingSize() {
+        return this.frameIndices.length;
+    }
+
+    /**
+     * Calls a function with this strategy active on the current thread.
+     * @param function function to call
+     * @return result of the function
+     */
+    public <T> T call(Supplier<T> function) {
+        BufferAccessStrategy previous = this.bufferManager.setAccessStrategy(this);
+        try {
+            return function.get();
+        } finally {
+            this.bufferManager.setAccessStrategy(previous);
+        }
+    }
+
+    /**
+     * Runs a function with this strategy active on the current thread.
+     * @param function function to run
+     */
+    public void run(Runnable function) {
+        this.call(() -> {
+            function.run();
+            return null;
+        });
+    }
+
+    /**
+     * @param iterator iterator over pages loaded through the buffer manager
+     * @return an iterator that calls the methods of the given iterator with this strategy active
+     */
+    public <T> BacktrackingIterator<T> wrap(BacktrackingIterator<T> iterator) {
+        return new BacktrackingIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return call(iterator::hasNext);
+            }
+
+            @Override
+            public T next() {
+                return call(iterator::next);
+            }
+
+            @Override
+            public void markPrev() {
+                run(iterator::markPrev);
+            }
+
+            @Override
+            public void markNext() {
+                run(iterator::markNext);
+            }
+
+            @Override
+            public void reset() {
+                run(iterator::reset);
+            }
+        };
+    }
+
+    /**
+     * @return index of the frame in the current slot of the ring, or -1 if the slot is empty
+     */
+    int getCurrentFrame() {
+        return this.frameIndices[this.hand];
+    }
+
+    /**
+     * @return page that was loaded into the frame in the current slot of the ring
+     */
+    long getCurrentPage() {
+        return this.pageNums[this.hand];
+    }
+
+    /**
+     * Records that a page was loaded into a frame for the current slot of the ring, and
+     * moves to the next slot.
+     * @param frameIndex index of the frame
+     * @param pageNum page number of the page loaded
+     */
+    void recordLoad(int frameIndex, long pageNum) {
+        this.frameIndices[this.hand] = frameIndex;
+        this.pageNums[this.hand] = pageNum;
+        this.hand = (this.hand + 1) % this.frameIndices.length;
+    }
+}
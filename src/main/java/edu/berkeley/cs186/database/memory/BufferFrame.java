@@ -1,11 +1,13 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.nio.ByteBuffer;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
     Object tag = null;
-    private int pinCount = 0;
+    private volatile int pinCount = 0;
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
@@ -63,6 +65,27 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Write to the buffer frame, and mark frame as dirtied. If singleRange is set, the
+     * write is logged as one update covering everything from the first to the last byte
+     * changed, instead of one update per range of changed bytes.
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     * @param singleRange whether to log the write as a single update
+     */
+    void writeBytes(short position, short num, byte[] buf, boolean singleRange) {
+        writeBytes(position, num, buf);
+    }
+
+    /**
+     * Returns a read-only view of the data in the buffer frame, backed directly by the
+     * frame's contents. The frame must be pinned by the current thread, and the view must
+     * not be used after the frame is unpinned. Counts as a single hit.
+     * @return view of the frame's data
+     */
+    abstract ByteBuffer getDataView();
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
@@ -72,7 +95,7 @@ abstract class BufferFrame {
     /**
      * @return amount of space available to user of the frame
      */
-    short getEffectivePageSize() {
+    int getEffectivePageSize() {
         return BufferManager.EFFECTIVE_PAGE_SIZE;
     }
 
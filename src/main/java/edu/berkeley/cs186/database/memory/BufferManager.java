@@ -5,20 +5,37 @@ import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.io.StorageMetrics;
 import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
+ * Data is stored in page-sized byte buffers, and returned in a Frame object specific
  * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * a new Frame object, with the same underlying byte buffer), with old Frame objects
+ * backed by the same byte buffer marked as invalid.
+ *
+ * The byte buffers are either page-sized heap arrays, or (in off-heap mode) slices
+ * of a few large direct buffers allocated outside of the Java heap, which the garbage
+ * collector does not need to trace, and which disk I/O can use without an extra copy.
+ *
+ * The page table is split into stripes, each guarded by its own latch, so that
+ * threads fetching different pages do not serialize on a single lock. Free frames
+ * are kept on a lock-free list, and the eviction policy (which is not thread-safe)
+ * is guarded by a separate eviction lock that is only held while consulting the
+ * policy, never across I/O.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -26,57 +43,127 @@ public class BufferManager implements AutoCloseable {
     // fit on one page).
     public static final short RESERVED_SPACE = 36;
 
-    // Effective page size available to users of buffer manager.
+    // Effective page size available to users of buffer manager, with the default page size
+    // (see getEffectivePageSize).
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
+    // Size of pages of the disk space manager, and the part of each available to users of the
+    // buffer manager.
+    private int pageSize;
+    private short effectivePageSize;
+
+    // Maximum number of frames backed by a single direct buffer in off-heap mode
+    static final int FRAMES_PER_ARENA = 1 << 16;
+
     // Buffer frames
     private Frame[] frames;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Number of stripes the page table is split into (must be a power of two)
+    static final int NUM_PAGE_TABLE_STRIPES = 64;
 
-    // Lock on buffer manager
-    private ReentrantLock managerLock;
+    // Map of page number to frame index, split into independently latched stripes
+    private PageTableStripe[] pageTable;
+
+    // Lock on the eviction policy
+    private ReentrantLock evictionLock;
 
     // Eviction policy
     private EvictionPolicy evictionPolicy;
 
-    // Index of first free frame
-    private int firstFreeIndex;
+    // Indices of free frames
+    private ConcurrentLinkedDeque<Integer> freeFrames;
 
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Count of number of I/Os
-    private long numIOs = 0;
+    private AtomicLong numIOs = new AtomicLong();
+
+    // Count of dirty pages written by the background cleaner, and by everything else
+    private AtomicLong numBackgroundFlushes = new AtomicLong();
+    private AtomicLong numForegroundFlushes = new AtomicLong();
+
+    // Background cleaner thread (null if not running), and the next frame it looks at
+    private Thread cleanerThread;
+    private CountDownLatch cleanerStop;
+    private int cleanerHand = 0;
+
+    // Number of pages to read ahead of a sequential scan (0 to disable read-ahead)
+    private volatile int readAheadPages = 0;
+
+    // Threads loading pages for read-ahead (null until read-ahead is enabled)
+    private volatile ThreadPoolExecutor prefetchExecutor;
+
+    // Pages queued to be loaded by read-ahead
+    private Set<Long> pendingPrefetches = ConcurrentHashMap.newKeySet();
+
+    // Count of pages loaded by read-ahead
+    private AtomicLong numPrefetches = new AtomicLong();
+
+    // A bulk operation may use at most 1/BULK_ACCESS_FRACTION of the buffer for its ring,
+    // and only operations reading or writing more pages than that use a ring at all
+    static final int BULK_ACCESS_FRACTION = 4;
+    private static final int EMPTY_RING_SLOT = -1;
+
+    // Buffer access strategy active on each thread (null for the shared pool)
+    private ThreadLocal<BufferAccessStrategy> accessStrategy = new ThreadLocal<>();
+
+    // Count of frames reused by buffer access strategies
+    private AtomicLong numRingReuses = new AtomicLong();
+
+    // Hit, eviction and pin wait counters (shared with the disk space manager)
+    private StorageMetrics metrics;
+
+    // File that resident pages are saved to on close, and loaded from on startup (null to disable)
+    private Path warmRestartFile;
+
+    // Thread loading the pages saved by the last close (null if not running)
+    private Thread warmUpThread;
+    // Set when the buffer manager is closed
+    private volatile boolean stopWarmUp = false;
+
+    // Count of pages loaded from the saved list
+    private AtomicLong numWarmUpLoads = new AtomicLong();
+
+    /**
+     * One stripe of the page table: the mappings for a subset of page numbers,
+     * guarded by a latch.
+     */
+    private static class PageTableStripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<Long, Integer> pageToFrame = new HashMap<>();
+    }
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
-     * list between free frames.
+     * underlying byte array. Free frames store the bitwise complement of their
+     * frame index in the index field.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
+        ByteBuffer contents;
         private int index;
         private long pageNum;
         private boolean dirty;
         private ReentrantLock frameLock;
         private boolean logPage;
+        private StorageMetrics.PartitionClass partitionClass;
+        // time (System.nanoTime) the frame was last fetched, or 0 if it was never fetched
+        private volatile long lastUsed;
 
-        Frame(byte[] contents, int nextFree) {
-            this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
+        Frame(ByteBuffer contents, int frameIndex) {
+            this(contents, ~frameIndex, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
         Frame(Frame frame) {
             this(frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(ByteBuffer contents, int index, long pageNum) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
@@ -84,6 +171,7 @@ public class BufferManager implements AutoCloseable {
             this.frameLock = new ReentrantLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
+            this.partitionClass = metrics.getPartitionClass(partNum);
         }
 
         /**
@@ -101,6 +189,27 @@ public class BufferManager implements AutoCloseable {
             super.pin();
         }
 
+        /**
+         * Pin buffer frame if it is still valid.
+         * @return whether the frame was pinned
+         */
+        private boolean pinIfValid() {
+            if (!this.frameLock.tryLock()) {
+                // only time pins that have to wait, to keep uncontended pins cheap
+                long start = System.nanoTime();
+                this.frameLock.lock();
+                metrics.recordLatency(this.partitionClass, StorageMetrics.Latency.PIN_WAIT,
+                                      System.nanoTime() - start);
+                metrics.increment(this.partitionClass, StorageMetrics.Counter.PIN_WAITS);
+            }
+            if (!this.isValid()) {
+                this.frameLock.unlock();
+                return false;
+            }
+            super.pin();
+            return true;
+        }
+
         /**
          * Unpin buffer frame.
          */
@@ -143,18 +252,7 @@ public class BufferManager implements AutoCloseable {
             if (isFreed()) {
                 throw new IllegalStateException("cannot free free frame");
             }
-            int nextFreeIndex = firstFreeIndex;
-            firstFreeIndex = this.index;
-            this.index = ~nextFreeIndex;
-        }
-
-        private void setUsed() {
-            if (!isFreed()) {
-                throw new IllegalStateException("cannot unfree used frame");
-            }
-            int index = firstFreeIndex;
-            firstFreeIndex = ~this.index;
-            this.index = index;
+            this.index = ~this.index;
         }
 
         /**
@@ -170,21 +268,34 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void flush() {
+            if (this.writeBack()) {
+                BufferManager.this.numForegroundFlushes.incrementAndGet();
+            }
+        }
+
+        /**
+         * Writes this buffer frame to disk if it is dirty, flushing the log first
+         * as needed.
+         * @return whether the frame was written
+         */
+        private boolean writeBack() {
             this.frameLock.lock();
             super.pin();
             try {
                 if (!this.isValid()) {
-                    return;
+                    return false;
                 }
                 if (!this.dirty) {
-                    return;
+                    return false;
                 }
                 if (!this.logPage) {
                     recoveryManager.pageFlushHook(this.getPageLSN());
                 }
-                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+                BufferManager.this.diskSpaceManager.writePage(pageNum, contents.duplicate());
                 BufferManager.this.incrementIOs();
+                metrics.increment(this.partitionClass, StorageMetrics.Counter.DIRTY_WRITE_BACKS);
                 this.dirty = false;
+                return true;
             } finally {
                 super.unpin();
                 this.frameLock.unlock();
@@ -204,8 +315,10 @@ public class BufferManager implements AutoCloseable {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
-                BufferManager.this.evictionPolicy.hit(this);
+                ByteBuffer src = this.contents.duplicate();
+                src.position(position + dataOffset());
+                src.get(buf, 0, num);
+                BufferManager.this.recordHit(this);
             } finally {
                 this.unpin();
             }
@@ -219,6 +332,19 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
+            writeBytes(position, num, buf, false);
+        }
+
+        /**
+         * Write to the buffer frame, and mark frame as dirtied, logging the write as a
+         * single update if singleRange is set.
+         * @param position position in buffer frame to start writing
+         * @param num number of bytes to write
+         * @param buf input buffer
+         * @param singleRange whether to log the write as a single update
+         */
+        @Override
+        void writeBytes(short position, short num, byte[] buf, boolean singleRange) {
             this.pin();
             try {
                 if (!this.isValid()) {
@@ -228,24 +354,51 @@ public class BufferManager implements AutoCloseable {
                 TransactionContext transaction = TransactionContext.getTransaction();
                 if (transaction != null && !logPage) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
+                    if (singleRange && changedRanges.size() > 1) {
+                        Pair<Integer, Integer> last = changedRanges.get(changedRanges.size() - 1);
+                        int start = changedRanges.get(0).getFirst();
+                        changedRanges = Collections.singletonList(
+                            new Pair<>(start, last.getFirst() + last.getSecond() - start));
+                    }
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        ByteBuffer src = contents.duplicate();
+                        src.position(start + offset);
+                        src.get(before);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, position, before,
-                                       after);
+                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum,
+                                       (short) (position + start), before, after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                ByteBuffer dst = this.contents.duplicate();
+                dst.position(offset);
+                dst.put(buf, 0, num);
                 this.dirty = true;
-                BufferManager.this.evictionPolicy.hit(this);
+                BufferManager.this.recordHit(this);
             } finally {
                 this.unpin();
             }
         }
 
+        /**
+         * Returns a read-only view of the data in the buffer frame. The frame must be
+         * pinned by the current thread.
+         */
+        @Override
+        ByteBuffer getDataView() {
+            if (!this.frameLock.isHeldByCurrentThread() || !this.isValid()) {
+                throw new IllegalStateException("viewing unpinned or invalid buffer frame");
+            }
+            BufferManager.this.recordHit(this);
+            ByteBuffer view = this.contents.duplicate();
+            view.limit(dataOffset() + getEffectivePageSize());
+            view.position(dataOffset());
+            return view.slice().asReadOnlyBuffer();
+        }
+
         /**
          * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
          * Page is pinned on return.
@@ -268,17 +421,17 @@ public class BufferManager implements AutoCloseable {
         }
 
         @Override
-        short getEffectivePageSize() {
+        int getEffectivePageSize() {
             if (logPage) {
-                return DiskSpaceManager.PAGE_SIZE;
+                return BufferManager.this.pageSize;
             } else {
-                return BufferManager.EFFECTIVE_PAGE_SIZE;
+                return BufferManager.this.effectivePageSize;
             }
         }
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -288,7 +441,7 @@ public class BufferManager implements AutoCloseable {
             } else if (index == INVALID_INDEX) {
                 return "Buffer Frame (evicted), Page " + pageNum;
             } else {
-                return "Buffer Frame (freed), next free = " + (~index);
+                return "Buffer Frame " + (~index) + " (freed)";
             }
         }
 
@@ -302,7 +455,7 @@ public class BufferManager implements AutoCloseable {
             int startIndex = -1;
             int skip = -1;
             for (int i = 0; i < num; ++i) {
-                if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                if (buf[i] == contents.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -310,7 +463,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != contents.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -324,7 +477,7 @@ public class BufferManager implements AutoCloseable {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -345,39 +498,72 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, false);
+    }
+
+    /**
+     * Creates a new buffer manager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use
+     * @param offHeap whether to store pages in direct buffers outside of the Java heap
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, EvictionPolicy evictionPolicy, boolean offHeap) {
+        this.metrics = diskSpaceManager.getMetrics();
+        this.pageSize = diskSpaceManager.getPageSize();
+        this.effectivePageSize = (short) (this.pageSize - RESERVED_SPACE);
         this.frames = new Frame[bufferSize];
+        this.freeFrames = new ConcurrentLinkedDeque<>();
+        ByteBuffer arena = null;
         for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+            ByteBuffer contents;
+            if (offHeap) {
+                if (i % FRAMES_PER_ARENA == 0) {
+                    int arenaFrames = Math.min(FRAMES_PER_ARENA, bufferSize - i);
+                    arena = ByteBuffer.allocateDirect(arenaFrames * this.pageSize);
+                }
+                int start = (i % FRAMES_PER_ARENA) * this.pageSize;
+                arena.limit(start + this.pageSize);
+                arena.position(start);
+                contents = arena.slice();
+            } else {
+                contents = ByteBuffer.wrap(new byte[this.pageSize]);
+            }
+            this.frames[i] = new Frame(contents, i);
+            this.freeFrames.addLast(i);
+        }
+        this.pageTable = new PageTableStripe[NUM_PAGE_TABLE_STRIPES];
+        for (int i = 0; i < NUM_PAGE_TABLE_STRIPES; ++i) {
+            this.pageTable[i] = new PageTableStripe();
         }
-        this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
-        this.managerLock = new ReentrantLock();
+        this.evictionLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
     @Override
     public void close() {
-        this.managerLock.lock();
-        try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
-                try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
-                    if (!frame.isValid()) {
-                        continue;
-                    }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
+        this.stopBackgroundCleaner();
+        this.stopPrefetching();
+        this.stopWarmUp();
+        this.saveResidentPages();
+        for (Frame frame : this.frames) {
+            frame.frameLock.lock();
+            try {
+                if (frame.isPinned()) {
+                    throw new IllegalStateException("closing buffer manager but frame still pinned");
+                }
+                if (!frame.isValid()) {
+                    continue;
                 }
+                this.cleanupFrame(frame);
+                frame.invalidate();
+            } finally {
+                frame.frameLock.unlock();
             }
-        } finally {
-            this.managerLock.unlock();
         }
     }
 
@@ -390,60 +576,334 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
+        if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+            throw new PageException("page " + pageNum + " not allocated");
+        }
+        while (true) {
+            Frame frame = this.lookupFrame(pageNum);
+            if (frame != null) {
+                if (frame.pinIfValid()) {
+                    this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.HITS);
+                    frame.lastUsed = System.nanoTime();
+                    return frame;
+                }
+                // evicted between the lookup and the pin
+                continue;
+            }
+            frame = this.loadPageFrame(pageNum);
+            if (frame != null) {
+                this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.MISSES);
+                frame.lastUsed = System.nanoTime();
+                return frame;
+            }
+            // another thread loaded the page first
+        }
+    }
+
+    /**
+     * Fetches buffer frames for several pages at once, and pins them. Pages that are
+     * already loaded are looked up with a single pass over the page table (latching each
+     * stripe once), and the pages that are not are read with a single request to the disk
+     * space manager, which can read pages that are next to each other on disk together.
+     * A page listed more than once is pinned once for each time it is listed.
+     *
+     * Every page stays pinned until the caller unpins it, so the buffer must have enough
+     * frames to hold all of the pages at once. If any page cannot be fetched, none of the
+     * pages are left pinned.
+     *
+     * @param pageNums page numbers
+     * @return buffer frames with the specified pages loaded, in the same order as pageNums
+     */
+    Frame[] fetchPageFrames(long[] pageNums) {
+        for (long pageNum : pageNums) {
             if (!this.diskSpaceManager.pageAllocated(pageNum)) {
                 throw new PageException("page " + pageNum + " not allocated");
             }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
+        }
+        Frame[] result = this.lookupFrames(pageNums);
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < pageNums.length; ++i) {
+            // frames are pinned after the lookup, since frame locks cannot be taken while
+            // holding a stripe latch
+            if (result[i] != null && result[i].pinIfValid()) {
+                this.metrics.increment(result[i].partitionClass, StorageMetrics.Counter.HITS);
+                result[i].lastUsed = System.nanoTime();
             } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+                result[i] = null;
+                misses.add(i);
             }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+        // reserve frames in order of page number, so that the reads are issued in file order
+        misses.sort(Comparator.comparingLong(i -> pageNums[i]));
+        List<Frame> reserved = new ArrayList<>();
+        // pages listed more than once, or loaded by another thread in the meantime
+        List<Integer> remaining = new ArrayList<>();
+        try {
+            for (int i : misses) {
+                Frame frame = null;
+                if (reserved.isEmpty() || reserved.get(reserved.size() - 1).pageNum != pageNums[i]) {
+                    frame = this.reserveFrame(pageNums[i]);
+                }
+                if (frame == null) {
+                    remaining.add(i);
+                    continue;
+                }
+                reserved.add(frame);
+                result[i] = frame;
+            }
+            this.readReservedFrames(reserved);
+        } catch (RuntimeException e) {
+            this.unreserveFrames(reserved);
+            Set<Frame> unreserved = Collections.newSetFromMap(new IdentityHashMap<>());
+            unreserved.addAll(reserved);
+            for (Frame frame : result) {
+                if (frame != null && !unreserved.contains(frame)) {
+                    frame.unpin();
+                }
+            }
+            throw e;
+        }
+        for (Frame frame : reserved) {
+            this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.MISSES);
+            frame.lastUsed = System.nanoTime();
+        }
+        try {
+            for (int i : remaining) {
+                result[i] = this.fetchPageFrame(pageNums[i]);
+            }
+        } catch (RuntimeException e) {
+            for (Frame frame : result) {
+                if (frame != null) {
+                    frame.unpin();
+                }
+            }
+            throw e;
+        }
+        return result;
+    }
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+    /**
+     * Loads a page that is not in memory into a free (or newly evicted) frame, and pins it.
+     *
+     * @param pageNum page number
+     * @return pinned buffer frame with the page loaded, or null if another thread loaded the
+     *         page into a different frame in the meantime
+     */
+    private Frame loadPageFrame(long pageNum) {
+        Frame newFrame = this.reserveFrame(pageNum);
+        if (newFrame == null) {
+            return null;
         }
-        // flush evicted frame
+        List<Frame> reserved = Collections.singletonList(newFrame);
         try {
-            evictedFrame.invalidate();
-        } finally {
-            evictedFrame.frameLock.unlock();
+            this.readReservedFrames(reserved);
+        } catch (PageException e) {
+            this.unreserveFrames(reserved);
+            throw e;
+        }
+        return newFrame;
+    }
+
+    /**
+     * Maps a page that is not in memory to a free (or newly evicted) frame, and pins it,
+     * without reading the page. The frame's lock is held an extra time until the page is
+     * read by readReservedFrames (or the frame is released by unreserveFrames), so that
+     * other threads fetching the page wait for it to be read.
+     *
+     * @param pageNum page number
+     * @return reserved frame, or null if another thread loaded the page into a different
+     *         frame in the meantime
+     */
+    private Frame reserveFrame(long pageNum) {
+        BufferAccessStrategy strategy = this.accessStrategy.get();
+        int frameIndex = strategy == null ? EMPTY_RING_SLOT : this.reuseRingFrame(strategy);
+        if (frameIndex == EMPTY_RING_SLOT) {
+            frameIndex = this.claimFrame();
         }
-        // read new page into frame
+        Frame newFrame = new Frame(this.frames[frameIndex].contents, frameIndex, pageNum);
+        newFrame.frameLock.lock();
         try {
-            newFrame.pageNum = pageNum;
             newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
+            PageTableStripe stripe = this.stripeFor(pageNum);
+            stripe.latch.lock();
+            try {
+                if (stripe.pageToFrame.containsKey(pageNum)) {
+                    newFrame.unpin();
+                    newFrame.frameLock.unlock();
+                    this.freeFrames.addFirst(frameIndex);
+                    return null;
+                }
+                this.frames[frameIndex] = newFrame;
+                stripe.pageToFrame.put(pageNum, frameIndex);
+            } finally {
+                stripe.latch.unlock();
+            }
+            this.evictionLock.lock();
+            try {
+                this.evictionPolicy.init(newFrame);
+            } finally {
+                this.evictionLock.unlock();
+            }
+            if (strategy != null) {
+                strategy.recordLoad(frameIndex, pageNum);
+            }
             return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
+        } catch (RuntimeException e) {
+            newFrame.frameLock.unlock();
             throw e;
+        }
+    }
+
+    /**
+     * Reads the pages of reserved frames from disk, and releases the frames' extra lock.
+     * If the read fails, the frames are left reserved.
+     *
+     * @param reserved frames returned by reserveFrame
+     */
+    private void readReservedFrames(List<Frame> reserved) {
+        if (reserved.isEmpty()) {
+            return;
+        }
+        if (reserved.size() == 1) {
+            Frame frame = reserved.get(0);
+            this.diskSpaceManager.readPage(frame.pageNum, frame.contents.duplicate());
+        } else {
+            long[] pageNums = new long[reserved.size()];
+            ByteBuffer[] bufs = new ByteBuffer[reserved.size()];
+            for (int i = 0; i < pageNums.length; ++i) {
+                pageNums[i] = reserved.get(i).pageNum;
+                bufs[i] = reserved.get(i).contents.duplicate();
+            }
+            this.diskSpaceManager.readPages(pageNums, bufs);
+        }
+        for (Frame frame : reserved) {
+            this.incrementIOs();
+            frame.frameLock.unlock();
+        }
+    }
+
+    /**
+     * Unloads and unpins reserved frames whose pages could not be read, and releases the
+     * frames' extra lock.
+     *
+     * @param reserved frames returned by reserveFrame
+     */
+    private void unreserveFrames(List<Frame> reserved) {
+        for (Frame frame : reserved) {
+            try {
+                this.cleanupFrame(frame);
+                this.freeFrames.addFirst(this.unloadFrame(frame));
+                frame.unpin();
+            } finally {
+                frame.frameLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes a frame for a new page, preferring free frames over eviction. The returned frame
+     * is not in the page table or on the free list, and its slot holds a free Frame object
+     * wrapping the frame's byte array.
+     *
+     * @return index of the frame
+     */
+    private int claimFrame() {
+        while (true) {
+            Integer frameIndex = this.freeFrames.pollFirst();
+            if (frameIndex != null) {
+                return frameIndex;
+            }
+            Frame victim = null;
+            this.evictionLock.lock();
+            try {
+                Frame candidate = (Frame) this.evictionPolicy.evict(this.frames);
+                // the policy reads pin counts without the frame lock, so the candidate may have
+                // been pinned (or be in the middle of being pinned) since
+                if (candidate.frameLock.tryLock()) {
+                    if (candidate.isValid() && !candidate.isPinned()) {
+                        this.evictionPolicy.cleanup(candidate);
+                        victim = candidate;
+                    } else {
+                        candidate.frameLock.unlock();
+                    }
+                }
+            } finally {
+                this.evictionLock.unlock();
+            }
+            if (victim == null) {
+                Thread.yield();
+                continue;
+            }
+            try {
+                this.metrics.increment(victim.partitionClass, StorageMetrics.Counter.EVICTIONS);
+                return this.unloadFrame(victim);
+            } catch (RuntimeException e) {
+                this.evictionLock.lock();
+                try {
+                    this.evictionPolicy.init(victim);
+                } finally {
+                    this.evictionLock.unlock();
+                }
+                throw e;
+            } finally {
+                victim.frameLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes back the frame in the current slot of a buffer access strategy's ring, if it
+     * still holds the page the ring loaded into it and is not pinned. The returned frame is
+     * in the same state as one returned by claimFrame.
+     *
+     * @param strategy buffer access strategy active on this thread
+     * @return index of the frame, or EMPTY_RING_SLOT if the frame cannot be reused
+     */
+    private int reuseRingFrame(BufferAccessStrategy strategy) {
+        int frameIndex = strategy.getCurrentFrame();
+        if (frameIndex < 0) {
+            return EMPTY_RING_SLOT;
+        }
+        Frame frame = this.frames[frameIndex];
+        if (!frame.frameLock.tryLock()) {
+            return EMPTY_RING_SLOT;
+        }
+        try {
+            if (!frame.isValid() || frame.isPinned() || frame.pageNum != strategy.getCurrentPage()) {
+                return EMPTY_RING_SLOT;
+            }
+            this.cleanupFrame(frame);
+            this.numRingReuses.incrementAndGet();
+            this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.EVICTIONS);
+            return this.unloadFrame(frame);
         } finally {
-            newFrame.frameLock.unlock();
+            frame.frameLock.unlock();
         }
     }
 
+    /**
+     * Writes back and unloads a valid frame, leaving a free Frame object in its slot. The
+     * caller must hold the frame's lock, and must already have removed it from the eviction
+     * policy. The page is written back before it is removed from the page table, so that a
+     * concurrent fetch of the page cannot read a stale copy from disk.
+     *
+     * @param frame frame to unload
+     * @return index of the unloaded frame
+     */
+    private int unloadFrame(Frame frame) {
+        int frameIndex = frame.index;
+        ByteBuffer contents = frame.contents;
+        frame.flush();
+        this.removeMapping(frame.pageNum, frameIndex);
+        frame.invalidate();
+        this.frames[frameIndex] = new Frame(contents, frameIndex);
+        return frameIndex;
+    }
+
     /**
      * Fetches the specified page, with a loaded and pinned buffer frame.
      *
@@ -455,6 +915,24 @@ public class BufferManager implements AutoCloseable {
         return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
     }
 
+    /**
+     * Fetches several pages at once, with loaded and pinned buffer frames. Pages that are
+     * not in memory are read together, with pages next to each other on disk read in a
+     * single request. The buffer must have enough frames to hold all of the pages at once.
+     *
+     * @param parentContext lock context of the **parent** of the pages being fetched
+     * @param pageNums      page numbers
+     * @return specified pages, in the same order as pageNums
+     */
+    public Page[] fetchPages(LockContext parentContext, long[] pageNums) {
+        Frame[] frames = this.fetchPageFrames(pageNums);
+        Page[] pages = new Page[frames.length];
+        for (int i = 0; i < frames.length; ++i) {
+            pages[i] = this.frameToPage(parentContext, pageNums[i], frames[i]);
+        }
+        return pages;
+    }
+
     /**
      * Fetches a buffer frame for a new page. Pins the buffer frame. Cannot be used outside the package.
      *
@@ -463,12 +941,7 @@ public class BufferManager implements AutoCloseable {
      */
     Frame fetchNewPageFrame(int partNum) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum);
     }
 
     /**
@@ -491,30 +964,31 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
-        this.managerLock.lock();
-        try {
-            TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
-
-            Frame frame = this.frames[frameIndex];
-            if (transaction != null) {
-                recoveryManager.logPageWrite(
-                        transaction.getTransNum(),
-                        page.getPageNum(),
-                        (short) 0,
-                        frame.contents,
-                        new byte[EFFECTIVE_PAGE_SIZE]
-                );
-            }
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
-            evictionPolicy.cleanup(frame);
-            frame.setFree();
-
-            this.frames[frameIndex] = new Frame(frame);
-            diskSpaceManager.freePage(page.getPageNum());
-        } finally {
-            this.managerLock.unlock();
+        long pageNum = page.getPageNum();
+        Frame frame = this.lookupFrame(pageNum);
+        if (frame == null) {
+            throw new PageException("page " + pageNum + " not loaded");
         }
+        int frameIndex = frame.index;
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            byte[] contents = new byte[this.pageSize];
+            frame.contents.duplicate().get(contents);
+            recoveryManager.logPageWrite(
+                    transaction.getTransNum(),
+                    pageNum,
+                    (short) 0,
+                    contents,
+                    new byte[this.effectivePageSize]
+            );
+        }
+        this.removeMapping(pageNum, frameIndex);
+        this.cleanupFrame(frame);
+        frame.setFree();
+
+        this.frames[frameIndex] = new Frame(frame);
+        this.freeFrames.addFirst(frameIndex);
+        diskSpaceManager.freePage(pageNum);
     }
 
     /**
@@ -525,23 +999,24 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
-        this.managerLock.lock();
-        try {
-            for (int i = 0; i < frames.length; ++i) {
-                Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
+        for (int i = 0; i < frames.length; ++i) {
+            Frame frame = frames[i];
+            frame.frameLock.lock();
+            try {
+                if (frame.isValid() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                    this.removeMapping(frame.pageNum, i);
+                    this.cleanupFrame(frame);
                     frame.setFree();
 
                     frames[i] = new Frame(frame);
+                    this.freeFrames.addFirst(i);
                 }
+            } finally {
+                frame.frameLock.unlock();
             }
-
-            diskSpaceManager.freePart(partNum);
-        } finally {
-            this.managerLock.unlock();
         }
+
+        diskSpaceManager.freePart(partNum);
     }
 
     /**
@@ -550,29 +1025,20 @@ public class BufferManager implements AutoCloseable {
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
-        managerLock.lock();
-        try {
-            if (!pageToFrame.containsKey(pageNum)) {
-                return;
-            }
-            evict(pageToFrame.get(pageNum));
-        } finally {
-            managerLock.unlock();
+        Frame frame = this.lookupFrame(pageNum);
+        if (frame == null) {
+            return;
         }
+        evict(frame);
     }
 
-    private void evict(int i) {
-        Frame frame = frames[i];
+    private void evict(Frame frame) {
         frame.frameLock.lock();
         try {
             if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
-
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
-
-                frame.invalidate();
+                this.cleanupFrame(frame);
+                this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.EVICTIONS);
+                this.freeFrames.addFirst(this.unloadFrame(frame));
             }
         } finally {
             frame.frameLock.unlock();
@@ -584,7 +1050,120 @@ public class BufferManager implements AutoCloseable {
      */
     public void evictAll() {
         for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+            evict(frames[i]);
+        }
+    }
+
+    /**
+     * Writes every dirty page to disk, without unloading any pages.
+     */
+    public void flushAll() {
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i].flush();
+        }
+    }
+
+    /**
+     * @param pageNum page number
+     * @return the page table stripe responsible for the page
+     */
+    private PageTableStripe stripeFor(long pageNum) {
+        int h = Long.hashCode(pageNum);
+        return this.pageTable[(h ^ (h >>> 16)) & (NUM_PAGE_TABLE_STRIPES - 1)];
+    }
+
+    /**
+     * Looks up the frame a page is loaded in. The frame is not pinned, and may be
+     * evicted at any time after this returns.
+     * @param pageNum page number
+     * @return frame the page is loaded in, or null if the page is not loaded
+     */
+    private Frame lookupFrame(long pageNum) {
+        PageTableStripe stripe = this.stripeFor(pageNum);
+        stripe.latch.lock();
+        try {
+            Integer frameIndex = stripe.pageToFrame.get(pageNum);
+            return frameIndex == null ? null : this.frames[frameIndex];
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Looks up the frames several pages are loaded in, latching each page table stripe
+     * once. The frames are not pinned, and may be evicted at any time after this returns.
+     * @param pageNums page numbers
+     * @return frame each page is loaded in, or null for pages that are not loaded
+     */
+    private Frame[] lookupFrames(long[] pageNums) {
+        Frame[] result = new Frame[pageNums.length];
+        PageTableStripe[] stripes = new PageTableStripe[pageNums.length];
+        for (int i = 0; i < pageNums.length; ++i) {
+            stripes[i] = this.stripeFor(pageNums[i]);
+        }
+        boolean[] done = new boolean[pageNums.length];
+        for (int i = 0; i < pageNums.length; ++i) {
+            if (done[i]) {
+                continue;
+            }
+            PageTableStripe stripe = stripes[i];
+            stripe.latch.lock();
+            try {
+                for (int j = i; j < pageNums.length; ++j) {
+                    if (stripes[j] == stripe) {
+                        Integer frameIndex = stripe.pageToFrame.get(pageNums[j]);
+                        result[j] = frameIndex == null ? null : this.frames[frameIndex];
+                        done[j] = true;
+                    }
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes a page from the page table, if it is still mapped to the given frame.
+     * @param pageNum page number
+     * @param frameIndex index of the frame the page is loaded in
+     */
+    private void removeMapping(long pageNum, int frameIndex) {
+        PageTableStripe stripe = this.stripeFor(pageNum);
+        stripe.latch.lock();
+        try {
+            stripe.pageToFrame.remove(pageNum, frameIndex);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Removes a frame from the eviction policy.
+     * @param frame frame being removed
+     */
+    private void cleanupFrame(Frame frame) {
+        this.evictionLock.lock();
+        try {
+            this.evictionPolicy.cleanup(frame);
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Reports a hit on a frame to the eviction policy. Hits are best-effort: if another
+     * thread is consulting the eviction policy, the hit is dropped instead of making the
+     * reader wait for the eviction lock.
+     * @param frame frame that was hit
+     */
+    private void recordHit(Frame frame) {
+        if (this.evictionLock.tryLock()) {
+            try {
+                this.evictionPolicy.hit(frame);
+            } finally {
+                this.evictionLock.unlock();
+            }
         }
     }
 
@@ -607,6 +1186,469 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Creates a buffer access strategy for a bulk operation, if the operation is large
+     * enough that it would otherwise evict a significant part of the buffer. Operations
+     * that write to several pages at once (e.g. partitioning) should ask for a ring at
+     * least that large, or else their pages are written out and read back repeatedly.
+     *
+     * @param numPages number of pages the operation is expected to read or write
+     * @param ringSize number of frames the operation would like in its ring
+     * @return a buffer access strategy with at most 1/BULK_ACCESS_FRACTION of the buffer
+     *         in its ring, or null if the operation should use the shared pool
+     */
+    public BufferAccessStrategy getBulkAccessStrategy(int numPages, int ringSize) {
+        int maxRingSize = this.frames.length / BULK_ACCESS_FRACTION;
+        if (numPages <= maxRingSize || maxRingSize == 0) {
+            return null;
+        }
+        return new BufferAccessStrategy(this, Math.max(1, Math.min(ringSize, maxRingSize)));
+    }
+
+    /**
+     * Sets the buffer access strategy used by page loads on the current thread.
+     * @param strategy buffer access strategy, or null to use the shared pool
+     * @return buffer access strategy that was previously in use
+     */
+    BufferAccessStrategy setAccessStrategy(BufferAccessStrategy strategy) {
+        BufferAccessStrategy previous = this.accessStrategy.get();
+        if (strategy == null) {
+            this.accessStrategy.remove();
+        } else {
+            this.accessStrategy.set(strategy);
+        }
+        return previous;
+    }
+
+    /**
+     * @return number of frames reused by buffer access strategies
+     */
+    public long getNumRingReuses() {
+        return this.numRingReuses.get();
+    }
+
+    /**
+     * Sets how many pages ahead of a sequential scan should be read in the background.
+     * Scans over heap files and the log pass hints for the next pages they will read to
+     * prefetch; these hints are ignored while read-ahead is disabled (the default).
+     *
+     * @param numPages number of pages to read ahead, or 0 to disable read-ahead
+     */
+    public synchronized void setReadAheadPages(int numPages) {
+        if (numPages < 0) {
+            throw new IllegalArgumentException("cannot read ahead a negative number of pages");
+        }
+        // never read ahead far enough to evict the pages being scanned
+        this.readAheadPages = Math.min(numPages, this.frames.length / 4);
+        if (this.readAheadPages > 0 && this.prefetchExecutor == null) {
+            this.prefetchExecutor = new ThreadPoolExecutor(1, 2, 1, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(this.readAheadPages, 1) * 4), (Runnable r) -> {
+                        Thread thread = new Thread(r, "buffer-manager-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * @return number of pages to read ahead of a sequential scan (0 if read-ahead is disabled)
+     */
+    public int getReadAheadPages() {
+        return this.readAheadPages;
+    }
+
+    /**
+     * Hints that a page will be fetched soon, so that it can be loaded in the background.
+     * Does nothing if read-ahead is disabled, if the page is already loaded, or if too many
+     * pages are already waiting to be loaded. The page is not pinned once loaded, and may
+     * be evicted before it is used.
+     *
+     * @param pageNum page number of page to prefetch
+     */
+    public void prefetch(long pageNum) {
+        ThreadPoolExecutor executor = this.prefetchExecutor;
+        if (this.readAheadPages == 0 || executor == null || this.lookupFrame(pageNum) != null) {
+            return;
+        }
+        if (!this.pendingPrefetches.add(pageNum)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (this.diskSpaceManager.pageAllocated(pageNum) && this.lookupFrame(pageNum) == null) {
+                        Frame frame = this.loadPageFrame(pageNum);
+                        if (frame != null) {
+                            frame.unpin();
+                            this.numPrefetches.incrementAndGet();
+                        }
+                    }
+                } catch (PageException e) {
+                    // page freed in the meantime; the hint was only a hint
+                } finally {
+                    this.pendingPrefetches.remove(pageNum);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.pendingPrefetches.remove(pageNum);
+        }
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead
+     */
+    public long getNumPrefetches() {
+        return numPrefetches.get();
+    }
+
+    /**
+     * Stops read-ahead, waiting for pages currently being loaded.
+     */
+    private synchronized void stopPrefetching() {
+        this.readAheadPages = 0;
+        if (this.prefetchExecutor == null) {
+            return;
+        }
+        // queued hints are dropped, but running loads must not be interrupted: interrupting a
+        // thread blocked on a FileChannel closes the channel
+        this.prefetchExecutor.getQueue().clear();
+        this.prefetchExecutor.shutdown();
+        boolean interrupted = false;
+        while (!this.prefetchExecutor.isTerminated()) {
+            try {
+                this.prefetchExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.prefetchExecutor = null;
+        this.pendingPrefetches.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts a background thread that periodically writes out dirty, unpinned pages, so
+     * that evicting them later does not require a synchronous write. The thread sweeps
+     * the buffer frames in order, skipping any frame in use, and flushes the log as
+     * needed before each write (see RecoveryManager#pageFlushHook). Does nothing if the
+     * cleaner is already running.
+     *
+     * @param intervalMillis time to wait between rounds, in milliseconds
+     * @param maxPagesPerRound maximum number of pages written per round
+     */
+    public synchronized void startBackgroundCleaner(long intervalMillis, int maxPagesPerRound) {
+        if (intervalMillis <= 0 || maxPagesPerRound <= 0) {
+            throw new IllegalArgumentException("cleaner interval and pages per round must be positive");
+        }
+        if (this.cleanerThread != null) {
+            return;
+        }
+        // the cleaner is stopped with a latch rather than by interrupting it, since
+        // interrupting a thread blocked on a FileChannel closes the channel
+        CountDownLatch stop = new CountDownLatch(1);
+        this.cleanerStop = stop;
+        this.cleanerThread = new Thread(() -> {
+            try {
+                do {
+                    this.cleanDirtyPages(maxPagesPerRound);
+                } while (!stop.await(intervalMillis, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "buffer-manager-cleaner");
+        this.cleanerThread.setDaemon(true);
+        this.cleanerThread.start();
+    }
+
+    /**
+     * Stops the background cleaner, waiting for the current round to finish. Does nothing
+     * if the cleaner is not running.
+     */
+    public synchronized void stopBackgroundCleaner() {
+        if (this.cleanerThread == null) {
+            return;
+        }
+        this.cleanerStop.countDown();
+        boolean interrupted = false;
+        while (this.cleanerThread.isAlive()) {
+            try {
+                this.cleanerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.cleanerThread = null;
+        this.cleanerStop = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs one round of the background cleaner: sweeps the buffer frames from where the
+     * last round stopped, writing dirty pages that are not pinned, until maxPages pages
+     * have been written or every frame has been looked at. The writes of a round are
+     * submitted to the disk space manager asynchronously, so that they are in flight
+     * together. Only the frames being written stay locked until the writes complete;
+     * frames that do not need writing are unlocked as soon as they are looked at.
+     *
+     * @param maxPages maximum number of pages to write
+     * @return number of pages written
+     */
+    int cleanDirtyPages(int maxPages) {
+        List<Frame> writing = new ArrayList<>();
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        int cleaned = 0;
+        try {
+            for (int i = 0; i < this.frames.length && writing.size() < maxPages; ++i) {
+                int frameIndex = this.cleanerHand;
+                this.cleanerHand = (frameIndex + 1) % this.frames.length;
+                Frame frame = this.frames[frameIndex];
+                // a frame that cannot be locked is pinned (or being evicted), so skip it
+                if (!frame.frameLock.tryLock()) {
+                    continue;
+                }
+                if (!frame.isValid() || frame.isPinned() || !frame.dirty) {
+                    frame.frameLock.unlock();
+                    continue;
+                }
+                // locked until its write completes
+                writing.add(frame);
+                if (!frame.logPage) {
+                    this.recoveryManager.pageFlushHook(frame.getPageLSN());
+                }
+                writes.add(this.diskSpaceManager.writePageAsync(frame.pageNum, frame.contents.duplicate()));
+            }
+            RuntimeException failure = null;
+            for (int i = 0; i < writing.size(); ++i) {
+                Frame frame = writing.get(i);
+                try {
+                    writes.get(i).join();
+                } catch (CompletionException e) {
+                    // the page stays dirty, and is written again later
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                  ? (RuntimeException) e.getCause() : e;
+                    }
+                    continue;
+                }
+                frame.dirty = false;
+                this.incrementIOs();
+                this.metrics.increment(frame.partitionClass, StorageMetrics.Counter.DIRTY_WRITE_BACKS);
+                this.numBackgroundFlushes.incrementAndGet();
+                ++cleaned;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            for (Frame frame : writing) {
+                frame.frameLock.unlock();
+            }
+        }
+        return cleaned;
+    }
+
+    /**
+     * @return number of dirty pages written by the background cleaner
+     */
+    public long getNumBackgroundFlushes() {
+        return numBackgroundFlushes.get();
+    }
+
+    /**
+     * @return number of dirty pages written other than by the background cleaner (on
+     * eviction, or by an explicit flush)
+     */
+    public long getNumForegroundFlushes() {
+        return numForegroundFlushes.get();
+    }
+
+    /**
+     * Saves the page numbers of resident pages to a file when the buffer manager is closed,
+     * so that they can be loaded again by startWarmUp after a restart.
+     *
+     * @param file file to save resident pages to
+     */
+    public synchronized void enableWarmRestart(Path file) {
+        this.warmRestartFile = file;
+    }
+
+    /**
+     * @return page numbers of resident pages, most recently fetched first
+     */
+    List<Long> getResidentPagesByRecency() {
+        List<Frame> resident = new ArrayList<>();
+        for (Frame frame : this.frames) {
+            if (frame.isValid()) {
+                resident.add(frame);
+            }
+        }
+        long[] lastUsed = new long[this.frames.length];
+        for (Frame frame : resident) {
+            lastUsed[frame.index] = frame.lastUsed;
+        }
+        resident.sort((Frame f1, Frame f2) -> Long.compare(lastUsed[f2.index], lastUsed[f1.index]));
+        List<Long> pageNums = new ArrayList<>();
+        for (Frame frame : resident) {
+            pageNums.add(frame.pageNum);
+        }
+        return pageNums;
+    }
+
+    /**
+     * Saves the page numbers of resident pages to the warm restart file, most recently fetched
+     * first. The file is only a hint, so failing to write it does not fail the close.
+     */
+    private synchronized void saveResidentPages() {
+        if (this.warmRestartFile == null) {
+            return;
+        }
+        List<Long> pageNums = this.getResidentPagesByRecency();
+        Path tempFile = this.warmRestartFile.resolveSibling(this.warmRestartFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(pageNums.size());
+                for (long pageNum : pageNums) {
+                    out.writeLong(pageNum);
+                }
+            }
+            Files.move(tempFile, this.warmRestartFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the next startup will just have a cold buffer
+        }
+    }
+
+    /**
+     * Reads the page numbers saved by the last close, and deletes the file so that a crash
+     * does not leave a stale list behind for the next startup.
+     *
+     * @return saved page numbers, most recently fetched first
+     */
+    private List<Long> loadResidentPages() {
+        List<Long> pageNums = new ArrayList<>();
+        if (this.warmRestartFile == null || !Files.exists(this.warmRestartFile)) {
+            return pageNums;
+        }
+        try {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(this.warmRestartFile)))) {
+                int numPages = in.readInt();
+                for (int i = 0; i < numPages; ++i) {
+                    pageNums.add(in.readLong());
+                }
+            }
+        } catch (IOException e) {
+            // truncated or unreadable file: use whatever was read
+        }
+        try {
+            Files.deleteIfExists(this.warmRestartFile);
+        } catch (IOException e) {
+            // loaded again on the next startup, which is harmless
+        }
+        return pageNums;
+    }
+
+    /**
+     * Starts loading the pages that were resident when the buffer manager was last closed,
+     * in a background thread. The most recently used pages that fit in the buffer are loaded
+     * in page number order, and only into free frames, so that pages fetched in the meantime
+     * are never evicted to make room for them. Pages that have been freed are skipped.
+     *
+     * Should be called once restart recovery has redone all changes, so that the pages
+     * loaded are up to date.
+     */
+    public synchronized void startWarmUp() {
+        if (this.warmUpThread != null || this.stopWarmUp) {
+            return;
+        }
+        List<Long> saved = this.loadResidentPages();
+        if (saved.isEmpty()) {
+            return;
+        }
+        long[] pageNums = new long[Math.min(saved.size(), this.frames.length)];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = saved.get(i);
+        }
+        Arrays.sort(pageNums);
+        this.warmUpThread = new Thread(() -> {
+            for (long pageNum : pageNums) {
+                if (this.stopWarmUp || this.freeFrames.isEmpty()) {
+                    return;
+                }
+                try {
+                    if (this.lookupFrame(pageNum) != null || !this.diskSpaceManager.pageAllocated(pageNum)) {
+                        continue;
+                    }
+                    Frame frame = this.loadPageFrame(pageNum);
+                    if (frame != null) {
+                        frame.unpin();
+                        this.numWarmUpLoads.incrementAndGet();
+                    }
+                } catch (PageException | NoSuchElementException e) {
+                    // page or partition freed since the list was saved
+                }
+            }
+        }, "buffer-manager-warm-up");
+        this.warmUpThread.setDaemon(true);
+        this.warmUpThread.start();
+    }
+
+    /**
+     * Stops loading saved pages for good, waiting for the page currently being loaded.
+     */
+    private synchronized void stopWarmUp() {
+        this.stopWarmUp = true;
+        if (this.warmUpThread == null) {
+            return;
+        }
+        // not interrupted: an interrupt during a read would close the partition's file channel
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.warmUpThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        this.warmUpThread = null;
+    }
+
+    /**
+     * @return number of pages loaded from the list saved by the last close
+     */
+    public long getNumWarmUpLoads() {
+        return this.numWarmUpLoads.get();
+    }
+
+    /**
+     * @return size of pages, in bytes
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * @return size of the part of each (non-log) page available to users of the buffer manager
+     */
+    public short getEffectivePageSize() {
+        return this.effectivePageSize;
+    }
+
+    /**
+     * @return number of buffer frames
+     */
+    public int getNumFrames() {
+        return this.frames.length;
+    }
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
@@ -614,7 +1656,15 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
+    }
+
+    /**
+     * @return hit, miss, eviction, write-back and pin wait counters, along with the disk
+     *         space manager's I/O counters
+     */
+    public StorageMetrics getMetrics() {
+        return this.metrics;
     }
 
     public static boolean logIOs;
@@ -629,7 +1679,7 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
     }
 
     /**
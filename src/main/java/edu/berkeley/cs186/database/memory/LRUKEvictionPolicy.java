@@ -0,0 +1,145 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+
+/**
+ * Implementation of LRU-K eviction policy, which works by remembering the times
+ * of the last K references to each page, and evicting the page whose K-th most
+ * recent reference is furthest in the past. Pages with fewer than K references
+ * (such as pages read once by a sequential scan) are evicted first, in LRU order.
+ *
+ * Consecutive hits on the same frame are treated as a single (correlated)
+ * reference, and the reference history of evicted pages is retained for a while,
+ * so that a page that is evicted and then reloaded keeps its history.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    private final int k;
+
+    // logical time, incremented on every reference
+    private long time;
+
+    // frame that was referenced most recently
+    private BufferFrame lastReferenced;
+
+    // resident frames, in order of eviction priority
+    private TreeSet<Tag> frames;
+
+    // reference history of recently evicted pages, in order of eviction
+    private LinkedHashMap<Long, long[]> history;
+
+    // maximum number of pages to retain history for
+    private int historyCapacity;
+
+    private class Tag {
+        BufferFrame cur;
+        // times of the last K references, most recent first (0 if there was no such reference)
+        long[] refs;
+
+        // time of the K-th most recent reference, or 0 if there have been fewer than K
+        long kthRef() {
+            return refs[k - 1];
+        }
+
+        @Override
+        public String toString() {
+            return cur + " " + Arrays.toString(refs);
+        }
+    }
+
+    public LRUKEvictionPolicy() {
+        this(2);
+    }
+
+    /**
+     * @param k number of references to remember per page
+     */
+    public LRUKEvictionPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("LRU-K requires k >= 1");
+        }
+        this.k = k;
+        this.time = 0;
+        this.lastReferenced = null;
+        this.frames = new TreeSet<>(Comparator.comparingLong((Tag t) -> t.kthRef())
+                                    .thenComparingLong(t -> t.refs[0]));
+        this.history = new LinkedHashMap<>();
+        this.historyCapacity = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        Tag frameTag = new Tag();
+        frameTag.cur = frame;
+        frameTag.refs = history.remove(frame.getPageNum());
+        if (frameTag.refs == null) {
+            frameTag.refs = new long[k];
+        }
+        reference(frameTag);
+        frames.add(frameTag);
+        frame.tag = frameTag;
+        historyCapacity = Math.max(historyCapacity, frames.size());
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame == lastReferenced) {
+            return;
+        }
+        Tag frameTag = (Tag) frame.tag;
+        frames.remove(frameTag);
+        reference(frameTag);
+        frames.add(frameTag);
+    }
+
+    private void reference(Tag frameTag) {
+        System.arraycopy(frameTag.refs, 0, frameTag.refs, 1, k - 1);
+        frameTag.refs[0] = ++time;
+        lastReferenced = frameTag.cur;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        historyCapacity = Math.max(historyCapacity, frames.length);
+        for (Tag frameTag : this.frames) {
+            if (!frameTag.cur.isPinned()) {
+                return frameTag.cur;
+            }
+        }
+        throw new IllegalStateException("cannot evict anything - everything pinned");
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        Tag frameTag = (Tag) frame.tag;
+        frames.remove(frameTag);
+        if (lastReferenced == frame) {
+            lastReferenced = null;
+        }
+        history.put(frame.getPageNum(), frameTag.refs);
+        Iterator<Long> iter = history.keySet().iterator();
+        while (history.size() > historyCapacity) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.io.PageException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents a page loaded in memory (as opposed to the buffer frame it's in). Wraps
  * around buffer manager frames, and requests the page be loaded into memory as necessary.
@@ -53,6 +55,31 @@ public class Page {
         return new PageBuffer();
     }
 
+    /**
+     * Gets a Buffer object for writing most of the page at once. Each write through the
+     * buffer is logged as a single update, covering everything from the first to the last
+     * byte it changes, instead of one update per range of changed bytes.
+     *
+     * @return Buffer object over this page
+     */
+    public Buffer getBulkWriteBuffer() {
+        return new PageBuffer(0, 0, true);
+    }
+
+    /**
+     * Gets a Buffer object that reads directly from the page's buffer frame, without
+     * copying. Locks are checked once (when the buffer is created) rather than on every
+     * read, and the buffer counts as a single hit to the buffer manager. The page must
+     * be pinned for as long as the buffer is used. Writes through the buffer are still
+     * logged and checked like writes through getBuffer().
+     *
+     * @return Buffer object over this page, valid while the page is pinned
+     */
+    public Buffer getPinnedBuffer() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        return new PinnedPageBuffer(this.frame.getDataView(), 0);
+    }
+
     /**
      * Reads num bytes from offset position into buf.
      *
@@ -80,7 +107,7 @@ public class Page {
      * @return a new byte array with all the bytes in the file
      */
     private byte[] readBytes() {
-        byte[] data = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] data = new byte[this.frame.getEffectivePageSize()];
         getBuffer().get(data);
         return data;
     }
@@ -91,8 +118,9 @@ public class Page {
      * @param position the offest in the file to write to
      * @param num the number of bytes to write
      * @param buf the source for the write
+     * @param singleRange whether to log the write as a single update
      */
-    private void writeBytes(int position, int num, byte[] buf) {
+    private void writeBytes(int position, int num, byte[] buf, boolean singleRange) {
         if (buf.length < num) {
             throw new PageException("num bytes to write is longer than buffer");
         }
@@ -105,7 +133,7 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        this.frame.writeBytes((short) position, (short) num, buf, singleRange);
     }
 
     /**
@@ -119,7 +147,7 @@ public class Page {
      * Completely wipe (zero out) the page.
      */
     public void wipe() {
-        byte[] zeros = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] zeros = new byte[this.frame.getEffectivePageSize()];
         writeBytes(zeros);
     }
 
@@ -184,14 +212,17 @@ public class Page {
      */
     private class PageBuffer extends AbstractBuffer {
         private int offset;
+        // whether writes are logged as a single update (see getBulkWriteBuffer)
+        private boolean singleRange;
 
         private PageBuffer() {
-            this(0, 0);
+            this(0, 0, false);
         }
 
-        private PageBuffer(int offset, int position) {
+        private PageBuffer(int offset, int position, boolean singleRange) {
             super(position);
             this.offset = offset;
+            this.singleRange = singleRange;
         }
 
         /**
@@ -222,7 +253,7 @@ public class Page {
         public Buffer put(byte[] src, int offset, int length) {
             // TODO(proj4_part2): Update the following line
             LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
-            Page.this.writeBytes(this.offset + offset, length, src);
+            Page.this.writeBytes(this.offset + offset, length, src, singleRange);
             return this;
         }
 
@@ -232,7 +263,7 @@ public class Page {
          */
         @Override
         public Buffer slice() {
-            return new PageBuffer(offset + position(), 0);
+            return new PageBuffer(offset + position(), 0, singleRange);
         }
 
         /**
@@ -241,7 +272,252 @@ public class Page {
          */
         @Override
         public Buffer duplicate() {
-            return new PageBuffer(offset, position());
+            return new PageBuffer(offset, position(), singleRange);
+        }
+    }
+
+    /**
+     * Implementation of Buffer for the data of a pinned page. Reads go straight to a view
+     * of the buffer frame's contents; writes go through Page#writeBytes, like PageBuffer,
+     * so that they are logged. Index and offset arguments have the same meaning as in
+     * PageBuffer.
+     */
+    private class PinnedPageBuffer implements Buffer {
+        // view of the frame's data, positioned relative to offset
+        private ByteBuffer view;
+        // offset of the view into the page
+        private int offset;
+        // scratch space for encoding primitives for writes
+        private byte[] bytes = new byte[8];
+        private ByteBuffer scratch = ByteBuffer.wrap(bytes);
+
+        private PinnedPageBuffer(ByteBuffer view, int offset) {
+            this.view = view;
+            this.offset = offset;
+        }
+
+        @Override
+        public Buffer get(byte[] dst, int offset, int length) {
+            ByteBuffer src = view.duplicate();
+            src.position(offset);
+            src.get(dst, 0, length);
+            return this;
+        }
+
+        @Override
+        public byte get(int index) {
+            return view.get(index);
+        }
+
+        @Override
+        public byte get() {
+            return view.get();
+        }
+
+        @Override
+        public Buffer get(byte[] dst) {
+            view.get(dst);
+            return this;
+        }
+
+        @Override
+        public char getChar() {
+            return view.getChar();
+        }
+
+        @Override
+        public char getChar(int index) {
+            return view.getChar(index);
+        }
+
+        @Override
+        public double getDouble() {
+            return view.getDouble();
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return view.getDouble(index);
+        }
+
+        @Override
+        public float getFloat() {
+            return view.getFloat();
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return view.getFloat(index);
+        }
+
+        @Override
+        public int getInt() {
+            return view.getInt();
+        }
+
+        @Override
+        public int getInt(int index) {
+            return view.getInt(index);
+        }
+
+        @Override
+        public long getLong() {
+            return view.getLong();
+        }
+
+        @Override
+        public long getLong(int index) {
+            return view.getLong(index);
+        }
+
+        @Override
+        public short getShort() {
+            return view.getShort();
+        }
+
+        @Override
+        public short getShort(int index) {
+            return view.getShort(index);
+        }
+
+        /**
+         * All write operations through the PinnedPageBuffer object must run through this method.
+         *
+         * @param src source byte buffer (to copy to the page)
+         * @param offset offset into buffer to start writing
+         * @param length number of bytes to write
+         * @return this
+         */
+        @Override
+        public Buffer put(byte[] src, int offset, int length) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
+            Page.this.writeBytes(this.offset + offset, length, src, false);
+            return this;
+        }
+
+        private Buffer putRelative(byte[] src, int length) {
+            int pos = view.position();
+            put(src, pos, length);
+            view.position(pos + length);
+            return this;
+        }
+
+        @Override
+        public Buffer put(byte[] src) {
+            return putRelative(src, src.length);
+        }
+
+        @Override
+        public Buffer put(byte b) {
+            bytes[0] = b;
+            return putRelative(bytes, 1);
+        }
+
+        @Override
+        public Buffer put(int index, byte b) {
+            bytes[0] = b;
+            return put(bytes, index, 1);
+        }
+
+        @Override
+        public Buffer putChar(char value) {
+            scratch.putChar(0, value);
+            return putRelative(bytes, 2);
+        }
+
+        @Override
+        public Buffer putChar(int index, char value) {
+            scratch.putChar(0, value);
+            return put(bytes, index, 2);
+        }
+
+        @Override
+        public Buffer putDouble(double value) {
+            scratch.putDouble(0, value);
+            return putRelative(bytes, 8);
+        }
+
+        @Override
+        public Buffer putDouble(int index, double value) {
+            scratch.putDouble(0, value);
+            return put(bytes, index, 8);
+        }
+
+        @Override
+        public Buffer putFloat(float value) {
+            scratch.putFloat(0, value);
+            return putRelative(bytes, 4);
+        }
+
+        @Override
+        public Buffer putFloat(int index, float value) {
+            scratch.putFloat(0, value);
+            return put(bytes, index, 4);
+        }
+
+        @Override
+        public Buffer putInt(int value) {
+            scratch.putInt(0, value);
+            return putRelative(bytes, 4);
+        }
+
+        @Override
+        public Buffer putInt(int index, int value) {
+            scratch.putInt(0, value);
+            return put(bytes, index, 4);
+        }
+
+        @Override
+        public Buffer putLong(long value) {
+            scratch.putLong(0, value);
+            return putRelative(bytes, 8);
+        }
+
+        @Override
+        public Buffer putLong(int index, long value) {
+            scratch.putLong(0, value);
+            return put(bytes, index, 8);
+        }
+
+        @Override
+        public Buffer putShort(short value) {
+            scratch.putShort(0, value);
+            return putRelative(bytes, 2);
+        }
+
+        @Override
+        public Buffer putShort(int index, short value) {
+            scratch.putShort(0, value);
+            return put(bytes, index, 2);
+        }
+
+        /**
+         * Create a new PinnedPageBuffer starting at the current offset.
+         * @return new PinnedPageBuffer starting at the current offset
+         */
+        @Override
+        public Buffer slice() {
+            return new PinnedPageBuffer(view.slice(), offset + view.position());
+        }
+
+        /**
+         * Create a duplicate PinnedPageBuffer object
+         * @return PinnedPageBuffer that is functionally identical to this one
+         */
+        @Override
+        public Buffer duplicate() {
+            return new PinnedPageBuffer(view.duplicate(), offset);
+        }
+
+        @Override
+        public int position() {
+            return view.position();
+        }
+
+        @Override
+        public Buffer position(int pos) {
+            view.position(pos);
+            return this;
         }
     }
 }
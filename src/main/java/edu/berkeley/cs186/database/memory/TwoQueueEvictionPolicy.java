@@ -0,0 +1,124 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.*;
+
+/**
+ * Implementation of the 2Q eviction policy, which works by keeping pages that
+ * have only been referenced once in a FIFO queue (A1in), and pages that have been
+ * referenced again after leaving A1in in an LRU list (Am). Pages evicted from A1in
+ * are remembered (by page number only) in a second FIFO queue (A1out); a page that
+ * is loaded while in A1out goes directly into Am.
+ *
+ * Hits on a page while it is in A1in are treated as correlated references and do
+ * not move it, so pages read by a sequential scan pass through A1in without
+ * displacing the pages in Am, even when the scan is interleaved with other
+ * lookups. Only a page that is loaded again after falling into A1out is promoted.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    // pages referenced once, in order of loading
+    private LinkedHashSet<BufferFrame> a1in;
+
+    // page numbers of pages recently evicted from a1in, in order of eviction
+    private LinkedHashSet<Long> a1out;
+
+    // pages referenced again, in order of least to most recently used
+    private LinkedHashSet<BufferFrame> am;
+
+    // number of buffer frames (0 until the first eviction)
+    private int numFrames;
+
+    private static final Object IN_A1IN = "A1in";
+    private static final Object IN_AM = "Am";
+
+    public TwoQueueEvictionPolicy() {
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        if (a1out.remove(frame.getPageNum())) {
+            am.add(frame);
+            frame.tag = IN_AM;
+        } else {
+            a1in.add(frame);
+            frame.tag = IN_A1IN;
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame.tag == IN_AM) {
+            am.remove(frame);
+            am.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        // evict from a1in while it is over its share of the buffer, and from am otherwise
+        BufferFrame evicted;
+        if (a1in.size() > Math.max(1, numFrames / 4)) {
+            evicted = firstUnpinned(a1in);
+            if (evicted == null) {
+                evicted = firstUnpinned(am);
+            }
+        } else {
+            evicted = firstUnpinned(am);
+            if (evicted == null) {
+                evicted = firstUnpinned(a1in);
+            }
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    private static BufferFrame firstUnpinned(Set<BufferFrame> queue) {
+        for (BufferFrame frame : queue) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        if (frame.tag == IN_AM) {
+            am.remove(frame);
+        } else if (a1in.remove(frame) && numFrames > 0) {
+            a1out.add(frame.getPageNum());
+            Iterator<Long> iter = a1out.iterator();
+            while (a1out.size() > Math.max(1, numFrames / 2)) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        frame.tag = null;
+    }
+}
@@ -54,6 +54,29 @@ public class ProjectOperator extends QueryOperator {
         // source recomputes the schema.
         this.setSource(source);
         this.stats = this.estimateStats();
+        this.restrictScanColumns();
+    }
+
+    /**
+     * If the source of this operator is a sequential scan, possibly under selects, lets
+     * the scan read only the columns used by this operator and the selects.
+     */
+    private void restrictScanColumns() {
+        BitSet columns = new BitSet();
+        for (int i : this.sourceIndices) {
+            if (i >= 0) columns.set(i);
+        }
+        for (Pair<String, Integer> aggregate : this.aggregates) {
+            if (aggregate.getSecond() != STAR_INDEX) columns.set(aggregate.getSecond());
+        }
+        QueryOperator operator = this.getSource();
+        while (operator.isSelect()) {
+            columns.set(((SelectOperator) operator).getColumnIndex());
+            operator = operator.getSource();
+        }
+        if (operator instanceof SequentialScanOperator) {
+            ((SequentialScanOperator) operator).setColumns(columns);
+        }
     }
 
     /**
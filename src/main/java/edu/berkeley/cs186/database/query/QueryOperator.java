@@ -219,10 +219,13 @@ public abstract class QueryOperator implements Iterable<Record> {
     /**
      * @return This method will consume up to `maxPages` pages of records from
      * `records` (advancing it in the process) and return a backtracking
-     * iterator over those records.
+     * iterator over those records. Pages hold as many records as a data page
+     * with `effectivePageSize` bytes available for records (see
+     * TransactionContext#getEffectivePageSize).
      */
-    public static BacktrackingIterator<Record> getBlockIterator(Iterator<Record> records, Schema schema, int maxPages) {
-        int recordsPerPage = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, schema);
+    public static BacktrackingIterator<Record> getBlockIterator(Iterator<Record> records, Schema schema, int maxPages,
+                                                                short effectivePageSize) {
+        int recordsPerPage = Table.computeNumRecordsPerPage(effectivePageSize, schema);
         int maxRecords = recordsPerPage * maxPages;
         List<Record> blockRecords = new ArrayList<>();
         for (int i = 0; i < maxRecords && records.hasNext(); i++) {
@@ -38,6 +38,13 @@ public class SelectOperator extends QueryOperator {
         this.stats = this.estimateStats();
     }
 
+    /**
+     * @return index in the schema of the column the predicate is evaluated on
+     */
+    int getColumnIndex() {
+        return this.columnIndex;
+    }
+
     @Override
     public boolean isSelect() {
         return true;
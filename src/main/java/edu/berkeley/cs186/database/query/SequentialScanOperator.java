@@ -1,10 +1,12 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.BitSet;
 import java.util.Iterator;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -12,6 +14,8 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 public class SequentialScanOperator extends QueryOperator {
     private TransactionContext transaction;
     private String tableName;
+    // columns read by the operators above this one, or null if all columns are needed
+    private BitSet columns;
 
     /**
      * Creates a new SequentialScanOperator that provides an iterator on all
@@ -43,6 +47,18 @@ public class SequentialScanOperator extends QueryOperator {
         return this.tableName;
     }
 
+    /**
+     * Restricts the columns this scan reads to the given columns (by index in the output
+     * schema), when the operators above it only use those columns. The values of other
+     * columns of the records returned may be null, which lets tables with the PAX layout
+     * skip reading them.
+     *
+     * @param columns the columns used by the operators above this scan
+     */
+    public void setColumns(BitSet columns) {
+        this.columns = (BitSet) columns.clone();
+    }
+
     @Override
     public boolean isSequentialScan() {
         return true;
@@ -58,7 +74,20 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
-        return this.transaction.getRecordIterator(tableName);
+        // large scans cycle through a ring of buffer frames instead of flushing the buffer pool
+        BufferAccessStrategy strategy = this.transaction.getBulkAccessStrategy(
+                this.estimateIOCost(), BufferAccessStrategy.SCAN_RING_SIZE);
+        if (strategy == null) {
+            return this.getRecordIterator();
+        }
+        return strategy.wrap(strategy.call(this::getRecordIterator));
+    }
+
+    private BacktrackingIterator<Record> getRecordIterator() {
+        if (this.columns == null) {
+            return this.transaction.getRecordIterator(this.tableName);
+        }
+        return this.transaction.getRecordIterator(this.tableName, this.columns);
     }
 
     @Override
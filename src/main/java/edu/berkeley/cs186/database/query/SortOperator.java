@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.disk.Run;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -69,8 +70,16 @@ public class SortOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
-        if (this.sortedRecords == null) this.sortedRecords = sort();
-        return sortedRecords.iterator();
+        // sorting a large input reads and writes every page of it once per pass; do
+        // so through a ring of buffer frames instead of flushing the buffer pool
+        BufferAccessStrategy strategy = this.transaction.getBulkAccessStrategy(
+                getSource().estimateStats().getNumPages(), 2 * this.numBuffers);
+        if (strategy == null) {
+            if (this.sortedRecords == null) this.sortedRecords = sort();
+            return sortedRecords.iterator();
+        }
+        if (this.sortedRecords == null) this.sortedRecords = strategy.call(this::sort);
+        return strategy.wrap(strategy.call(sortedRecords::iterator));
     }
 
     @Override
@@ -180,7 +189,8 @@ public class SortOperator extends QueryOperator {
         List<Run> runsForNextPass = new ArrayList<>();
         // Pass 0: for each numBuffers pages of records, call sortRun(), and add each sorted Run into a list for next pass
         while (sourceIterator.hasNext()) {
-            Iterator<Record> blockIterator = QueryOperator.getBlockIterator(sourceIterator, getSchema(), numBuffers);
+            Iterator<Record> blockIterator = QueryOperator.getBlockIterator(sourceIterator, getSchema(), numBuffers,
+                                                                            this.transaction.getEffectivePageSize());
             runsForNextPass.add(sortRun(blockIterator));
         }
         // Pass i: for each pass, call mergePass() until there's only one Run for the next pass
@@ -89,7 +89,8 @@ public class BNLJOperator extends JoinOperator {
             if (!leftSourceIterator.hasNext()) {
                 return;
             }
-            leftBlockIterator = QueryOperator.getBlockIterator(leftSourceIterator, getLeftSource().getSchema(), numBuffers - 2);
+            leftBlockIterator = QueryOperator.getBlockIterator(leftSourceIterator, getLeftSource().getSchema(), numBuffers - 2,
+                                                               getTransaction().getEffectivePageSize());
             leftBlockIterator.markNext();
             this.leftRecord = leftBlockIterator.next();
         }
@@ -110,7 +111,8 @@ public class BNLJOperator extends JoinOperator {
             }
             // getBlockIterator() internally moves rightSourceIterator to read records of maxPages,
             // and returns an iterator of those records
-            rightPageIterator = QueryOperator.getBlockIterator(rightSourceIterator, getRightSource().getSchema(), 1);
+            rightPageIterator = QueryOperator.getBlockIterator(rightSourceIterator, getRightSource().getSchema(), 1,
+                                                               getTransaction().getEffectivePageSize());
             rightPageIterator.markNext();
         }
 
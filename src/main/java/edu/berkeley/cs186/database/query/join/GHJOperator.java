@@ -5,6 +5,7 @@ import edu.berkeley.cs186.database.common.HashFunc;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.*;
 import edu.berkeley.cs186.database.query.disk.Partition;
 import edu.berkeley.cs186.database.query.disk.Run;
@@ -52,14 +53,25 @@ public class GHJOperator extends JoinOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
+        // partitioning a large input writes every page of it out and reads it back;
+        // do so through a ring of buffer frames instead of flushing the buffer pool
+        BufferAccessStrategy strategy = getTransaction().getBulkAccessStrategy(
+                estimateIOCost() / 2, 2 * this.numBuffers);
         if (joinedRecords == null) {
             // Executing GHJ on-the-fly is arduous without coroutines, so
             // instead we'll accumulate all of our joined records in this run
             // and return an iterator over it once the algorithm completes
             this.joinedRecords = new Run(getTransaction(), getSchema());
-            this.run(getLeftSource(), getRightSource(), 1);
+            if (strategy == null) {
+                this.run(getLeftSource(), getRightSource(), 1);
+            } else {
+                strategy.run(() -> this.run(getLeftSource(), getRightSource(), 1));
+            }
         };
-        return joinedRecords.iterator();
+        if (strategy == null) {
+            return joinedRecords.iterator();
+        }
+        return strategy.wrap(strategy.call(joinedRecords::iterator));
     }
 
     @Override
@@ -258,7 +258,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * are guaranteed to be the same length.
      *
      * The appropriate log record should be appended; if the number of bytes written is
-     * too large (larger than BufferManager.EFFECTIVE_PAGE_SIZE / 2), then two records
+     * too large (larger than half the effective page size), then two records
      * should be written instead: an undo-only record followed by a redo-only record.
      *
      * Both the transaction table and dirty page table should be updated accordingly.
@@ -281,7 +281,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         TransactionTableEntry xactEntry = transactionTable.get(transNum);
 
         // check if the log can be written in one page
-        if (after.length > BufferManager.EFFECTIVE_PAGE_SIZE / 2) {
+        if (after.length > bufferManager.getEffectivePageSize() / 2) {
             // break the log into 2 logs
             LogRecord undoOnly = new UpdatePageLogRecord(transNum, pageNum, xactEntry.lastLSN, pageOffset, before, null);
             long undoLSN = logManager.appendToLog(undoOnly);
@@ -354,6 +354,21 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long logFreePart(long transNum, int partNum) {
+        return logFreePart(transNum, partNum, Collections.emptyList());
+    }
+
+    /**
+     * Called when a partition is freed along with its data pages. Same as
+     * logFreePart(transNum, partNum), except that the record lists the data pages
+     * that were allocated, so that undoing the free allocates them again.
+     *
+     * @param transNum transaction requesting the partition be freed
+     * @param partNum partition number of the partition being freed
+     * @param pageRanges allocated data pages, as ranges of (first data page number, number of pages)
+     * @return LSN of record or -1 if log partition
+     */
+    @Override
+    public long logFreePart(long transNum, int partNum, List<Pair<Integer, Integer>> pageRanges) {
         // Ignore if part of the log.
         if (partNum == 0) {
             return -1L;
@@ -363,7 +378,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         assert (transactionEntry != null);
 
         long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
+        LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN, pageRanges);
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
@@ -567,6 +582,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
             chkptTouchedPages.clear();
         }
 
+        // Pages removed from the DPT before it was copied above must be on disk before restart
+        // can rely on this checkpoint's DPT, even if data page writes are not forced as they are made
+        diskSpaceManager.sync();
+
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
@@ -695,6 +714,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   - add to touchedPages
      *   - acquire X lock
      *   - update DPT (free/undoalloc always flushes changes to disk)
+     * - if it frees a partition (free_part/undoalloc_part), remove the partition's
+     *   pages from the DPT, since its data pages are not freed with records of their own
      *
      * If the log record is for a change in transaction status:
      * - clean up transaction (Transaction#cleanup) if END_TRANSACTION
@@ -749,6 +770,14 @@ public class ARIESRecoveryManager implements RecoveryManager {
                     analyzePageOperationRelatedLog(logRecord, transactionEntry);
                 }
 
+                // FreePart/UndoAllocPart delete the partition's file, which can be seen as flushing
+                // every page of the partition (freed pages are not logged individually)
+                if (logRecord.getType() == LogType.FREE_PART || logRecord.getType() == LogType.FREE_PART_PAGES
+                        || logRecord.getType() == LogType.UNDO_ALLOC_PART) {
+                    int partNum = logRecord.getPartNum().get();
+                    dirtyPageTable.keySet().removeIf(pageNum -> DiskSpaceManager.getPartNum(pageNum) == partNum);
+                }
+
                 // Transaction status related log
                 if (logRecord.getType() == LogType.COMMIT_TRANSACTION) {
                     // transaction table updated before
@@ -789,13 +818,22 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - about a page (Update/Alloc/Free/Undo..Page) in the DPT with LSN >= recLSN,
      *   the page is fetched from disk and the pageLSN is checked, and the record is redone.
      * - about a partition (Alloc/Free/Undo..Part), redo it.
+     *
+     * Before scanning, the pages of the DPT with the lowest recLSNs (up to a quarter of
+     * the buffer) are loaded with a single batched fetch, so that they are read in file
+     * order instead of in log order.
      */
     void restartRedo() {
         // TODO(proj5_part2): implement
-        Set<LogType> partTypes = Set.of(LogType.ALLOC_PART, LogType.UNDO_ALLOC_PART, LogType.FREE_PART, LogType.UNDO_FREE_PART);
+        preloadDirtyPages();
+        Set<LogType> partTypes = Set.of(LogType.ALLOC_PART, LogType.UNDO_ALLOC_PART, LogType.FREE_PART, LogType.UNDO_FREE_PART,
+                                        LogType.FREE_PART_PAGES, LogType.UNDO_FREE_PART_PAGES);
         Set<LogType> allocPageTypes = Set.of(LogType.ALLOC_PAGE, LogType.UNDO_FREE_PAGE);
         Set<LogType> modPageTypes = Set.of(LogType.FREE_PAGE, LogType.UNDO_ALLOC_PAGE, LogType.UPDATE_PAGE, LogType.UNDO_UPDATE_PAGE);
 
+        // nothing to redo (e.g. after a clean shutdown)
+        if (dirtyPageTable.isEmpty()) return;
+
         long LSN = Long.MAX_VALUE;
         for (long recLSN : dirtyPageTable.values()) {
             LSN = Math.min(LSN, recLSN);
@@ -826,6 +864,28 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     }
 
+    /**
+     * Loads the pages of the DPT that redo will fetch first into the buffer.
+     */
+    private void preloadDirtyPages() {
+        int maxPages = bufferManager.getNumFrames() / 4;
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(dirtyPageTable.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        List<Long> pageNums = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : entries) {
+            if (pageNums.size() >= maxPages) break;
+            // pages freed before the crash are not fetched by redo
+            if (diskSpaceManager.pageAllocated(entry.getKey())) pageNums.add(entry.getKey());
+        }
+        if (pageNums.isEmpty()) return;
+
+        long[] toFetch = new long[pageNums.size()];
+        for (int i = 0; i < toFetch.length; ++i) toFetch[i] = pageNums.get(i);
+        for (Page page : bufferManager.fetchPages(new DummyLockContext(), toFetch)) {
+            page.unpin();
+        }
+    }
+
     /**
      * This method performs the redo pass of restart recovery.
 
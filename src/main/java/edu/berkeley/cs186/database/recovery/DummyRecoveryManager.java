@@ -1,10 +1,12 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DummyRecoveryManager implements RecoveryManager {
@@ -61,6 +63,11 @@ public class DummyRecoveryManager implements RecoveryManager {
         return 0L;
     }
 
+    @Override
+    public long logFreePart(long transNum, int partNum, List<Pair<Integer, Integer>> pageRanges) {
+        return 0L;
+    }
+
     @Override
     public long logAllocPage(long transNum, long pageNum) {
         return 0L;
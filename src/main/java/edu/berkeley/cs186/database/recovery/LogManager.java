@@ -22,7 +22,9 @@ import java.util.*;
  * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
  * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
  * allowing for up to 10,000 log entries per page. The index (last 4 digits) is the offset
- * within the page where the log record starts. Log entries are not fixed width,
+ * within the page where the log record starts. Databases with pages of more than 10,000 bytes
+ * use the last 5 digits for the index instead (LSN 100000 for the start of page 1, and so on);
+ * the static LSN helpers without an lsnsPerPage argument assume the default page size. Log entries are not fixed width,
  * so backwards iteration is not as easy as forward iteration. Page 0 is reserved for the
  * master record, which only contains a few log entries: the master record, with LSN 0, followed
  * by an empty begin and end checkpoint record. The master record is the only record in the
@@ -44,8 +46,18 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
     public static final int LOG_PARTITION = 0;
 
+    // LSNs per log page (see above)
+    static final long LSNS_PER_PAGE = 10000L;
+    static final long LARGE_PAGE_LSNS_PER_PAGE = 100000L;
+
+    // size of log pages, and LSNs per log page
+    private int pageSize;
+    private long lsnsPerPage;
+
     LogManager(BufferManager bufferManager) {
         this.bufferManager = bufferManager;
+        this.pageSize = bufferManager.getPageSize();
+        this.lsnsPerPage = this.pageSize < LSNS_PER_PAGE ? LSNS_PER_PAGE : LARGE_PAGE_LSNS_PER_PAGE;
         this.unflushedLogTail = new ArrayDeque<>();
 
         this.logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION);
@@ -53,7 +65,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.logTailBuffer = this.logTail.getBuffer();
         this.logTail.unpin();
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L, this.lsnsPerPage);
     }
 
     /**
@@ -79,7 +91,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         byte[] bytes = record.toBytes();
         // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
         do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
+            if (logTailBuffer == null || bytes.length > pageSize - logTailBuffer.position()) {
                 logTailPinned = true;
                 logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION);
                 unflushedLogTail.add(logTail);
@@ -95,7 +107,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         try {
             int pos = logTailBuffer.position();
             logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos, lsnsPerPage);
             record.LSN = LSN;
             // For testing
             System.out.println("Appending to log tail: " + record);
@@ -113,10 +125,10 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      */
     public LogRecord fetchLogRecord(long LSN) {
         try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext(), getLSNPage(LSN));
+            Page logPage = bufferManager.fetchPage(new DummyLockContext(), getLSNPage(LSN, lsnsPerPage));
             try {
                 Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
+                buf.position(getLSNIndex(LSN, lsnsPerPage));
                 Optional<LogRecord> record = LogRecord.fromBytes(buf);
                 record.ifPresent((LogRecord e) -> e.setLSN(LSN));
                 return record.orElse(null);
@@ -136,7 +148,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      */
     public synchronized void flushToLSN(long LSN) {
         Iterator<Page> iter = unflushedLogTail.iterator();
-        long pageNum = getLSNPage(LSN);
+        long pageNum = getLSNPage(LSN, lsnsPerPage);
         while (iter.hasNext()) {
             Page page = iter.next();
             if (page.getPageNum() > pageNum) {
@@ -145,7 +157,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
             page.flush();
             iter.remove();
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
+        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum, lsnsPerPage));
         if (unflushedLogTail.size() == 0) {
             if (!logTailPinned) {
                 logTail = null;
@@ -168,7 +180,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return LSN
      */
     static long makeLSN(long pageNum, int index) {
-        return DiskSpaceManager.getPageNum(pageNum) * 10000L + index;
+        return makeLSN(pageNum, index, LSNS_PER_PAGE);
+    }
+
+    static long makeLSN(long pageNum, int index, long lsnsPerPage) {
+        return DiskSpaceManager.getPageNum(pageNum) * lsnsPerPage + index;
     }
 
     /**
@@ -177,7 +193,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return max possible LSN on the log page
      */
     static long maxLSN(long pageNum) {
-        return makeLSN(pageNum, 9999);
+        return maxLSN(pageNum, LSNS_PER_PAGE);
+    }
+
+    static long maxLSN(long pageNum, long lsnsPerPage) {
+        return makeLSN(pageNum, (int) (lsnsPerPage - 1), lsnsPerPage);
     }
 
     /**
@@ -186,7 +206,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return page that LSN resides on
      */
     static long getLSNPage(long LSN) {
-        return LSN / 10000L;
+        return getLSNPage(LSN, LSNS_PER_PAGE);
+    }
+
+    static long getLSNPage(long LSN, long lsnsPerPage) {
+        return LSN / lsnsPerPage;
     }
 
     /**
@@ -195,7 +219,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return index in page that LSN resides on
      */
     static int getLSNIndex(long LSN) {
-        return (int) (LSN % 10000L);
+        return getLSNIndex(LSN, LSNS_PER_PAGE);
+    }
+
+    static int getLSNIndex(long LSN, long lsnsPerPage) {
+        return (int) (LSN % lsnsPerPage);
     }
 
     /**
@@ -219,7 +247,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     @Override
     public synchronized void close() {
         if (!this.unflushedLogTail.isEmpty()) {
-            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
+            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum(), lsnsPerPage));
         }
     }
 
@@ -228,7 +256,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         private int startIndex;
 
         private LogPageIterator(Page logPage, int startIndex) {
-            super(DiskSpaceManager.PAGE_SIZE);
+            super(pageSize);
             this.logPage = logPage;
             this.startIndex = startIndex;
             this.logPage.unpin();
@@ -251,7 +279,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 if (LogRecord.fromBytes(buf).isPresent()) {
                     return currentIndex;
                 } else {
-                    return DiskSpaceManager.PAGE_SIZE;
+                    return pageSize;
                 }
             } finally {
                 logPage.unpin();
@@ -265,7 +293,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 Buffer buf = logPage.getBuffer();
                 buf.position(index);
                 LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
+                record.setLSN(makeLSN(logPage.getPageNum(), index, lsnsPerPage));
                 return record;
             } finally {
                 logPage.unpin();
@@ -278,15 +306,24 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         private long nextIndex;
 
         private LogPagesIterator(long startLSN) {
-            nextIndex = getLSNPage(startLSN);
+            nextIndex = getLSNPage(startLSN, lsnsPerPage);
             try {
+                readAhead(nextIndex);
                 Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
+                nextIter = new LogPageIterator(page, getLSNIndex(startLSN, lsnsPerPage));
             } catch (PageException e) {
                 nextIter = null;
             }
         }
 
+        // hints the buffer manager to prefetch the log pages following pageNum
+        private void readAhead(long pageNum) {
+            int numPages = bufferManager.getReadAheadPages();
+            for (int i = 1; i <= numPages; ++i) {
+                bufferManager.prefetch(pageNum + i);
+            }
+        }
+
         @Override
         public void markPrev() {
             throw new UnsupportedOperationException();
@@ -317,6 +354,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 do {
                     ++nextIndex;
                     try {
+                        readAhead(nextIndex);
                         Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
                         nextIter = new LogPageIterator(page, 0);
                     } catch (PageException e) {
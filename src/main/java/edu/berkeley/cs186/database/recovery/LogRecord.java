@@ -217,6 +217,10 @@ public abstract class LogRecord {
             return UndoAllocPartLogRecord.fromBytes(buf);
         case UNDO_FREE_PART:
             return UndoFreePartLogRecord.fromBytes(buf);
+        case FREE_PART_PAGES:
+            return FreePartLogRecord.fromBytes(buf, true);
+        case UNDO_FREE_PART_PAGES:
+            return UndoFreePartLogRecord.fromBytes(buf, true);
         default:
             throw new UnsupportedOperationException("bad log type");
         }
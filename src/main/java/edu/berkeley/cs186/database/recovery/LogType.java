@@ -33,7 +33,11 @@ public enum LogType {
     // compensation log record for undoing a partition alloc
     UNDO_ALLOC_PART,
     // compensation log record for undoing a partition free
-    UNDO_FREE_PART;
+    UNDO_FREE_PART,
+    // log record for freeing a partition along with its data pages
+    FREE_PART_PAGES,
+    // compensation log record for undoing a partition free along with its data pages
+    UNDO_FREE_PART_PAGES;
 
     private static LogType[] values = LogType.values();
 
@@ -1,9 +1,12 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 
+import java.util.List;
+
 /**
  * Interface for a recovery manager.
  */
@@ -105,6 +108,22 @@ public interface RecoveryManager extends AutoCloseable {
      */
     long logFreePart(long transNum, int partNum);
 
+    /**
+     * Called when a partition is freed along with its data pages, without a call to
+     * logFreePage for each page. A log flush is necessary, since changes are visible on
+     * disk immediately after this returns.
+     *
+     * This method should return -1 if the partition is the log partition.
+     *
+     * @param transNum transaction requesting the partition be freed
+     * @param partNum partition number of the partition being freed
+     * @param pageRanges data pages of the partition that were allocated, as ranges of
+     *                   (first data page number, number of pages); there are at most
+     *                   FreePartLogRecord.MAX_PAGE_RANGES ranges
+     * @return LSN of record or -1 if log partition
+     */
+    long logFreePart(long transNum, int partNum, List<Pair<Integer, Integer>> pageRanges);
+
     /**
      * Called when a new page is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
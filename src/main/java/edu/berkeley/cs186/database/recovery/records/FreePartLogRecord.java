@@ -8,20 +8,44 @@ import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.recovery.LogRecord;
 import edu.berkeley.cs186.database.recovery.LogType;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Log record for freeing a partition. If the partition's data pages were freed along with
+ * it (instead of each with its own FreePageLogRecord), the record lists the data pages that
+ * were allocated, as ranges of (first data page number, number of pages), so that undoing
+ * the free can allocate them again. Such a record has type FREE_PART_PAGES; a record
+ * without page ranges has type FREE_PART and the same encoding as before page ranges
+ * existed, so that older logs can still be read.
+ */
 public class FreePartLogRecord extends LogRecord {
+    // Maximum number of page ranges a record can hold (so that the record, and the record
+    // undoing it, fit in a log page)
+    public static final int MAX_PAGE_RANGES = (DiskSpaceManager.PAGE_SIZE - 64) / (2 * Integer.BYTES);
+
     private long transNum;
     private int partNum;
     private long prevLSN;
+    private List<Pair<Integer, Integer>> pageRanges;
 
     public FreePartLogRecord(long transNum, int partNum, long prevLSN) {
-        super(LogType.FREE_PART);
+        this(transNum, partNum, prevLSN, Collections.emptyList());
+    }
+
+    public FreePartLogRecord(long transNum, int partNum, long prevLSN, List<Pair<Integer, Integer>> pageRanges) {
+        super(pageRanges.isEmpty() ? LogType.FREE_PART : LogType.FREE_PART_PAGES);
+        if (pageRanges.size() > MAX_PAGE_RANGES) {
+            throw new IllegalArgumentException("too many page ranges for a log record");
+        }
         this.transNum = transNum;
         this.partNum = partNum;
         this.prevLSN = prevLSN;
+        this.pageRanges = pageRanges;
     }
 
     @Override
@@ -39,6 +63,14 @@ public class FreePartLogRecord extends LogRecord {
         return Optional.of(partNum);
     }
 
+    /**
+     * @return data pages freed along with the partition, as ranges of (first data page
+     *         number, number of pages)
+     */
+    public List<Pair<Integer, Integer>> getPageRanges() {
+        return pageRanges;
+    }
+
     @Override
     public boolean isUndoable() {
         return true;
@@ -51,7 +83,7 @@ public class FreePartLogRecord extends LogRecord {
 
     @Override
     public Pair<LogRecord, Boolean> undo(long lastLSN) {
-        return new Pair<>(new UndoFreePartLogRecord(transNum, partNum, lastLSN, prevLSN), true);
+        return new Pair<>(new UndoFreePartLogRecord(transNum, partNum, lastLSN, prevLSN, pageRanges), true);
     }
 
     @Override
@@ -67,20 +99,52 @@ public class FreePartLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES];
-        ByteBuffer.wrap(b)
-        .put((byte) getType().getValue())
-        .putLong(transNum)
-        .putInt(partNum)
-        .putLong(prevLSN);
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES + getPageRangesSize(pageRanges)];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putInt(partNum)
+                     .putLong(prevLSN);
+        putPageRanges(buf, pageRanges);
         return b;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
+        return fromBytes(buf, false);
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf, boolean hasPageRanges) {
         long transNum = buf.getLong();
         int partNum = buf.getInt();
         long prevLSN = buf.getLong();
-        return Optional.of(new FreePartLogRecord(transNum, partNum, prevLSN));
+        List<Pair<Integer, Integer>> pageRanges = hasPageRanges ? getPageRanges(buf) : Collections.emptyList();
+        return Optional.of(new FreePartLogRecord(transNum, partNum, prevLSN, pageRanges));
+    }
+
+    // page ranges are only encoded (with their count) when there are any
+    static int getPageRangesSize(List<Pair<Integer, Integer>> pageRanges) {
+        return pageRanges.isEmpty() ? 0 : Integer.BYTES + 2 * Integer.BYTES * pageRanges.size();
+    }
+
+    static void putPageRanges(Buffer buf, List<Pair<Integer, Integer>> pageRanges) {
+        if (pageRanges.isEmpty()) {
+            return;
+        }
+        buf.putInt(pageRanges.size());
+        for (Pair<Integer, Integer> range : pageRanges) {
+            buf.putInt(range.getFirst()).putInt(range.getSecond());
+        }
+    }
+
+    static List<Pair<Integer, Integer>> getPageRanges(Buffer buf) {
+        int numRanges = buf.getInt();
+        List<Pair<Integer, Integer>> pageRanges = new ArrayList<>();
+        for (int i = 0; i < numRanges; ++i) {
+            int firstPage = buf.getInt();
+            int numPages = buf.getInt();
+            pageRanges.add(new Pair<>(firstPage, numPages));
+        }
+        return pageRanges;
     }
 
     @Override
@@ -91,12 +155,13 @@ public class FreePartLogRecord extends LogRecord {
         FreePartLogRecord that = (FreePartLogRecord) o;
         return transNum == that.transNum &&
                partNum == that.partNum &&
-               prevLSN == that.prevLSN;
+               prevLSN == that.prevLSN &&
+               Objects.equals(pageRanges, that.pageRanges);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN);
+        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN, pageRanges);
     }
 
     @Override
@@ -105,6 +170,7 @@ public class FreePartLogRecord extends LogRecord {
                "transNum=" + transNum +
                ", partNum=" + partNum +
                ", prevLSN=" + prevLSN +
+               ", pageRanges=" + pageRanges +
                ", LSN=" + LSN +
                '}';
     }
@@ -2,11 +2,14 @@ package edu.berkeley.cs186.database.recovery.records;
 
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.recovery.LogRecord;
 import edu.berkeley.cs186.database.recovery.LogType;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -15,13 +18,20 @@ public class UndoFreePartLogRecord extends LogRecord {
     private int partNum;
     private long prevLSN;
     private long undoNextLSN;
+    private List<Pair<Integer, Integer>> pageRanges;
 
     public UndoFreePartLogRecord(long transNum, int partNum, long prevLSN, long undoNextLSN) {
-        super(LogType.UNDO_FREE_PART);
+        this(transNum, partNum, prevLSN, undoNextLSN, Collections.emptyList());
+    }
+
+    public UndoFreePartLogRecord(long transNum, int partNum, long prevLSN, long undoNextLSN,
+                                 List<Pair<Integer, Integer>> pageRanges) {
+        super(pageRanges.isEmpty() ? LogType.UNDO_FREE_PART : LogType.UNDO_FREE_PART_PAGES);
         this.transNum = transNum;
         this.partNum = partNum;
         this.prevLSN = prevLSN;
         this.undoNextLSN = undoNextLSN;
+        this.pageRanges = pageRanges;
     }
 
     @Override
@@ -58,26 +68,44 @@ public class UndoFreePartLogRecord extends LogRecord {
         } catch (IllegalStateException e) {
             /* do nothing - partition already exists */
         }
+        // data pages freed along with the partition
+        for (Pair<Integer, Integer> range : pageRanges) {
+            for (int i = 0; i < range.getSecond(); ++i) {
+                try {
+                    dsm.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, range.getFirst() + i));
+                } catch (IllegalStateException e) {
+                    /* do nothing - page already exists */
+                }
+            }
+        }
     }
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES];
-        ByteBuffer.wrap(b)
-        .put((byte) getType().getValue())
-        .putLong(transNum)
-        .putInt(partNum)
-        .putLong(prevLSN)
-        .putLong(undoNextLSN);
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES
+                            + FreePartLogRecord.getPageRangesSize(pageRanges)];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putInt(partNum)
+                     .putLong(prevLSN)
+                     .putLong(undoNextLSN);
+        FreePartLogRecord.putPageRanges(buf, pageRanges);
         return b;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
+        return fromBytes(buf, false);
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf, boolean hasPageRanges) {
         long transNum = buf.getLong();
         int partNum = buf.getInt();
         long prevLSN = buf.getLong();
         long undoNextLSN = buf.getLong();
-        return Optional.of(new UndoFreePartLogRecord(transNum, partNum, prevLSN, undoNextLSN));
+        List<Pair<Integer, Integer>> pageRanges = hasPageRanges ? FreePartLogRecord.getPageRanges(buf)
+                                                  : Collections.emptyList();
+        return Optional.of(new UndoFreePartLogRecord(transNum, partNum, prevLSN, undoNextLSN, pageRanges));
     }
 
     @Override
@@ -89,12 +117,13 @@ public class UndoFreePartLogRecord extends LogRecord {
         return transNum == that.transNum &&
                partNum == that.partNum &&
                prevLSN == that.prevLSN &&
-               undoNextLSN == that.undoNextLSN;
+               undoNextLSN == that.undoNextLSN &&
+               Objects.equals(pageRanges, that.pageRanges);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN, undoNextLSN);
+        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN, undoNextLSN, pageRanges);
     }
 
     @Override
@@ -104,6 +133,7 @@ public class UndoFreePartLogRecord extends LogRecord {
                ", partNum=" + partNum +
                ", prevLSN=" + prevLSN +
                ", undoNextLSN=" + undoNextLSN +
+               ", pageRanges=" + pageRanges +
                ", LSN=" + LSN +
                '}';
     }
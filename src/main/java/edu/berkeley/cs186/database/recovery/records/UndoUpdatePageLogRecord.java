@@ -72,7 +72,8 @@ public class UndoUpdatePageLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[(after.length == BufferManager.EFFECTIVE_PAGE_SIZE ? 36 : 37) + after.length];
+        boolean fullPage = isEffectivePageSize(after.length);
+        byte[] b = new byte[(fullPage ? 36 : 37) + after.length];
         Buffer buf = ByteBuffer.wrap(b)
                      .put((byte) getType().getValue())
                      .putLong(transNum)
@@ -80,9 +81,11 @@ public class UndoUpdatePageLogRecord extends LogRecord {
                      .putLong(prevLSN)
                      .putLong(undoNextLSN)
                      .putShort(offset);
-        // to make sure that the CLR can actually fit on one page...
-        if (after.length == BufferManager.EFFECTIVE_PAGE_SIZE) {
-            buf.put((byte) - 1).put(after);
+        // to make sure that the CLR can actually fit on one page, the length of a whole page
+        // is stored in one byte, as the (negated) log of the page size
+        if (fullPage) {
+            int logPageSize = Integer.numberOfTrailingZeros(after.length + BufferManager.RESERVED_SPACE);
+            buf.put((byte) -logPageSize).put(after);
         } else {
             buf.putShort((short) after.length).put(after);
         }
@@ -97,7 +100,8 @@ public class UndoUpdatePageLogRecord extends LogRecord {
         short offset = buf.getShort();
         short length = buf.getShort();
         if (length < 0) {
-            length = BufferManager.EFFECTIVE_PAGE_SIZE;
+            int logPageSize = -(length >> 8);
+            length = (short) ((1 << logPageSize) - BufferManager.RESERVED_SPACE);
             buf.position(buf.position() - 1);
         }
         byte[] after = new byte[length];
@@ -106,6 +110,15 @@ public class UndoUpdatePageLogRecord extends LogRecord {
                            after));
     }
 
+    /**
+     * @return whether length is the effective page size of some supported page size
+     */
+    private static boolean isEffectivePageSize(int length) {
+        int pageSize = length + BufferManager.RESERVED_SPACE;
+        return Integer.bitCount(pageSize) == 1 && pageSize >= DiskSpaceManager.PAGE_SIZE &&
+               pageSize <= DiskSpaceManager.MAX_PAGE_SIZE;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) { return true; }
@@ -14,8 +14,8 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
-import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -38,22 +38,36 @@ import java.util.Random;
  *
  * The page directory id is a randomly generated 32-bit integer used to help detect bugs (where we attempt
  * to write to a page that is not managed by the page directory).
+ *
+ * Pages with enough free space for an insert are found with an in-memory free space map (see FreeSpaceMap),
+ * built from the header pages on the first insert or update, rather than by reading every data page entry of
+ * every header page. The header pages remain the source of truth: entries picked from the map are checked
+ * against their header page before being used, so the map only needs to be a hint (e.g. after a rollback
+ * restores a header page).
+ *
+ * Page directories are safe to use from several threads at once, with pinned pages serving as latches (pinning a
+ * page locks its buffer frame). A header page is never pinned while waiting to pin a data page that another
+ * thread may hold (only while allocating a new data page), so callers may update the free space of a data page
+ * they have pinned. Each thread inserts into a data page of its own where possible (see FreeSpaceMap), so that
+ * concurrent inserts do not all wait on the same page.
  */
 public class PageDirectory implements BacktrackingIterable<Page> {
     // size of the header in header pages
     private static final short HEADER_HEADER_SIZE = 13;
 
-    // number of data page entries in a header page
-    private static final short HEADER_ENTRY_COUNT = (BufferManager.EFFECTIVE_PAGE_SIZE -
-            HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
-
     // size of the header in data pages
-    private static final short DATA_HEADER_SIZE = 10;
+    static final short DATA_HEADER_SIZE = 10;
 
-    // effective page size
+    // effective page size, with the default page size
     public static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
             DATA_HEADER_SIZE;
 
+    // number of data page entries in a header page
+    private short headerEntryCount;
+
+    // effective page size
+    private short effectivePageSize;
+
     // the buffer manager
     private BufferManager bufferManager;
 
@@ -64,6 +78,15 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // First header page
     private HeaderPage firstHeader;
 
+    // Header pages, in order (headerPages.get(i).headerOffset == i)
+    private List<HeaderPage> headerPages;
+
+    // In-memory map of free space in data pages (null until first needed)
+    private volatile FreeSpaceMap freeSpaceMap;
+
+    // Entry of the data page each thread last inserted into, or -1
+    private ThreadLocal<Integer> insertTarget;
+
     // Size of metadata of an empty data page.
     private short emptyPageMetadataSize;
 
@@ -86,14 +109,27 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     public PageDirectory(BufferManager bufferManager, int partNum, long pageNum,
                          short emptyPageMetadataSize, LockContext lockContext) {
         this.bufferManager = bufferManager;
+        this.headerEntryCount = (short) ((bufferManager.getEffectivePageSize() - HEADER_HEADER_SIZE) /
+                                         DataPageEntry.SIZE);
+        this.effectivePageSize = getEffectivePageSize(bufferManager);
         this.partNum = partNum;
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
+        this.headerPages = new CopyOnWriteArrayList<>();
+        this.insertTarget = ThreadLocal.withInitial(() -> -1);
         this.firstHeader = new HeaderPage(pageNum, 0, true);
     }
 
     public short getEffectivePageSize() {
-        return EFFECTIVE_PAGE_SIZE;
+        return effectivePageSize;
+    }
+
+    /**
+     * @return number of bytes of a data page available for records, for pages of the
+     * buffer manager's page size
+     */
+    public static short getEffectivePageSize(BufferManager bufferManager) {
+        return (short) (bufferManager.getEffectivePageSize() - DATA_HEADER_SIZE);
     }
 
     public void setEmptyPageMetadataSize(short emptyPageMetadataSize) {
@@ -108,23 +144,56 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
         }
-        if (requiredSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (requiredSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
-        Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        Page page = this.loadPageWithSpace(requiredSpace);
         LockContext pageContext = lockContext.childContext(page.getPageNum());
+        // the space is already taken, so the page can be unpinned while waiting for the lock,
+        // rather than blocking other threads from it
+        page.unpin();
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
+        page.pin();
 
         return new DataPage(pageDirectoryId, page);
     }
 
     public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (newFreeSpace <= 0 || newFreeSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
+        this.updateSpace(page, newFreeSpace, false);
+    }
+
+    /**
+     * Returns space taken from a data page with getPageWithSpace, e.g. when a record is deleted.
+     * Unlike updateFreeSpace, this is correct even if other threads have taken space from the page
+     * but not used it yet. The page is freed if all of its space is free.
+     * @param page data page
+     * @param space number of bytes of space no longer used
+     */
+    public void releaseSpace(Page page, short space) {
+        if (space <= 0 || space > effectivePageSize - emptyPageMetadataSize) {
+            throw new IllegalArgumentException("bad amount of space to release");
+        }
+        this.updateSpace(page, space, true);
+    }
+
+    /**
+     * Takes more space from a data page, e.g. when a record on it grows.
+     * @param page data page
+     * @param space number of bytes of space to take
+     * @return whether the page had enough free space (if not, no space is taken)
+     */
+    public boolean takeSpace(Page page, short space) {
+        if (space <= 0) {
+            throw new IllegalArgumentException("cannot request nonpositive amount of space");
+        }
+        // the free space map is updated along with the header page, so it must be built first
+        this.getFreeSpaceMap();
         int headerIndex;
         short offset;
         page.pin();
@@ -137,11 +206,75 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             page.unpin();
         }
 
-        HeaderPage headerPage = firstHeader;
-        for (int i = 0; i < headerIndex; ++i) {
-            headerPage = headerPage.nextPage;
+        return this.headerPages.get(headerIndex).reserveSpace(offset, space) != DiskSpaceManager.INVALID_PAGE_NUM;
+    }
+
+    // sets the free space of a data page, or adds to it if relative
+    private void updateSpace(Page page, short space, boolean relative) {
+        int headerIndex;
+        short offset;
+        page.pin();
+        try {
+            Buffer b = ((DataPage) page).getFullBuffer();
+            b.position(4); // skip page directory id
+            headerIndex = b.getInt();
+            offset = b.getShort();
+        } finally {
+            page.unpin();
+        }
+
+        this.headerPages.get(headerIndex).updateSpace(page, offset, space, relative);
+    }
+
+    // gets and loads a page with the required free space, allocating one if no page has enough; the
+    // page is preferably the one this thread last inserted into, or else one no other thread is
+    // inserting into
+    private Page loadPageWithSpace(short requiredSpace) {
+        FreeSpaceMap map = this.getFreeSpaceMap();
+        Thread thread = Thread.currentThread();
+        int target = this.insertTarget.get();
+        while (true) {
+            // a data page with enough space that no other thread is inserting into, or a new data
+            // page; either way claimed for this thread
+            int entry = map.findEntry(requiredSpace, target, thread);
+            Page page = null;
+            if (entry != -1) {
+                page = this.headerPages.get(entry / headerEntryCount)
+                       .takeSpace((short) (entry % headerEntryCount), requiredSpace);
+            } else if ((entry = map.pollUnusedEntry(target, thread)) != -1) {
+                page = this.headerPages.get(entry / headerEntryCount)
+                       .allocateDataPage((short) (entry % headerEntryCount), requiredSpace);
+            } else {
+                this.addHeaderPage();
+                continue;
+            }
+            this.insertTarget.set(entry);
+            if (page != null) {
+                return page;
+            }
+            // otherwise the map was out of date, and the entry is now fixed; try again
+            target = entry;
+        }
+    }
+
+    // adds a new header page, unless another thread did so since unused entries were last looked for
+    private synchronized void addHeaderPage() {
+        if (this.freeSpaceMap.hasUnusedEntries()) {
+            return;
+        }
+        this.headerPages.get(this.headerPages.size() - 1).addNewHeaderPage();
+    }
+
+    // gets the free space map, building it from the header pages if it was not built yet
+    private synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (this.freeSpaceMap == null) {
+            FreeSpaceMap map = new FreeSpaceMap();
+            for (HeaderPage headerPage : this.headerPages) {
+                headerPage.addEntriesTo(map);
+            }
+            this.freeSpaceMap = map;
         }
-        headerPage.updateSpace(page, offset, newFreeSpace);
+        return this.freeSpaceMap;
     }
 
     @Override
@@ -183,6 +316,16 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             return super.getBuffer().position(DATA_HEADER_SIZE).slice();
         }
 
+        @Override
+        public Buffer getBulkWriteBuffer() {
+            return super.getBulkWriteBuffer().position(DATA_HEADER_SIZE).slice();
+        }
+
+        @Override
+        public Buffer getPinnedBuffer() {
+            return super.getPinnedBuffer().position(DATA_HEADER_SIZE).slice();
+        }
+
         // get the full buffer (without skipping header) for internal use
         private Buffer getFullBuffer() {
             return super.getBuffer();
@@ -231,6 +374,168 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
     }
 
+    // updates the free space of an entry (-1 if its data page was freed) in the free space map,
+    // if it was built
+    private void updateFreeSpaceMap(int entry, short freeSpace) {
+        FreeSpaceMap map = this.freeSpaceMap;
+        if (map == null) {
+            return;
+        }
+        if (freeSpace == -1) {
+            map.addUnusedEntry(entry);
+        } else {
+            map.setFreeSpace(entry, freeSpace);
+        }
+    }
+
+    /**
+     * In-memory map of the free space in the data pages of the page directory. Each data page entry
+     * (numbered headerOffset * headerEntryCount + index in header page) with free space is kept in
+     * one of NUM_BUCKETS buckets by amount of free space, and a bitmap of nonempty buckets lets the
+     * first bucket above the one of a request, all of whose pages have enough space, be found
+     * without looking at every bucket. Unused entries are kept in a queue, lowest first.
+     *
+     * Each entry is claimed by the last thread to insert into its data page, and other threads
+     * skip it, so that concurrent inserts go to different pages (at the cost of up to one partly
+     * filled page per inserting thread). Claims are dropped when the thread moves on to another
+     * page, and ignored once the thread is no longer alive.
+     */
+    private class FreeSpaceMap {
+        private static final int NUM_BUCKETS = 256;
+
+        // number of entries of the bucket of a request to check, when no higher bucket has pages
+        private static final int MAX_CANDIDATES = 8;
+
+        // free space of each entry, or -1 for unused entries
+        private short[] freeSpace;
+
+        // entries in each bucket
+        private List<LinkedHashSet<Integer>> buckets;
+
+        // buckets with entries
+        private BitSet nonEmptyBuckets;
+
+        // unused entries
+        private ArrayDeque<Integer> unusedEntries;
+
+        // thread last inserting into the data page of each entry
+        private Map<Integer, Thread> claims;
+
+        private FreeSpaceMap() {
+            this.freeSpace = new short[0];
+            this.buckets = new ArrayList<>();
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                this.buckets.add(new LinkedHashSet<>());
+            }
+            this.nonEmptyBuckets = new BitSet(NUM_BUCKETS);
+            this.unusedEntries = new ArrayDeque<>();
+            this.claims = new HashMap<>();
+        }
+
+        private int bucketFor(short space) {
+            return space * NUM_BUCKETS / (effectivePageSize + 1);
+        }
+
+        // returns an entry that probably has at least requiredSpace bytes free, or -1 if none: the
+        // thread's target entry if it has enough space, and otherwise an entry not claimed by
+        // another thread, which is claimed for the thread
+        private synchronized int findEntry(short requiredSpace, int target, Thread thread) {
+            int entry = this.findUnclaimedEntry(requiredSpace, target, thread);
+            if (entry != -1) {
+                this.claim(entry, target, thread);
+            }
+            return entry;
+        }
+
+        private int findUnclaimedEntry(short requiredSpace, int target, Thread thread) {
+            if (target != -1 && target < this.freeSpace.length && this.freeSpace[target] >= requiredSpace) {
+                return target;
+            }
+            int bucket = this.bucketFor(requiredSpace);
+            int checked = 0;
+            for (int b = this.nonEmptyBuckets.nextSetBit(bucket + 1); b != -1 && checked < MAX_CANDIDATES;
+                    b = this.nonEmptyBuckets.nextSetBit(b + 1)) {
+                for (int entry : this.buckets.get(b)) {
+                    if (this.isUnclaimed(entry, thread)) {
+                        return entry;
+                    }
+                    if (++checked == MAX_CANDIDATES) {
+                        break;
+                    }
+                }
+            }
+            checked = 0;
+            for (int entry : this.buckets.get(bucket)) {
+                if (this.freeSpace[entry] >= requiredSpace && this.isUnclaimed(entry, thread)) {
+                    return entry;
+                }
+                if (++checked == MAX_CANDIDATES) {
+                    break;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isUnclaimed(int entry, Thread thread) {
+            Thread owner = this.claims.get(entry);
+            return owner == null || owner == thread || !owner.isAlive();
+        }
+
+        // claims an entry for a thread, dropping its claim on its previous target entry
+        private void claim(int entry, int previousTarget, Thread thread) {
+            if (previousTarget != entry && this.claims.get(previousTarget) == thread) {
+                this.claims.remove(previousTarget);
+            }
+            this.claims.put(entry, thread);
+        }
+
+        private synchronized boolean hasUnusedEntries() {
+            return !this.unusedEntries.isEmpty();
+        }
+
+        // returns an unused entry, claimed for the thread, or -1 if all entries of all header
+        // pages are used
+        private synchronized int pollUnusedEntry(int target, Thread thread) {
+            Integer entry = this.unusedEntries.pollFirst();
+            if (entry == null) {
+                return -1;
+            }
+            this.claim(entry, target, thread);
+            return entry;
+        }
+
+        // marks an entry as unused
+        private synchronized void addUnusedEntry(int entry) {
+            this.setFreeSpace(entry, (short) -1);
+            this.unusedEntries.addLast(entry);
+        }
+
+        // sets the free space of an entry, or marks it as used for no data page (-1)
+        private synchronized void setFreeSpace(int entry, short space) {
+            if (entry >= this.freeSpace.length) {
+                int oldLength = this.freeSpace.length;
+                this.freeSpace = Arrays.copyOf(this.freeSpace, Math.max(entry + 1, 2 * oldLength));
+                Arrays.fill(this.freeSpace, oldLength, this.freeSpace.length, (short) -1);
+            }
+            short oldSpace = this.freeSpace[entry];
+            if (oldSpace > 0) {
+                int bucket = this.bucketFor(oldSpace);
+                LinkedHashSet<Integer> entries = this.buckets.get(bucket);
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    this.nonEmptyBuckets.clear(bucket);
+                }
+            }
+            this.freeSpace[entry] = space;
+            // full pages are not in any bucket, since they cannot satisfy any request
+            if (space > 0) {
+                int bucket = this.bucketFor(space);
+                this.buckets.get(bucket).add(entry);
+                this.nonEmptyBuckets.set(bucket);
+            }
+        }
+    }
+
     /**
      * Represents a single header page.
      */
@@ -241,6 +546,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private int headerOffset;
 
         private HeaderPage(long pageNum, int headerOffset, boolean firstHeader) {
+            headerPages.add(this);
             this.page = bufferManager.fetchPage(lockContext, pageNum);
             // We do not lock header pages for the entirety of the transaction. Instead, we simply
             // use the buffer frame lock (from pinning) to ensure that one transaction writes at a time.
@@ -253,7 +559,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             try {
                 Buffer pageBuffer = this.page.getBuffer();
                 if (pageBuffer.get() != (byte) 1) {
-                    byte[] buf = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+                    byte[] buf = new byte[bufferManager.getEffectivePageSize()];
                     Buffer b = ByteBuffer.wrap(buf);
                     // invalid page, initialize empty header page
                     if (firstHeader) {
@@ -261,7 +567,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     }
                     b.position(0).put((byte) 1).putInt(pageDirectoryId).putLong(DiskSpaceManager.INVALID_PAGE_NUM);
                     DataPageEntry invalidPageEntry = new DataPageEntry();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         invalidPageEntry.toBytes(b);
                     }
                     nextPageNum = -1L;
@@ -275,7 +581,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         throw new PageException("header page page directory id does not match");
                     }
                     nextPageNum = pageBuffer.getLong();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(pageBuffer);
                         if (dpe.isValid()) {
                             ++this.numDataPages;
@@ -303,84 +609,131 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             this.page.pin();
             try {
                 this.nextPage = new HeaderPage(page.getPageNum(), headerOffset + 1, false);
-                this.page.getBuffer().position(1).putLong(page.getPageNum());
+                // skip the valid byte and page directory id
+                this.page.getBuffer().position(1 + Integer.BYTES).putLong(page.getPageNum());
             } finally {
                 this.page.unpin();
                 page.unpin();
             }
+            if (freeSpaceMap != null) {
+                this.nextPage.addEntriesTo(freeSpaceMap);
+            }
         }
 
-        // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
+        // adds the data page entries of this header page to a free space map
+        private void addEntriesTo(FreeSpaceMap map) {
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
                 b.position(HEADER_HEADER_SIZE);
-
-                // if we have any data page managed by this header page with enough space, return it
-                short unusedSlot = -1;
-                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                for (int i = 0; i < headerEntryCount; ++i) {
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    if (!dpe.isValid()) {
-                        if (unusedSlot == -1) {
-                            unusedSlot = i;
-                        }
-                        continue;
-                    }
-                    if (dpe.freeSpace >= requiredSpace) {
-                        dpe.freeSpace -= requiredSpace;
-                        b.position(b.position() - DataPageEntry.SIZE);
-                        dpe.toBytes(b);
-
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                    if (dpe.isValid()) {
+                        map.setFreeSpace(this.entryNum(i), dpe.freeSpace);
+                    } else {
+                        map.addUnusedEntry(this.entryNum(i));
                     }
                 }
+            } finally {
+                this.page.unpin();
+            }
+        }
 
-                // if we have any unused slot in this header page, allocate a new data page
-                if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
-                    DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
-                                                          (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
-
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
-                    dpe.toBytes(b);
+        // number of a data page entry of this header page in the free space map
+        private int entryNum(int index) {
+            return this.headerOffset * headerEntryCount + index;
+        }
 
-                    page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
+        // takes the required free space from the data page of an entry and loads the page, or
+        // returns null if the entry does not have enough space (the free space map is then fixed)
+        private Page takeSpace(short index, short requiredSpace) {
+            long pageNum = this.reserveSpace(index, requiredSpace);
+            if (pageNum == DiskSpaceManager.INVALID_PAGE_NUM) {
+                return null;
+            }
+            // the space is taken, so the data page can be loaded after unpinning this header page
+            return bufferManager.fetchPage(lockContext, pageNum);
+        }
 
-                    ++this.numDataPages;
-                    return page;
+        // takes the required free space from the data page of an entry and returns the page
+        // number of the data page, or INVALID_PAGE_NUM if the entry does not have enough space
+        // (the free space map is then fixed)
+        private long reserveSpace(short index, short requiredSpace) {
+            this.page.pin();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                if (!dpe.isValid()) {
+                    freeSpaceMap.addUnusedEntry(this.entryNum(index));
+                    return DiskSpaceManager.INVALID_PAGE_NUM;
+                }
+                if (dpe.freeSpace < requiredSpace) {
+                    freeSpaceMap.setFreeSpace(this.entryNum(index), dpe.freeSpace);
+                    return DiskSpaceManager.INVALID_PAGE_NUM;
                 }
+                dpe.freeSpace -= requiredSpace;
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                dpe.toBytes(b);
+                freeSpaceMap.setFreeSpace(this.entryNum(index), dpe.freeSpace);
+                return dpe.pageNum;
+            } finally {
+                this.page.unpin();
+            }
+        }
 
-                // if we have no next header page, make one
-                if (this.nextPage == null) {
-                    this.addNewHeaderPage();
+        // allocates a new data page for an unused entry, takes the required free space from it and
+        // returns it, or returns null if the entry is in use (the free space map is then fixed)
+        private Page allocateDataPage(short index, short requiredSpace) {
+            this.page.pin();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                if (dpe.isValid()) {
+                    freeSpaceMap.setFreeSpace(this.entryNum(index), dpe.freeSpace);
+                    return null;
                 }
 
-                // no space on this header page, try next one
-                return this.nextPage.loadPageWithSpace(requiredSpace);
+                Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                dpe = new DataPageEntry(page.getPageNum(),
+                                        (short) (effectivePageSize - emptyPageMetadataSize - requiredSpace));
+
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                dpe.toBytes(b);
+                freeSpaceMap.setFreeSpace(this.entryNum(index), dpe.freeSpace);
+
+                page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(index);
+
+                ++this.numDataPages;
+                return page;
             } finally {
                 this.page.unpin();
             }
         }
 
-        // updates free space
-        private void updateSpace(Page dataPage, short index, short newFreeSpace) {
+        // updates free space, setting it to space, or adding space to it if relative
+        private void updateSpace(Page dataPage, short index, short space, boolean relative) {
             this.page.pin();
             try {
-                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                short newFreeSpace = relative ? (short) (DataPageEntry.fromBytes(b).freeSpace + space) : space;
+                if (newFreeSpace < effectivePageSize - emptyPageMetadataSize) {
                     // write new free space to disk
-                    Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
                     dpe.freeSpace = newFreeSpace;
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     dpe.toBytes(b);
+                    updateFreeSpaceMap(this.entryNum(index), newFreeSpace);
                 } else {
                     // the entire page is free; free it
-                    Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     (new DataPageEntry()).toBytes(b);
                     bufferManager.freePage(dataPage);
+                    --this.numDataPages;
+                    updateFreeSpaceMap(this.entryNum(index), (short) -1);
                 }
             } finally {
                 this.page.unpin();
@@ -395,7 +748,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
             private HeaderPageIterator() {
-                super(HEADER_ENTRY_COUNT);
+                super(headerEntryCount);
             }
 
             @Override
@@ -404,13 +757,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
-                    for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = currentIndex; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
                         if (dpe.isValid()) {
                             return i;
                         }
                     }
-                    return HEADER_ENTRY_COUNT;
+                    return headerEntryCount;
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -418,15 +771,31 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
             @Override
             protected Page getValue(int index) {
+                long pageNum;
                 HeaderPage.this.page.pin();
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    readAhead(b, index + 1);
+                    pageNum = dpe.pageNum;
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
+                return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, pageNum));
+            }
+
+            // hints the buffer manager to prefetch the next few data pages, starting from the
+            // entry at index (which b must be positioned at)
+            private void readAhead(Buffer b, int index) {
+                int numPages = bufferManager.getReadAheadPages();
+                for (int i = index; i < headerEntryCount && numPages > 0; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.isValid()) {
+                        bufferManager.prefetch(dpe.pageNum);
+                        --numPages;
+                    }
+                }
             }
         }
     }
@@ -1,12 +1,14 @@
 package edu.berkeley.cs186.database.table;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 
@@ -50,6 +52,31 @@ public class Record {
         return byteBuffer.array();
     }
 
+    /**
+     * Serializes this record into a byte array of variable length, for tables with the
+     * SLOTTED layout. Strings are serialized as their length (2 bytes) followed by their
+     * characters, rather than padded to the length of their type; other values are
+     * serialized as in toBytes.
+     */
+    public byte[] toVariableBytes(Schema schema) {
+        List<byte[]> bytes = new ArrayList<>(values.size());
+        int size = 0;
+        for (DataBox value : values) {
+            byte[] b = value.getTypeId() == TypeId.STRING
+                       ? value.getString().getBytes(Charset.forName("ascii")) : value.toBytes();
+            bytes.add(b);
+            size += b.length + (value.getTypeId() == TypeId.STRING ? Short.BYTES : 0);
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i).getTypeId() == TypeId.STRING) {
+                byteBuffer.putShort((short) bytes.get(i).length);
+            }
+            byteBuffer.put(bytes.get(i));
+        }
+        return byteBuffer.array();
+    }
+
     /**
      * Returns a new records consisting of this record's values with the other record's
      * values appended to the right of it. i.e. if record a contains [1,2,3] and record b
@@ -77,6 +104,27 @@ public class Record {
         return new Record(values);
     }
 
+    /**
+     * Takes a byte[] produced by toVariableBytes and decodes it into a Record.
+     *
+     * @param buf the byte array to decode
+     * @param schema the schema used for this record
+     * @return the decoded Record
+     */
+    public static Record fromVariableBytes(Buffer buf, Schema schema) {
+        List<DataBox> values = new ArrayList<>();
+        for (Type t : schema.getFieldTypes()) {
+            if (t.getTypeId() == TypeId.STRING) {
+                byte[] bytes = new byte[buf.getShort()];
+                buf.get(bytes);
+                values.add(new StringDataBox(new String(bytes, Charset.forName("ascii")), t.getSizeInBytes()));
+            } else {
+                values.add(DataBox.fromBytes(buf, t));
+            }
+        }
+        return new Record(values);
+    }
+
     /**
      * @return the number of values in this record
      */
@@ -0,0 +1,289 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.memory.Page;
+
+/**
+ * A data page of a table with the SLOTTED layout, holding variable-length records
+ * (see Record#toVariableBytes). The page starts with a header holding the number
+ * of slots and the offset of the start of the record space, followed by an array of
+ * slots. Records are packed at the end of the page, and the free space of the page
+ * is between the two:
+ *
+ *   +--------+--------+--------+--------+------------+----------+----------+
+ *   | header | slot 0 | slot 1 | slot 2 | free space | record 2 | record 0 |
+ *   +--------+--------+--------+--------+------------+----------+----------+
+ *
+ * Each slot holds the offset and length of its record, or 0 if the slot is empty
+ * (slot 1 above). The entry number of a record id is the number of its slot, so
+ * records can be moved within the page, when the page is compacted to coalesce
+ * free space left by deleted and shrunk records, without changing their record
+ * ids. Empty slots are reused, and empty slots at the end of the slot array are
+ * dropped.
+ *
+ * A record that no longer fits on its page after an update is moved to another
+ * page, and its slot holds the record id of its new location (a forwarding
+ * address) instead. The slot holding the moved record is marked as such, so that
+ * scans skip it.
+ *
+ * The space taken on the page is tracked by the caller in the page directory: a
+ * record takes its length plus SLOT_SIZE bytes (for its slot). A freshly allocated
+ * (zeroed) page is a valid empty page.
+ */
+class SlottedPage {
+    // number of slots, and offset of the start of the record space (0 if the page is empty)
+    static final short HEADER_SIZE = 2 * Short.BYTES;
+
+    // offset, and length and flags, of a record
+    static final short SLOT_SIZE = 2 * Short.BYTES;
+
+    // size of a forwarding address: every record takes at least this much space, so
+    // that it can be replaced by one in place
+    static final short FORWARD_SIZE = (short) RecordId.getSizeInBytes();
+
+    // flags, kept in the high bits of the length of a slot
+    static final int FORWARDED = 0x8000; // the slot holds a forwarding address
+    static final int MOVED = 0x4000;     // the slot holds a record moved from another page
+    private static final int LENGTH_MASK = 0x3FFF;
+
+    private Page page;
+    private int pageSize;
+    private Buffer view;
+
+    /**
+     * @param page data page, pinned for as long as this object is used
+     * @param pageSize size of the data page (excluding page directory metadata)
+     */
+    SlottedPage(Page page, int pageSize) {
+        this.page = page;
+        this.pageSize = pageSize;
+        this.view = page.getPinnedBuffer();
+    }
+
+    int getNumSlots() {
+        return view.getShort(0);
+    }
+
+    /**
+     * @return whether slot holds a record or forwarding address
+     */
+    boolean isUsed(int slot) {
+        return slot < getNumSlots() && getOffset(slot) != 0;
+    }
+
+    /**
+     * @return flags of a used slot (FORWARDED and MOVED)
+     */
+    int getFlags(int slot) {
+        return Short.toUnsignedInt(view.getShort(HEADER_SIZE + slot * SLOT_SIZE + Short.BYTES)) & ~LENGTH_MASK;
+    }
+
+    int getLength(int slot) {
+        return view.getShort(HEADER_SIZE + slot * SLOT_SIZE + Short.BYTES) & LENGTH_MASK;
+    }
+
+    /**
+     * @return buffer positioned at the start of the record (or forwarding address) of
+     * a used slot, valid while the page is pinned
+     */
+    Buffer getRecordBuffer(int slot) {
+        return view.position(getOffset(slot));
+    }
+
+    /**
+     * @return forwarding address of a FORWARDED slot
+     */
+    RecordId getForwardingAddress(int slot) {
+        return RecordId.fromBytes(getRecordBuffer(slot));
+    }
+
+    /**
+     * @return the slots that scans return: slots with records (or forwarding addresses)
+     * that were not moved from another page
+     */
+    BitSet getScannedSlots() {
+        ByteBuffer slots = readSlots(getNumSlots());
+        BitSet scanned = new BitSet();
+        for (int slot = 0; slot * SLOT_SIZE < slots.capacity(); ++slot) {
+            int length = Short.toUnsignedInt(slots.getShort(slot * SLOT_SIZE + Short.BYTES));
+            if (slots.getShort(slot * SLOT_SIZE) != 0 && (length & MOVED) == 0) {
+                scanned.set(slot);
+            }
+        }
+        return scanned;
+    }
+
+    /**
+     * Adds a record to the page, in the first empty slot or a new slot. The caller
+     * must have taken the space for it (and a new slot).
+     * @return slot of the record
+     */
+    int insert(byte[] record, int flags) {
+        return insertAll(Collections.singletonList(record), flags).get(0);
+    }
+
+    /**
+     * Adds records to the page, in empty slots and then new slots. The records are
+     * written with a single write, and the slots with another. The caller must have
+     * taken the space for them (and new slots).
+     * @return slots of the records
+     */
+    List<Integer> insertAll(List<byte[]> records, int flags) {
+        int numSlots = getNumSlots();
+        ByteBuffer slots = readSlots(numSlots);
+        List<Integer> result = new ArrayList<>(records.size());
+        for (int slot = 0; slot < numSlots && result.size() < records.size(); ++slot) {
+            if (slots.getShort(slot * SLOT_SIZE) == 0) {
+                result.add(slot);
+            }
+        }
+        int newNumSlots = numSlots + records.size() - result.size();
+        for (int slot = numSlots; slot < newNumSlots; ++slot) {
+            result.add(slot);
+        }
+        int length = 0;
+        for (byte[] record : records) {
+            length += record.length;
+        }
+
+        if (getRecordStart() - length < HEADER_SIZE + newNumSlots * SLOT_SIZE) {
+            compact();
+        }
+        int start = getRecordStart() - length;
+        byte[] bytes = new byte[length];
+        ByteBuffer newSlots = ByteBuffer.allocate(newNumSlots * SLOT_SIZE);
+        newSlots.put(readSlots(numSlots));
+        int offset = length;
+        for (int i = 0; i < records.size(); ++i) {
+            byte[] record = records.get(i);
+            offset -= record.length;
+            System.arraycopy(record, 0, bytes, offset, record.length);
+            newSlots.putShort(result.get(i) * SLOT_SIZE, (short) (start + offset));
+            newSlots.putShort(result.get(i) * SLOT_SIZE + Short.BYTES, (short) (record.length | flags));
+        }
+        // only write the slots from the first one used on
+        int firstSlot = result.get(0);
+        // the records are logged as one update, rather than one per run of changed bytes
+        page.getBulkWriteBuffer().position(start).put(bytes);
+        Buffer b = page.getBuffer();
+        b.position(HEADER_SIZE + firstSlot * SLOT_SIZE)
+        .put(Arrays.copyOfRange(newSlots.array(), firstSlot * SLOT_SIZE, newNumSlots * SLOT_SIZE));
+        writeHeader(newNumSlots, start);
+        return result;
+    }
+
+    /**
+     * Replaces the record (or forwarding address) in a used slot. The caller must have
+     * taken the space for any growth of the record.
+     * @return change in the space taken by the record, in bytes
+     */
+    int replace(int slot, byte[] record, int flags) {
+        int offset = getOffset(slot);
+        int length = getLength(slot);
+        Buffer b = page.getBuffer();
+        if (record.length <= length) {
+            // in place; the rest of the old record is reclaimed by compaction
+            b.position(offset).put(record);
+            writeSlot(slot, offset, record.length | flags);
+            return record.length - length;
+        }
+        writeSlot(slot, 0, 0);
+        int numSlots = getNumSlots();
+        if (getRecordStart() - record.length < HEADER_SIZE + numSlots * SLOT_SIZE) {
+            compact();
+        }
+        int start = getRecordStart() - record.length;
+        b.position(start).put(record);
+        writeSlot(slot, start, record.length | flags);
+        writeHeader(numSlots, start);
+        return record.length - length;
+    }
+
+    /**
+     * Deletes the record (or forwarding address) in a used slot.
+     * @return space freed, in bytes: the length of the record, and the space of the
+     * slots dropped from the end of the slot array
+     */
+    int delete(int slot) {
+        int offset = getOffset(slot);
+        int length = getLength(slot);
+        writeSlot(slot, 0, 0);
+
+        int numSlots = getNumSlots();
+        int newNumSlots = numSlots;
+        while (newNumSlots > 0 && getOffset(newNumSlots - 1) == 0) {
+            --newNumSlots;
+        }
+        int start = getRecordStart();
+        if (newNumSlots == 0) {
+            start = 0;
+        } else if (offset == start) {
+            start += length;
+        }
+        if (newNumSlots != numSlots || start != getRecordStart()) {
+            writeHeader(newNumSlots, start);
+        }
+        return length + (numSlots - newNumSlots) * SLOT_SIZE;
+    }
+
+    // moves records to the end of the page, so that all free space is between the
+    // slot array and the records; written with a single write
+    private void compact() {
+        byte[] before = new byte[pageSize];
+        page.getBuffer().get(before);
+        byte[] after = before.clone();
+        ByteBuffer b = ByteBuffer.wrap(after);
+        int numSlots = b.getShort(0);
+
+        // in order of decreasing offset, so that records already at the end stay there
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < numSlots; ++slot) {
+            if (b.getShort(HEADER_SIZE + slot * SLOT_SIZE) != 0) {
+                slots.add(slot);
+            }
+        }
+        slots.sort((x, y) -> Short.compare(b.getShort(HEADER_SIZE + y * SLOT_SIZE),
+                                           b.getShort(HEADER_SIZE + x * SLOT_SIZE)));
+        int start = pageSize;
+        for (int slot : slots) {
+            int offset = b.getShort(HEADER_SIZE + slot * SLOT_SIZE);
+            int length = b.getShort(HEADER_SIZE + slot * SLOT_SIZE + Short.BYTES) & LENGTH_MASK;
+            start -= length;
+            System.arraycopy(before, offset, after, start, length);
+            b.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) start);
+        }
+        b.putShort(Short.BYTES, (short) (slots.isEmpty() ? 0 : start));
+        page.getBuffer().put(after);
+    }
+
+    private int getOffset(int slot) {
+        return view.getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int getRecordStart() {
+        int start = view.getShort(Short.BYTES);
+        return start == 0 ? pageSize : start;
+    }
+
+    private ByteBuffer readSlots(int numSlots) {
+        byte[] slots = new byte[numSlots * SLOT_SIZE];
+        view.position(HEADER_SIZE).get(slots);
+        return ByteBuffer.wrap(slots);
+    }
+
+    private void writeSlot(int slot, int offset, int lengthAndFlags) {
+        page.getBuffer().position(HEADER_SIZE + slot * SLOT_SIZE)
+        .putShort((short) offset).putShort((short) lengthAndFlags);
+    }
+
+    private void writeHeader(int numSlots, int recordStart) {
+        page.getBuffer().putShort((short) numSlots).putShort((short) recordStart);
+    }
+}
@@ -1,15 +1,19 @@
 package edu.berkeley.cs186.database.table;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.cli.PrettyPrinter;
 import edu.berkeley.cs186.database.common.iterator.*;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -85,6 +89,35 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  * only supports locking at the page level, so in cases where tuple-level locks are
  * necessary even at the cost of an I/O per tuple, a full page record may be desirable),
  * and may be explicitly toggled on with the setFullPageRecords method.
+ *
+ * The format above is the FIXED layout, where every record takes the maximum size
+ * of its schema. Tables can instead be created with the SLOTTED layout, where
+ * records are stored at their actual size (strings are stored with their length
+ * rather than padded) in slotted pages; see SlottedPage for the format of these
+ * pages.
+ *
+ * Tables can also be created with the PAX layout, which keeps the bitmap and
+ * number of records per page of the FIXED layout, but stores the records of
+ * each page column by column: the bitmap is followed by one minipage per
+ * column, holding the values of that column of every record on the page. For
+ * example, with 2 records of schema (x: int, y: bool) per page:
+ *
+ *   +--------+------+------+------+------+
+ *   | bitmap | x0   | x1   | y0   | y1   |
+ *   +--------+------+------+------+------+
+ *             \___________/ \___________/
+ *             x minipage    y minipage
+ *
+ * A scan that only needs some columns (see iterator(BitSet)) then only reads
+ * the minipages of those columns. Record ids, scans and the rest of the
+ * interface work the same way with every layout.
+ *
+ * # Concurrency
+ * Tables can be used from several threads at once. There is no table-wide lock: each
+ * operation on a record holds the page of the record pinned (which latches it) while it
+ * reads or modifies the page, so operations on different pages run in parallel. The page
+ * directory hands each inserting thread a page of its own where it can, so concurrent
+ * inserts fill different pages.
  */
 public class Table implements BacktrackingIterable<Record> {
     // The name of the table.
@@ -99,9 +132,19 @@ public class Table implements BacktrackingIterable<Record> {
     // The size (in bytes) of the bitmap found at the beginning of each data page.
     private int bitmapSizeInBytes;
 
-    // The number of records on each data page.
+    // The number of records on each data page (the maximum number, with the SLOTTED layout).
     private int numRecordsPerPage;
 
+    // The layout of the data pages.
+    private TableLayout layout;
+
+    // The size (in bytes) of each column, and the offset of each column in a record.
+    private int[] columnSizes;
+    private int[] columnOffsets;
+
+    // The number of bytes of records read from data pages, for comparing layouts.
+    private LongAdder recordBytesRead;
+
     // Statistics about the contents of the database.
     private TableStats stats;
 
@@ -115,20 +158,48 @@ public class Table implements BacktrackingIterable<Record> {
      * new table will be created if none exists in the pageDirectory.
      */
     public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext) {
+        this(name, schema, pageDirectory, lockContext, TableLayout.FIXED);
+    }
+
+    /**
+     * Load a table as above, with data pages of the given layout. A table must always be
+     * loaded with the layout it was created with.
+     */
+    public Table(String name, Schema schema, PageDirectory pageDirectory, LockContext lockContext,
+                 TableLayout layout) {
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
         this.name = name;
         this.pageDirectory = pageDirectory;
         this.schema = schema;
         this.lockContext = lockContext;
+        this.layout = layout;
+
+        List<Type> types = schema.getFieldTypes();
+        this.columnSizes = new int[types.size()];
+        this.columnOffsets = new int[types.size()];
+        for (int i = 0, offset = 0; i < types.size(); offset += columnSizes[i], ++i) {
+            this.columnSizes[i] = types.get(i).getSizeInBytes();
+            this.columnOffsets[i] = offset;
+        }
+        this.recordBytesRead = new LongAdder();
+
+        int pageSize = pageDirectory.getEffectivePageSize();
+        if (layout == TableLayout.SLOTTED) {
+            this.bitmapSizeInBytes = 0;
+            this.numRecordsPerPage = computeNumSlotsPerPage(pageSize, schema);
+            // only the header of a slotted page is metadata; slots are accounted for with their records
+            this.pageDirectory.setEmptyPageMetadataSize(SlottedPage.HEADER_SIZE);
+        } else {
+            this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageSize, schema);
+            this.numRecordsPerPage = computeNumRecordsPerPage(pageSize, schema);
+            // mark everything that is not used for records as metadata
+            this.pageDirectory.setEmptyPageMetadataSize((short) (pageSize - numRecordsPerPage
+                                                   * schema.getSizeInBytes()));
+        }
 
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
-        this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
-        // mark everything that is not used for records as metadata
-        this.pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() - numRecordsPerPage
-                                               * schema.getSizeInBytes()));
-
-        this.stats = new TableStats(this.schema, this.numRecordsPerPage);
+        // estimates with slotted pages assume records of the maximum size, as for fixed pages
+        this.stats = new TableStats(this.schema, computeNumRecordsPerPage(pageSize, schema));
     }
 
     // Accessors ///////////////////////////////////////////////////////////////
@@ -144,7 +215,14 @@ public class Table implements BacktrackingIterable<Record> {
         return numRecordsPerPage;
     }
 
+    public TableLayout getLayout() {
+        return layout;
+    }
+
     public void setFullPageRecords() {
+        if (layout == TableLayout.SLOTTED) {
+            throw new IllegalStateException("full page records cannot be used with the SLOTTED layout");
+        }
         numRecordsPerPage = 1;
         bitmapSizeInBytes = 0;
         pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() -
@@ -163,6 +241,16 @@ public class Table implements BacktrackingIterable<Record> {
         return pageDirectory.getPartNum();
     }
 
+    /**
+     * @return the number of bytes of records read from data pages since the table was
+     * loaded. Reads of some columns of a FIXED record count the bytes from the first to
+     * the last column read, and reads of some columns of a PAX record count the bytes of
+     * those columns.
+     */
+    public long getRecordBytesRead() {
+        return recordBytesRead.sum();
+    }
+
     private byte[] getBitMap(Page page) {
         if (bitmapSizeInBytes > 0) {
             byte[] bytes = new byte[bitmapSizeInBytes];
@@ -217,6 +305,36 @@ public class Table implements BacktrackingIterable<Record> {
         return pageSizeInBits / recordOverheadInBits;
     }
 
+    /**
+     * Computes the maximum number of records of the given `schema` that can fit on a
+     * slotted page (see SlottedPage) with `pageSize` bytes of space: the number that
+     * fit if every record is as short as possible.
+     * @param pageSize size of page in bytes
+     * @param schema schema for the records to be stored on this page
+     * @return the maximum number of records that can be stored per page
+     */
+    public static int computeNumSlotsPerPage(int pageSize, Schema schema) {
+        int minSize = 0;
+        int maxSize = 0;
+        for (Type type : schema.getFieldTypes()) {
+            if (type.getTypeId() == TypeId.STRING) {
+                minSize += Short.BYTES;
+                maxSize += Short.BYTES + type.getSizeInBytes();
+            } else {
+                minSize += type.getSizeInBytes();
+                maxSize += type.getSizeInBytes();
+            }
+        }
+        int space = pageSize - SlottedPage.HEADER_SIZE;
+        if (Math.max(maxSize, SlottedPage.FORWARD_SIZE) + SlottedPage.SLOT_SIZE > space) {
+            throw new DatabaseException(String.format(
+                    "Schema of size %d bytes is larger than effective page size",
+                    maxSize
+            ));
+        }
+        return space / (Math.max(minSize, SlottedPage.FORWARD_SIZE) + SlottedPage.SLOT_SIZE);
+    }
+
     // Modifiers ///////////////////////////////////////////////////////////////
     /**
      * buildStatistics builds histograms on each of the columns of a table. Running
@@ -226,9 +344,35 @@ public class Table implements BacktrackingIterable<Record> {
         this.stats.refreshHistograms(buckets, this);
     }
 
-    private synchronized void insertRecord(Page page, int entryNum, Record record) {
-        int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-        page.getBuffer().position(offset).put(record.toBytes(schema));
+    // offset in a data page of a column of a record, with the FIXED or PAX layout
+    private int getColumnOffset(int entryNum, int column) {
+        if (layout == TableLayout.PAX) {
+            return bitmapSizeInBytes + numRecordsPerPage * columnOffsets[column] + entryNum * columnSizes[column];
+        }
+        return bitmapSizeInBytes + entryNum * schema.getSizeInBytes() + columnOffsets[column];
+    }
+
+    // copies a serialized record into the contents of a data page (from its start)
+    private void placeRecord(byte[] contents, int entryNum, byte[] bytes) {
+        if (layout != TableLayout.PAX) {
+            System.arraycopy(bytes, 0, contents, getColumnOffset(entryNum, 0), bytes.length);
+            return;
+        }
+        for (int i = 0; i < columnSizes.length; ++i) {
+            System.arraycopy(bytes, columnOffsets[i], contents, getColumnOffset(entryNum, i), columnSizes[i]);
+        }
+    }
+
+    private void insertRecord(Page page, int entryNum, Record record) {
+        byte[] bytes = record.toBytes(schema);
+        if (layout != TableLayout.PAX) {
+            page.getBuffer().position(getColumnOffset(entryNum, 0)).put(bytes);
+            return;
+        }
+        for (int i = 0; i < columnSizes.length; ++i) {
+            page.getBuffer().position(getColumnOffset(entryNum, i))
+            .put(Arrays.copyOfRange(bytes, columnOffsets[i], columnOffsets[i] + columnSizes[i]));
+        }
     }
 
     /**
@@ -239,8 +383,13 @@ public class Table implements BacktrackingIterable<Record> {
      * first free page has bitmap 0b11101000, then the record is inserted into
      * the page with index 3 and the bitmap is updated to 0b11111000.
      */
-    public synchronized RecordId addRecord(Record record) {
+    public RecordId addRecord(Record record) {
         record = schema.verify(record);
+        if (layout == TableLayout.SLOTTED) {
+            RecordId rid = insertSlotted(toSlottedBytes(record), 0);
+            stats.addRecord(record);
+            return rid;
+        }
         Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes());
         try {
             // Find the first empty slot in the bitmap.
@@ -271,24 +420,77 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * addRecords adds records to this table in bulk, and returns the record ids
+     * of the newly added records, in order. Records are packed into pages a page
+     * at a time: the bitmap and records of each page are built in memory and
+     * written with a single write, so that loading a page takes one free space
+     * lookup and produces one page update for recovery, rather than one per
+     * record. Each page's worth of records goes to a single page with room for
+     * all of them, so full pages of records go to new pages, and only a last,
+     * partial page of records can fill space freed by deletes.
+     */
+    public List<RecordId> addRecords(Iterator<Record> records) {
+        if (layout == TableLayout.SLOTTED) {
+            return addSlottedRecords(records);
+        }
+        List<RecordId> rids = new ArrayList<>();
+        List<Record> batch = new ArrayList<>();
+        while (records.hasNext()) {
+            batch.clear();
+            while (batch.size() < numRecordsPerPage && records.hasNext()) {
+                batch.add(schema.verify(records.next()));
+            }
+            addRecordsToPage(batch, rids);
+        }
+        return rids;
+    }
+
+    // adds up to a page worth of records to a page with room for all of them
+    private void addRecordsToPage(List<Record> batch, List<RecordId> rids) {
+        int recordSize = schema.getSizeInBytes();
+        Page page = pageDirectory.getPageWithSpace((short) (batch.size() * recordSize));
+        try {
+            // the bitmap and records of the page, updated in memory and written back at once
+            byte[] contents = new byte[bitmapSizeInBytes + numRecordsPerPage * recordSize];
+            page.getBuffer().get(contents, 0, contents.length);
+            int entryNum = 0;
+            for (Record record : batch) {
+                if (numRecordsPerPage > 1) {
+                    while (Bits.getBit(contents, entryNum) == Bits.Bit.ONE) {
+                        ++entryNum;
+                    }
+                    Bits.setBit(contents, entryNum, Bits.Bit.ONE);
+                }
+                assert (entryNum < numRecordsPerPage);
+                placeRecord(contents, entryNum, record.toBytes(schema));
+                rids.add(new RecordId(page.getPageNum(), (short) entryNum));
+            }
+            // logged as one update, rather than one per run of changed bytes
+            page.getBulkWriteBuffer().put(contents, 0, contents.length);
+            stats.addRecords(batch.size());
+        } finally {
+            page.unpin();
+        }
+    }
+
     /**
      * Retrieves a record from the table, throwing an exception if no such record
      * exists.
      */
-    public synchronized Record getRecord(RecordId rid) {
+    public Record getRecord(RecordId rid) {
+        return getRecord(rid, null);
+    }
+
+    // retrieves some columns of a record (all of them if columns is null); see iterator(BitSet)
+    private Record getRecord(RecordId rid, BitSet columns) {
         validateRecordId(rid);
+        if (layout == TableLayout.SLOTTED) {
+            return getSlottedRecord(rid);
+        }
         Page page = fetchPage(rid.getPageNum());
         try {
-            byte[] bitmap = getBitMap(page);
-            if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
-                String msg = String.format("Record %s does not exist.", rid);
-                throw new DatabaseException(msg);
-            }
-
-            int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-            Buffer buf = page.getBuffer();
-            buf.position(offset);
-            return Record.fromBytes(buf, schema);
+            return readRecord(page, rid, columns);
         } finally {
             page.unpin();
         }
@@ -299,7 +501,7 @@ public class Table implements BacktrackingIterable<Record> {
      * record. stats is updated accordingly. An exception is thrown if rid does
      * not correspond to an existing record in the table.
      */
-    public synchronized Record updateRecord(RecordId rid, Record updated) {
+    public Record updateRecord(RecordId rid, Record updated) {
         validateRecordId(rid);
         // If we're updating a record we'll need exclusive access to the page
         // its on.
@@ -308,10 +510,16 @@ public class Table implements BacktrackingIterable<Record> {
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
         Record newRecord = schema.verify(updated);
-        Record oldRecord = getRecord(rid);
+        if (layout == TableLayout.SLOTTED) {
+            Record oldRecord = updateSlottedRecord(rid, newRecord);
+            this.stats.removeRecord(oldRecord);
+            this.stats.addRecord(newRecord);
+            return oldRecord;
+        }
 
         Page page = fetchPage(rid.getPageNum());
         try {
+            Record oldRecord = readRecord(page, rid);
             insertRecord(page, rid.getEntryNum(), newRecord);
 
             this.stats.removeRecord(oldRecord);
@@ -327,25 +535,31 @@ public class Table implements BacktrackingIterable<Record> {
      * stats, freePageNums, and numRecords as necessary. An exception is thrown
      * if rid does not correspond to an existing record in the table.
      */
-    public synchronized Record deleteRecord(RecordId rid) {
+    public Record deleteRecord(RecordId rid) {
         validateRecordId(rid);
         LockContext pageContext = lockContext.childContext(rid.getPageNum());
 
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
 
+        if (layout == TableLayout.SLOTTED) {
+            Record record = deleteSlottedRecord(rid);
+            stats.removeRecord(record);
+            return record;
+        }
+
         Page page = fetchPage(rid.getPageNum());
         try {
-            Record record = getRecord(rid);
+            Record record = readRecord(page, rid);
 
             byte[] bitmap = getBitMap(page);
             Bits.setBit(bitmap, rid.getEntryNum(), Bits.Bit.ZERO);
             writeBitMap(page, bitmap);
 
             stats.removeRecord(record);
-            int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
-            pageDirectory.updateFreeSpace(page,
-                                     (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+            // relative to the page's current free space, which may already count space taken by
+            // concurrent inserts that have not written their records yet
+            pageDirectory.releaseSpace(page, schema.getSizeInBytes());
             return record;
         } finally {
             page.unpin();
@@ -370,15 +584,247 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
-    private int numRecordsOnPage(Page page) {
+    // reads a record from a pinned page, throwing an exception if no such record exists
+    private Record readRecord(Page page, RecordId rid) {
+        return readRecord(page, rid, null);
+    }
+
+    // reads some columns of a record (all of them if columns is null) from a pinned page,
+    // leaving the values of other columns null
+    private Record readRecord(Page page, RecordId rid, BitSet columns) {
         byte[] bitmap = getBitMap(page);
-        int numRecords = 0;
-        for (int i = 0; i < numRecordsPerPage; ++i) {
-            if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-                numRecords++;
+        if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
+            String msg = String.format("Record %s does not exist.", rid);
+            throw new DatabaseException(msg);
+        }
+
+        Buffer buf = page.getPinnedBuffer();
+        if (columns == null && layout == TableLayout.FIXED) {
+            buf.position(getColumnOffset(rid.getEntryNum(), 0));
+            recordBytesRead.add(schema.getSizeInBytes());
+            return Record.fromBytes(buf, schema);
+        }
+        List<Type> types = schema.getFieldTypes();
+        List<DataBox> values = new ArrayList<>(types.size());
+        int bytesRead = 0;
+        int first = -1;
+        int end = -1;
+        for (int i = 0; i < types.size(); ++i) {
+            if (columns != null && !columns.get(i)) {
+                values.add(null);
+                continue;
             }
+            int offset = getColumnOffset(rid.getEntryNum(), i);
+            values.add(DataBox.fromBytes(buf.position(offset), types.get(i)));
+            bytesRead += columnSizes[i];
+            first = first == -1 ? offset : first;
+            end = offset + columnSizes[i];
         }
-        return numRecords;
+        recordBytesRead.add(layout == TableLayout.PAX ? bytesRead : end - first);
+        return new Record(values);
+    }
+
+    // Slotted pages //////////////////////////////////////////////////////////
+
+    private SlottedPage slottedPage(Page page) {
+        return new SlottedPage(page, pageDirectory.getEffectivePageSize());
+    }
+
+    // encodes a record for a slotted page, padded so that it can be replaced by a forwarding address
+    private byte[] toSlottedBytes(Record record) {
+        byte[] bytes = record.toVariableBytes(schema);
+        return bytes.length >= SlottedPage.FORWARD_SIZE ? bytes : Arrays.copyOf(bytes, SlottedPage.FORWARD_SIZE);
+    }
+
+    // checks that the slot of a record id is one a record was added to, and returns its flags
+    private int getSlottedFlags(SlottedPage page, RecordId rid) {
+        if (!page.isUsed(rid.getEntryNum()) || (page.getFlags(rid.getEntryNum()) & SlottedPage.MOVED) != 0) {
+            String msg = String.format("Record %s does not exist.", rid);
+            throw new DatabaseException(msg);
+        }
+        return page.getFlags(rid.getEntryNum());
+    }
+
+    // adds an encoded record to a page with space for it
+    private RecordId insertSlotted(byte[] bytes, int flags) {
+        Page page = pageDirectory.getPageWithSpace((short) (bytes.length + SlottedPage.SLOT_SIZE));
+        try {
+            SlottedPage slotted = slottedPage(page);
+            int numSlots = slotted.getNumSlots();
+            int slot = slotted.insert(bytes, flags);
+            if (slot < numSlots) {
+                // an empty slot was reused, so the space taken for a new slot is not needed
+                pageDirectory.releaseSpace(page, SlottedPage.SLOT_SIZE);
+            }
+            return new RecordId(page.getPageNum(), (short) slot);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // adds records a page at a time, packing as many as fit into each page
+    private List<RecordId> addSlottedRecords(Iterator<Record> records) {
+        int pageSpace = pageDirectory.getEffectivePageSize() - SlottedPage.HEADER_SIZE;
+        List<RecordId> rids = new ArrayList<>();
+        List<byte[]> batch = new ArrayList<>();
+        byte[] next = null;
+        while (next != null || records.hasNext()) {
+            batch.clear();
+            int space = 0;
+            while (true) {
+                if (next == null && records.hasNext()) {
+                    next = toSlottedBytes(schema.verify(records.next()));
+                }
+                if (next == null || space + next.length + SlottedPage.SLOT_SIZE > pageSpace) {
+                    break;
+                }
+                batch.add(next);
+                space += next.length + SlottedPage.SLOT_SIZE;
+                next = null;
+            }
+
+            Page page = pageDirectory.getPageWithSpace((short) space);
+            try {
+                SlottedPage slotted = slottedPage(page);
+                int numSlots = slotted.getNumSlots();
+                int reusedSlots = 0;
+                for (int slot : slotted.insertAll(batch, 0)) {
+                    rids.add(new RecordId(page.getPageNum(), (short) slot));
+                    if (slot < numSlots) {
+                        ++reusedSlots;
+                    }
+                }
+                if (reusedSlots > 0) {
+                    pageDirectory.releaseSpace(page, (short) (reusedSlots * SlottedPage.SLOT_SIZE));
+                }
+                stats.addRecords(batch.size());
+            } finally {
+                page.unpin();
+            }
+        }
+        return rids;
+    }
+
+    private Record getSlottedRecord(RecordId rid) {
+        RecordId moved;
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            SlottedPage slotted = slottedPage(page);
+            if ((getSlottedFlags(slotted, rid) & SlottedPage.FORWARDED) == 0) {
+                recordBytesRead.add(slotted.getLength(rid.getEntryNum()));
+                return Record.fromVariableBytes(slotted.getRecordBuffer(rid.getEntryNum()), schema);
+            }
+            moved = slotted.getForwardingAddress(rid.getEntryNum());
+        } finally {
+            page.unpin();
+        }
+        // only one page is pinned at a time, so that threads following forwarding addresses
+        // in opposite directions do not deadlock
+        page = fetchPage(moved.getPageNum());
+        try {
+            SlottedPage slotted = slottedPage(page);
+            recordBytesRead.add(slotted.getLength(moved.getEntryNum()));
+            return Record.fromVariableBytes(slotted.getRecordBuffer(moved.getEntryNum()), schema);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    // replaces the record in a slot if its page has space for the new record, taking or
+    // releasing the difference in space
+    private boolean replaceSlotted(Page page, SlottedPage slotted, int slot, byte[] bytes, int flags) {
+        int growth = bytes.length - slotted.getLength(slot);
+        if (growth > 0 && !pageDirectory.takeSpace(page, (short) growth)) {
+            return false;
+        }
+        slotted.replace(slot, bytes, flags);
+        if (growth < 0) {
+            pageDirectory.releaseSpace(page, (short) -growth);
+        }
+        return true;
+    }
+
+    /**
+     * Updates a record of a table with the SLOTTED layout. The record is updated in place
+     * if its page has space for the new record; otherwise it is moved to another page,
+     * and its slot holds a forwarding address to it, so that its record id stays the same.
+     * A record that was moved already is updated where it is, or moved again.
+     */
+    private Record updateSlottedRecord(RecordId rid, Record newRecord) {
+        byte[] bytes = toSlottedBytes(newRecord);
+        Record oldRecord = null;
+        RecordId moved = null;
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            SlottedPage slotted = slottedPage(page);
+            if ((getSlottedFlags(slotted, rid) & SlottedPage.FORWARDED) != 0) {
+                moved = slotted.getForwardingAddress(rid.getEntryNum());
+            } else {
+                oldRecord = Record.fromVariableBytes(slotted.getRecordBuffer(rid.getEntryNum()), schema);
+                if (replaceSlotted(page, slotted, rid.getEntryNum(), bytes, 0)) {
+                    return oldRecord;
+                }
+            }
+        } finally {
+            page.unpin();
+        }
+
+        if (moved != null) {
+            LockUtil.ensureSufficientLockHeld(lockContext.childContext(moved.getPageNum()), LockType.X);
+            page = fetchPage(moved.getPageNum());
+            try {
+                SlottedPage slotted = slottedPage(page);
+                oldRecord = Record.fromVariableBytes(slotted.getRecordBuffer(moved.getEntryNum()), schema);
+                if (replaceSlotted(page, slotted, moved.getEntryNum(), bytes, SlottedPage.MOVED)) {
+                    return oldRecord;
+                }
+                pageDirectory.releaseSpace(page, (short) slotted.delete(moved.getEntryNum()));
+            } finally {
+                page.unpin();
+            }
+        }
+
+        // move the record to a page with space for it, and point its slot at it; a forwarding
+        // address is no larger than any record, so it always fits in place
+        moved = insertSlotted(bytes, SlottedPage.MOVED);
+        page = fetchPage(rid.getPageNum());
+        try {
+            replaceSlotted(page, slottedPage(page), rid.getEntryNum(), moved.toBytes(), SlottedPage.FORWARDED);
+        } finally {
+            page.unpin();
+        }
+        return oldRecord;
+    }
+
+    private Record deleteSlottedRecord(RecordId rid) {
+        Record record = null;
+        RecordId moved = null;
+        Page page = fetchPage(rid.getPageNum());
+        try {
+            SlottedPage slotted = slottedPage(page);
+            if ((getSlottedFlags(slotted, rid) & SlottedPage.FORWARDED) != 0) {
+                moved = slotted.getForwardingAddress(rid.getEntryNum());
+            } else {
+                record = Record.fromVariableBytes(slotted.getRecordBuffer(rid.getEntryNum()), schema);
+            }
+            // relative to the page's current free space, as for fixed pages
+            pageDirectory.releaseSpace(page, (short) slotted.delete(rid.getEntryNum()));
+        } finally {
+            page.unpin();
+        }
+
+        if (moved != null) {
+            LockUtil.ensureSufficientLockHeld(lockContext.childContext(moved.getPageNum()), LockType.X);
+            page = fetchPage(moved.getPageNum());
+            try {
+                SlottedPage slotted = slottedPage(page);
+                record = Record.fromVariableBytes(slotted.getRecordBuffer(moved.getEntryNum()), schema);
+                pageDirectory.releaseSpace(page, (short) slotted.delete(moved.getEntryNum()));
+            } finally {
+                page.unpin();
+            }
+        }
+        return record;
     }
 
     private void validateRecordId(RecordId rid) {
@@ -426,6 +872,17 @@ public class Table implements BacktrackingIterable<Record> {
         return new RecordIterator(ridIterator());
     }
 
+    /**
+     * Returns an iterator over all the records in this table that only reads the values
+     * of the given columns (by index in the schema), for scans whose consumers only use
+     * some columns. The values of other columns may be null in the records returned. With
+     * the PAX layout, only the minipages of the given columns are read; with the SLOTTED
+     * layout, whole records are read.
+     */
+    public BacktrackingIterator<Record> iterator(BitSet columns) {
+        return new RecordIterator(ridIterator(), columns);
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -436,16 +893,29 @@ public class Table implements BacktrackingIterable<Record> {
     class RIDPageIterator extends IndexBacktrackingIterator<RecordId> {
         private Page page;
         private byte[] bitmap;
+        // slots of records, with the SLOTTED layout
+        private BitSet slots;
 
         RIDPageIterator(Page page) {
             super(numRecordsPerPage);
             this.page = page;
-            this.bitmap = getBitMap(page);
-            page.unpin();
+            try {
+                if (layout == TableLayout.SLOTTED) {
+                    this.slots = slottedPage(page).getScannedSlots();
+                } else {
+                    this.bitmap = getBitMap(page);
+                }
+            } finally {
+                page.unpin();
+            }
         }
 
         @Override
         protected int getNextNonEmpty(int currentIndex) {
+            if (slots != null) {
+                int next = slots.nextSetBit(currentIndex + 1);
+                return next == -1 ? numRecordsPerPage : next;
+            }
             for (int i = currentIndex + 1; i < numRecordsPerPage; ++i) {
                 if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
                     return i;
@@ -517,9 +987,16 @@ public class Table implements BacktrackingIterable<Record> {
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
+        // columns read, or null for all columns
+        private BitSet columns;
 
         public RecordIterator(Iterator<RecordId> ridIter) {
+            this(ridIter, null);
+        }
+
+        public RecordIterator(Iterator<RecordId> ridIter, BitSet columns) {
             this.ridIter = ridIter;
+            this.columns = columns;
         }
 
         @Override
@@ -530,7 +1007,7 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                return getRecord(ridIter.next(), columns);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
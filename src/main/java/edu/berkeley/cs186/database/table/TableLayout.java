@@ -0,0 +1,29 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * Layout of the data pages of a table, chosen when the table is created (see
+ * Transaction#createTable).
+ */
+public enum TableLayout {
+    /**
+     * Records are stored at the maximum size of their schema (strings are padded
+     * to the length of their type), in fixed slots tracked by a bitmap at the start
+     * of each page. See Table for details.
+     */
+    FIXED,
+
+    /**
+     * Records are stored at their actual size (strings are stored with their length
+     * instead of padded), in slotted pages. Suits tables with wide string columns
+     * holding short values. See SlottedPage for details.
+     */
+    SLOTTED,
+
+    /**
+     * Records are stored at the maximum size of their schema, as with FIXED, but
+     * each page stores its records column by column, so that scans of a few columns
+     * only read those columns. Suits wide tables read by analytic queries. See Table
+     * for details.
+     */
+    PAX
+}
@@ -72,11 +72,15 @@ public class TableStats {
     }
 
     // Modifiers /////////////////////////////////////////////////////////////////
-    public void addRecord(Record record) {
+    public synchronized void addRecord(Record record) {
         numRecords++;
     }
 
-    public void removeRecord(Record record) {
+    public synchronized void addRecords(int numRecords) {
+        this.numRecords += numRecords;
+    }
+
+    public synchronized void removeRecord(Record record) {
         numRecords = Math.max(numRecords - 1, 0);
     }
 
@@ -2,7 +2,14 @@ package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.StorageMetrics;
+import edu.berkeley.cs186.database.io.StorageMetricsMXBean;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.query.QueryOperator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.Record;
@@ -17,9 +24,17 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -72,6 +87,32 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        ObjectName name = new ObjectName("edu.berkeley.cs186.database:type=StorageMetrics,name="
+                + ObjectName.quote(new File(filename).getAbsolutePath()));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(name));
+
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            t.insert("testTable1", TestUtils.createRecordWithAllTypes());
+            String tempTable = t.getTransactionContext().createTempTable(TestUtils.createSchemaWithAllTypes());
+            t.getTransactionContext().addRecord(tempTable, TestUtils.createRecordWithAllTypes());
+        }
+        StorageMetrics metrics = db.getMetrics();
+        assertTrue(metrics.getCount(StorageMetrics.PartitionClass.TABLE, StorageMetrics.Counter.PAGE_ALLOCS) > 0);
+        assertTrue(metrics.getCount(StorageMetrics.PartitionClass.TEMP, StorageMetrics.Counter.PAGE_ALLOCS) > 0);
+        assertTrue(metrics.getCount(StorageMetrics.PartitionClass.TABLE, StorageMetrics.Counter.MISSES) > 0);
+
+        StorageMetricsMXBean bean = JMX.newMXBeanProxy(server, name, StorageMetricsMXBean.class);
+        assertTrue(bean.getCounters().get("table.page_allocs") > 0);
+
+        this.db.close();
+        assertFalse(server.isRegistered(name));
+        this.db = new Database(filename, 32);
+    }
+
     @Test
     public void testTransactionTempTable() {
         Schema s = TestUtils.createSchemaWithAllTypes();
@@ -145,6 +186,418 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testWarmRestart() throws InterruptedException {
+        String tableName = "testTable1";
+        RecordId rid;
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), tableName);
+            rid = t1.getTransactionContext().addRecord(tableName, TestUtils.createRecordWithAllTypes());
+        }
+
+        db.close();
+        assertTrue(new File(filename, ".resident_pages").exists());
+        db = new Database(this.filename, 32);
+        db.waitSetupFinished();
+        BufferManager bufferManager = db.getBufferManager();
+        for (int i = 0; i < 1000 && bufferManager.getNumWarmUpLoads() == 0; ++i) {
+            Thread.sleep(5);
+        }
+        assertTrue(bufferManager.getNumWarmUpLoads() > 0);
+        assertFalse(new File(filename, ".resident_pages").exists());
+
+        try(Transaction t1 = db.beginTransaction()) {
+            assertEquals(TestUtils.createRecordWithAllTypes(), t1.getTransactionContext().getRecord(tableName, rid));
+        }
+    }
+
+    @Test
+    public void testOffHeapDatabaseDurability() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        String tableName = "testTable1";
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, true);
+        db.waitSetupFinished();
+
+        RecordId rid;
+        Record rec;
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            rid = t1.getTransactionContext().addRecord(tableName, input);
+            rec = t1.getTransactionContext().getRecord(tableName, rid);
+
+            assertEquals(input, rec);
+        }
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, true);
+        db.waitSetupFinished();
+
+        try(Transaction t1 = db.beginTransaction()) {
+            rec = t1.getTransactionContext().getRecord(tableName, rid);
+            assertEquals(input, rec);
+        }
+    }
+
+    @Test
+    public void testDeferredDataSyncDurability() throws IOException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        String tableName = "testTable1";
+
+        // recovery can only be enabled on a new database
+        db.close();
+        String dir = tempFolder.newFolder("testDeferredDataSync").getAbsolutePath();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, false);
+        db.waitSetupFinished();
+
+        // enough records to evict dirty pages from the buffer
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            for (int i = 0; i < 2000; ++i) {
+                rids.add(t1.getTransactionContext().addRecord(tableName, input));
+            }
+        }
+
+        db.close();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, false);
+        db.waitSetupFinished();
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (RecordId rid : rids) {
+                assertEquals(input, t1.getTransactionContext().getRecord(tableName, rid));
+            }
+        }
+    }
+
+    @Test
+    public void testLargePages() throws IOException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        db.close();
+        String dir = tempFolder.newFolder("testLargePages").getAbsolutePath();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, true,
+                          4 * DiskSpaceManager.PAGE_SIZE);
+        db.waitSetupFinished();
+        assertEquals(4 * DiskSpaceManager.PAGE_SIZE, db.getBufferManager().getPageSize());
+
+        // enough records to fill more log pages and table pages than fit in the buffer
+        List<RecordId> rids = new ArrayList<>();
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            for (int i = 0; i < 5000; ++i) {
+                rids.add(t1.getTransactionContext().addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i)));
+            }
+            t1.createIndex(tableName, "int", false);
+        }
+
+        // the page size is kept when the database is reopened with the default
+        db.close();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        db.waitSetupFinished();
+        assertEquals(4 * DiskSpaceManager.PAGE_SIZE, db.getBufferManager().getPageSize());
+
+        try(Transaction t1 = db.beginTransaction()) {
+            for (int i = 0; i < rids.size(); i += 97) {
+                assertEquals(TestUtils.createRecordWithAllTypesWithValue(i),
+                             t1.getTransactionContext().getRecord(tableName, rids.get(i)));
+                Iterator<Record> records = t1.getTransactionContext().lookupKey(tableName, "int", new IntDataBox(i));
+                assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), records.next());
+                assertFalse(records.hasNext());
+            }
+        }
+    }
+
+    /**
+     * Compares full scans and B+ tree heights of the same table with each supported page size.
+     * Larger pages hold more records and keys (wide keys here, so that trees are several levels
+     * tall), so scans read fewer pages, and trees are no taller.
+     */
+    @Test
+    public void testPageSizeBenchmark() throws IOException {
+        final int numRecords = 10000;
+        Schema s = new Schema().add("int", Type.intType()).add("string", Type.stringType(60));
+        String tableName = "testTable1";
+        db.close();
+
+        long lastReads = Long.MAX_VALUE;
+        int lastHeight = Integer.MAX_VALUE;
+        StringBuilder results = new StringBuilder();
+        for (int pageSize = DiskSpaceManager.PAGE_SIZE; pageSize <= DiskSpaceManager.MAX_PAGE_SIZE; pageSize *= 2) {
+            String dir = tempFolder.newFolder("testPageSizeBenchmark" + pageSize).getAbsolutePath();
+            db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, false, false,
+                              pageSize);
+            db.waitSetupFinished();
+            try(Transaction t1 = db.beginTransaction()) {
+                t1.createTable(s, tableName);
+                for (int i = 0; i < numRecords; ++i) {
+                    t1.getTransactionContext().addRecord(tableName, new Record(i, String.format("%08d", i)));
+                }
+                t1.createIndex(tableName, "string", false);
+            }
+
+            db.getBufferManager().evictAll();
+            StorageMetrics metrics = db.getBufferManager().getMetrics();
+            long reads = metrics.getCount(StorageMetrics.Counter.PAGE_READS);
+            long start = System.nanoTime();
+            int height;
+            try(Transaction t1 = db.beginTransaction()) {
+                Iterator<Record> records = t1.getTransactionContext().getRecordIterator(tableName);
+                int count = 0;
+                while (records.hasNext()) {
+                    records.next();
+                    ++count;
+                }
+                assertEquals(numRecords, count);
+                height = t1.getTransactionContext().getTreeHeight(tableName, "string");
+            }
+            long scanNanos = System.nanoTime() - start;
+            reads = metrics.getCount(StorageMetrics.Counter.PAGE_READS) - reads;
+            results.append(String.format("page size %d: scan read %d pages in %d us, tree height %d%n",
+                                         pageSize, reads, scanNanos / 1000, height));
+            db.close();
+
+            assertTrue(results.toString(), reads < lastReads);
+            assertTrue(results.toString(), height <= lastHeight);
+            lastReads = reads;
+            lastHeight = height;
+        }
+        db = new Database(this.filename, 32);
+        db.waitSetupFinished();
+    }
+
+    /**
+     * Blocks of records held in the work memory (e.g. the outer blocks of BNLJ) are sized
+     * by the database's page size, not the default one.
+     */
+    @Test
+    public void testBlockIteratorUsesPageSize() throws IOException {
+        Schema s = new Schema().add("int", Type.intType()).add("string", Type.stringType(60));
+        String tableName = "testTable1";
+        db.close();
+        String dir = tempFolder.newFolder("testBlockIteratorUsesPageSize").getAbsolutePath();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, false, false,
+                          DiskSpaceManager.MAX_PAGE_SIZE);
+        db.waitSetupFinished();
+        try(Transaction t1 = db.beginTransaction()) {
+            TransactionContext transaction = t1.getTransactionContext();
+            t1.createTable(s, tableName);
+            int recordsPerPage = transaction.getTable(tableName).getNumRecordsPerPage();
+            assertTrue(recordsPerPage > Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, s));
+            for (int i = 0; i < 3 * recordsPerPage; ++i) {
+                transaction.addRecord(tableName, new Record(i, String.format("%08d", i)));
+            }
+
+            Iterator<Record> records = transaction.getRecordIterator(tableName);
+            Iterator<Record> block = QueryOperator.getBlockIterator(records, s, 2,
+                                     transaction.getEffectivePageSize());
+            assertEquals(2 * recordsPerPage, countRecords(block));
+            assertEquals(recordsPerPage, countRecords(records));
+        }
+    }
+
+    @Test
+    public void testInsertAll() throws IOException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        db.close();
+        String dir = tempFolder.newFolder("testInsertAll").getAbsolutePath();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, false);
+        db.waitSetupFinished();
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            records.add(new Record(i % 2 == 0, i, "a", (float) i));
+        }
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName);
+            t1.createIndex(tableName, "int", false);
+            t1.insertAll(tableName, records.iterator());
+        }
+
+        // recovered from the log, since pages were not all flushed
+        db.close();
+        db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, false);
+        db.waitSetupFinished();
+
+        try(Transaction t1 = db.beginTransaction()) {
+            assertEquals(records.size(), countRecords(t1.getTransactionContext().getRecordIterator(tableName)));
+            for (int i = 0; i < records.size(); i += 97) {
+                Iterator<Record> found = t1.getTransactionContext().lookupKey(tableName, "int",
+                                         new IntDataBox(i));
+                assertTrue(found.hasNext());
+                assertEquals(records.get(i), found.next());
+                assertFalse(found.hasNext());
+            }
+        }
+    }
+
+    /**
+     * Tables keep their layouts across restarts, without changing the format of
+     * information_schema.tables: rows of FIXED tables are the same as rows written before
+     * tables had layouts, so directories created before then still open.
+     */
+    @Test
+    public void testReopenWithTableLayouts() {
+        Schema s = new Schema().add("id", Type.intType()).add("name", Type.stringType(20));
+        TableLayout[] layouts = TableLayout.values();
+        try (Transaction t1 = db.beginTransaction()) {
+            for (TableLayout layout : layouts) {
+                t1.createTable(s, "table" + layout, layout);
+                for (int i = 0; i < 100; ++i) {
+                    t1.insert("table" + layout, i, "name" + i);
+                }
+            }
+        }
+
+        // the catalog schema from before tables had layouts
+        Schema tableInfoSchema = new Schema()
+                .add("table_name", Type.stringType(32))
+                .add("part_num", Type.intType())
+                .add("page_num", Type.longType())
+                .add("is_temporary", Type.boolType())
+                .add("schema", Type.stringType(4005));
+        assertEquals(tableInfoSchema, db.getTable("information_schema.tables").getSchema());
+        boolean found = false;
+        for (Record record : db.getTable("information_schema.tables")) {
+            if (record.getValue(0).getString().equals("tables.tableFIXED")) {
+                assertEquals(new String(s.toBytes()), record.getValue(4).getString());
+                found = true;
+            }
+        }
+        assertTrue(found);
+
+        db.close();
+        db = new Database(this.filename, 32);
+        db.waitSetupFinished();
+        try (Transaction t2 = db.beginTransaction()) {
+            for (TableLayout layout : layouts) {
+                assertEquals(layout, db.getTable("table" + layout).getLayout());
+                List<Record> records = new ArrayList<>();
+                t2.getTransactionContext().getRecordIterator("table" + layout).forEachRemaining(records::add);
+                assertEquals(100, records.size());
+                assertTrue(records.contains(new Record(99, "name99")));
+            }
+        }
+    }
+
+    /**
+     * Compares loading a table with insertAll and with one insert per record. Bulk inserts
+     * write each page once, so they log far less (and are faster, which is reported but not
+     * checked). TestTable#testAddRecordsLogsOneUpdatePerPage checks that each page is
+     * logged as a single update.
+     */
+    @Test
+    public void testInsertAllBenchmark() throws IOException {
+        final int numRecords = 10000;
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        db.close();
+
+        long[] logPages = new long[2];
+        long[] nanos = new long[2];
+        for (int bulk = 0; bulk < 2; ++bulk) {
+            String dir = tempFolder.newFolder("testInsertAllBenchmark" + bulk).getAbsolutePath();
+            db = new Database(dir, 32, new DummyLockManager(), new ClockEvictionPolicy(), true, false, false);
+            db.waitSetupFinished();
+            try(Transaction t1 = db.beginTransaction()) {
+                t1.createTable(s, "testTable1");
+            }
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < numRecords; ++i) {
+                records.add(new Record(false, i, "a", 1.2f));
+            }
+
+            StorageMetrics metrics = db.getBufferManager().getMetrics();
+            long allocs = metrics.getCount(StorageMetrics.PartitionClass.LOG, StorageMetrics.Counter.PAGE_ALLOCS);
+            long start = System.nanoTime();
+            try(Transaction t1 = db.beginTransaction()) {
+                if (bulk == 1) {
+                    t1.insertAll("testTable1", records.iterator());
+                } else {
+                    for (Record record : records) {
+                        t1.insert("testTable1", record);
+                    }
+                }
+            }
+            nanos[bulk] = System.nanoTime() - start;
+            logPages[bulk] = metrics.getCount(StorageMetrics.PartitionClass.LOG,
+                                              StorageMetrics.Counter.PAGE_ALLOCS) - allocs;
+            db.close();
+        }
+        String results = String.format("insert: %d us, %d log pages; insertAll: %d us, %d log pages",
+                                       nanos[0] / 1000, logPages[0], nanos[1] / 1000, logPages[1]);
+        db = new Database(this.filename, 32);
+        db.waitSetupFinished();
+
+        // timings are only reported: wall-clock comparisons of single runs are not reliable
+        assertTrue(results, logPages[1] * 2 < logPages[0]);
+    }
+
+    @Test
+    public void testPaxScanBenchmark() {
+        final int numRecords = 5000;
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(100))
+                .add("address", Type.stringType(100))
+                .add("value", Type.intType())
+                .add("notes", Type.stringType(100));
+        TableLayout[] layouts = {TableLayout.FIXED, TableLayout.PAX};
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            records.add(new Record(i, "name" + i, "address" + i, i % 100, "notes" + i));
+        }
+        try (Transaction t1 = db.beginTransaction()) {
+            for (TableLayout layout : layouts) {
+                t1.createTable(s, "table" + layout, layout);
+                t1.insertAll("table" + layout, records.iterator());
+            }
+        }
+
+        long[] bytesRead = new long[layouts.length];
+        long[] nanos = new long[layouts.length];
+        List<List<Record>> results = new ArrayList<>();
+        for (int i = 0; i < layouts.length; ++i) {
+            String tableName = "table" + layouts[i];
+            long bytes = db.getTable(tableName).getRecordBytesRead();
+            long start = System.nanoTime();
+            List<Record> result = new ArrayList<>();
+            try (Transaction t2 = db.beginTransaction()) {
+                QueryPlan query = t2.query(tableName);
+                query.select("value", PredicateOperator.LESS_THAN, 10);
+                query.project("id", "value");
+                query.execute().forEachRemaining(result::add);
+            }
+            nanos[i] = System.nanoTime() - start;
+            bytesRead[i] = db.getTable(tableName).getRecordBytesRead() - bytes;
+            results.add(result);
+        }
+        String message = String.format("FIXED: %d us, %d bytes read; PAX: %d us, %d bytes read",
+                                       nanos[0] / 1000, bytesRead[0], nanos[1] / 1000, bytesRead[1]);
+
+        assertEquals(message, numRecords / 10, results.get(0).size());
+        assertEquals(message, new HashSet<>(results.get(0)), new HashSet<>(results.get(1)));
+        // only the id and value columns are read from PAX pages, rather than the span between them
+        assertEquals(message, numRecords * 2 * Integer.BYTES, bytesRead[1]);
+        assertTrue(message, bytesRead[1] * 20 < bytesRead[0]);
+    }
+
+    private static int countRecords(Iterator<Record> records) {
+        int count = 0;
+        while (records.hasNext()) {
+            records.next();
+            ++count;
+        }
+        return count;
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.Record;
@@ -91,6 +92,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public BufferAccessStrategy getBulkAccessStrategy(int numPages, int ringSize) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId deleteRecord(String tableName, RecordId rid)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -10,6 +10,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     private Map<Integer, Integer> nextPageNum = new HashMap<>();
     private Map<Long, byte[]> pages = new HashMap<>();
     private int nextPartitionNum = 0;
+    private StorageMetrics metrics = new StorageMetrics();
 
     @Override
     public void close() {}
@@ -109,4 +110,9 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
+
+    @Override
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
 }
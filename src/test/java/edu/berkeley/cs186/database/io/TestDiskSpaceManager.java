@@ -9,9 +9,19 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -137,6 +147,67 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testAllocReusesLowestFreePage() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        for (int i = 0; i < 200; ++i) {
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, i), diskSpaceManager.allocPage(partNum));
+        }
+        // a page under the second header page
+        long farPage = DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER + 5);
+        diskSpaceManager.allocPage(farPage);
+        diskSpaceManager.freePage(DiskSpaceManager.getVirtualPageNum(partNum, 150));
+        diskSpaceManager.freePage(DiskSpaceManager.getVirtualPageNum(partNum, 3));
+        diskSpaceManager.freePage(DiskSpaceManager.getVirtualPageNum(partNum, 70));
+        assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, 70)));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 3), diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+
+        // the allocation state is persisted
+        diskSpaceManager = getDiskSpaceManager();
+        assertTrue(diskSpaceManager.pageAllocated(farPage));
+        assertTrue(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, 3)));
+        assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, 150)));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 70), diskSpaceManager.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 150), diskSpaceManager.allocPage(partNum));
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 200), diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageExtents() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        File partFile = managerRoot.resolve(Integer.toString(partNum)).toFile();
+
+        // master page, header page, and the first extent of data pages
+        diskSpaceManager.allocPage(partNum);
+        long extentLength = (long) DiskSpaceManagerImpl.EXTENT_PAGES * DiskSpaceManager.PAGE_SIZE;
+        assertEquals(2 * DiskSpaceManager.PAGE_SIZE + extentLength, partFile.length());
+        for (int i = 1; i < DiskSpaceManagerImpl.EXTENT_PAGES; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        assertEquals(2 * DiskSpaceManager.PAGE_SIZE + extentLength, partFile.length());
+        diskSpaceManager.allocPage(partNum);
+        assertEquals(2 * DiskSpaceManager.PAGE_SIZE + 2 * extentLength, partFile.length());
+
+        // reused pages are zeroed when they are allocated again
+        long pageNum = DiskSpaceManager.getVirtualPageNum(partNum, 5);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 1);
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.freePage(pageNum);
+        assertEquals(pageNum, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test(expected = NoSuchElementException.class)
     public void testReadBadPart() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +369,658 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testDeferredSync() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), false);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf1, (byte) 1);
+        Arrays.fill(buf2, (byte) 2);
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.sync();
+        // unsynced writes are forced when the partition is closed
+        diskSpaceManager.writePage(pageNum2, buf2);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAsyncReadWrite() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[16];
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            Arrays.fill(buf, (byte) i);
+            writes.add(diskSpaceManager.writePageAsync(pageNums[i], buf));
+        }
+        for (CompletableFuture<Void> write : writes) {
+            write.join();
+        }
+
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int i = 0; i < pageNums.length; ++i) {
+            reads.add(diskSpaceManager.readPageAsync(pageNums[i], bufs[i]));
+        }
+        for (int i = 0; i < pageNums.length; ++i) {
+            reads.get(i).join();
+            byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+            Arrays.fill(expected, (byte) i);
+            assertArrayEquals(expected, bufs[i]);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAsyncWriteOrdering() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        // writes of a page are applied in order, and reads wait for earlier writes
+        CompletableFuture<Void> write = null;
+        for (int i = 1; i <= 10; ++i) {
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            Arrays.fill(buf, (byte) i);
+            write = diskSpaceManager.writePageAsync(pageNum, buf);
+        }
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(expected, (byte) 10);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertTrue(write.isDone());
+        assertArrayEquals(expected, readbuf);
+
+        Arrays.fill(expected, (byte) 11);
+        diskSpaceManager.writePageAsync(pageNum, expected);
+        byte[] asyncbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPageAsync(pageNum, asyncbuf).join();
+        assertArrayEquals(expected, asyncbuf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAsyncReadBadPage() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePage(pageNum);
+
+        CompletableFuture<Void> read = diskSpaceManager.readPageAsync(pageNum,
+                new byte[DiskSpaceManager.PAGE_SIZE]);
+        try {
+            read.join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PageException);
+        }
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Recovery manager whose diskIOHook blocks writes of one partition until released.
+     */
+    private static class BlockingRecoveryManager extends DummyRecoveryManager {
+        private volatile int blockedPartNum = -1;
+        private final CountDownLatch blocked;
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        BlockingRecoveryManager(int numBlocked) {
+            this.blocked = new CountDownLatch(numBlocked);
+        }
+
+        @Override
+        public void diskIOHook(long pageNum) {
+            if (DiskSpaceManager.getPartNum(pageNum) != blockedPartNum) {
+                return;
+            }
+            blocked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test
+    public void testReadDuringWrite() throws Exception {
+        BlockingRecoveryManager recoveryManager = new BlockingRecoveryManager(1);
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), recoveryManager);
+        int partNum = diskSpaceManager.allocPart();
+        long writtenPage = diskSpaceManager.allocPage(partNum);
+        long readPage = diskSpaceManager.allocPage(partNum);
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(expected, (byte) 7);
+        diskSpaceManager.writePage(readPage, expected);
+
+        // the partition is not locked while a page of it is written, so other pages of the
+        // partition can be read meanwhile
+        recoveryManager.blockedPartNum = partNum;
+        CompletableFuture<Void> write = diskSpaceManager.writePageAsync(writtenPage,
+                new byte[DiskSpaceManager.PAGE_SIZE]);
+        assertTrue(recoveryManager.blocked.await(10, TimeUnit.SECONDS));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        CompletableFuture<Void> read = CompletableFuture.runAsync(() -> diskSpaceManager.readPage(readPage, readbuf));
+        try {
+            read.get(10, TimeUnit.SECONDS);
+            assertArrayEquals(expected, readbuf);
+        } finally {
+            recoveryManager.released.countDown();
+        }
+        write.join();
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAsyncIOPerPartition() throws Exception {
+        BlockingRecoveryManager recoveryManager =
+                new BlockingRecoveryManager(DiskSpaceManagerImpl.MAX_IO_THREADS_PER_PARTITION);
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), recoveryManager);
+        int busyPartNum = diskSpaceManager.allocPart();
+        int otherPartNum = diskSpaceManager.allocPart();
+        long[] busyPages = new long[2 * DiskSpaceManagerImpl.NUM_IO_THREADS];
+        for (int i = 0; i < busyPages.length; ++i) {
+            busyPages[i] = diskSpaceManager.allocPage(busyPartNum);
+        }
+        long otherPage = diskSpaceManager.allocPage(otherPartNum);
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(expected, (byte) 3);
+        diskSpaceManager.writePage(otherPage, expected);
+
+        // a burst of writes to one partition takes at most MAX_IO_THREADS_PER_PARTITION of the
+        // I/O threads, so that reads of other partitions are not queued behind it
+        recoveryManager.blockedPartNum = busyPartNum;
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (long page : busyPages) {
+            writes.add(diskSpaceManager.writePageAsync(page, ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE)));
+        }
+        recoveryManager.blocked.await(10, TimeUnit.SECONDS);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        CompletableFuture<Void> read = diskSpaceManager.readPageAsync(otherPage, readbuf);
+        try {
+            read.get(10, TimeUnit.SECONDS);
+            assertArrayEquals(expected, readbuf);
+            for (CompletableFuture<Void> write : writes) {
+                assertFalse(write.isDone());
+            }
+        } finally {
+            recoveryManager.released.countDown();
+        }
+        for (CompletableFuture<Void> write : writes) {
+            write.join();
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[6];
+        for (int i = 0; i < 4; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum1);
+        }
+        pageNums[4] = diskSpaceManager.allocPage(partNum2);
+        pageNums[5] = diskSpaceManager.allocPage(partNum2);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        // out of order, across partitions, with a gap between pages of the first partition
+        long[] toRead = new long[] { pageNums[5], pageNums[3], pageNums[0], pageNums[4], pageNums[1] };
+        int[] expected = new int[] { 5, 3, 0, 4, 1 };
+        ByteBuffer[] bufs = new ByteBuffer[toRead.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE);
+        }
+        long reads = diskSpaceManager.getMetrics().getCount(StorageMetrics.Counter.PAGE_READS);
+        diskSpaceManager.readPages(toRead, bufs);
+
+        for (int i = 0; i < bufs.length; ++i) {
+            assertFalse(bufs[i].hasRemaining());
+            Arrays.fill(buf, (byte) expected[i]);
+            assertArrayEquals(buf, bufs[i].array());
+        }
+        assertEquals(reads + toRead.length,
+                diskSpaceManager.getMetrics().getCount(StorageMetrics.Counter.PAGE_READS));
+
+        diskSpaceManager.freePage(pageNums[2]);
+        try {
+            diskSpaceManager.readPages(new long[] { pageNums[2] },
+                    new ByteBuffer[] { ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE) });
+            fail();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMemoryMapped() {
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf1, (byte) 1);
+        Arrays.fill(buf2, (byte) 2);
+        diskSpaceManager.writePage(pageNum1, buf1);
+
+        // pages written through the channel are visible through the map, and vice versa
+        assertFalse(impl.isMemoryMapped(partNum));
+        impl.setMemoryMapped(partNum, true);
+        assertTrue(impl.isMemoryMapped(partNum));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+
+        // a page in a segment that is not mapped yet
+        long pageNum2 = DiskSpaceManager.getVirtualPageNum(partNum, 2 * PartitionHandle.MAPPED_SEGMENT_SIZE
+                / DiskSpaceManager.PAGE_SIZE);
+        diskSpaceManager.allocPage(pageNum2);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+        diskSpaceManager.writePage(pageNum2, buf2);
+
+        impl.setMemoryMapped(partNum, false);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+
+        impl.setMemoryMapped(partNum, true);
+        diskSpaceManager.writePage(pageNum1, buf2);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testDirectIO() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true,
+                                                    DiskSpaceManager.PAGE_SIZE, true);
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        int logPart = diskSpaceManager.allocPart(0);
+        int partNum = diskSpaceManager.allocPart();
+        // the log is always written through the OS's cache
+        assertFalse(impl.isDirectIO(logPart));
+
+        long[] pageNums = new long[4];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(buf, (byte) (i + 1));
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        // a single page, into an unaligned heap buffer
+        ByteBuffer unaligned = ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE + 3);
+        unaligned.position(3);
+        diskSpaceManager.readPage(pageNums[2], unaligned.slice());
+        Arrays.fill(buf, (byte) 3);
+        assertArrayEquals(buf, Arrays.copyOfRange(unaligned.array(), 3, 3 + DiskSpaceManager.PAGE_SIZE));
+
+        // a run of contiguous pages
+        ByteBuffer[] bufs = new ByteBuffer[pageNums.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE);
+        }
+        diskSpaceManager.readPages(pageNums, bufs);
+        for (int i = 0; i < bufs.length; ++i) {
+            assertFalse(bufs[i].hasRemaining());
+            Arrays.fill(buf, (byte) (i + 1));
+            assertArrayEquals(buf, bufs[i].array());
+        }
+
+        // pages written through memory maps are visible to direct reads once unmapped
+        impl.setMemoryMapped(partNum, true);
+        Arrays.fill(buf, (byte) 42);
+        diskSpaceManager.writePage(pageNums[0], buf);
+        impl.setMemoryMapped(partNum, false);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums[0], readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.close();
+
+        // the file is the same with or without direct I/O
+        diskSpaceManager = getDiskSpaceManager();
+        assertFalse(((DiskSpaceManagerImpl) diskSpaceManager).isDirectIO(partNum));
+        diskSpaceManager.readPage(pageNums[0], readbuf);
+        assertArrayEquals(buf, readbuf);
+        Arrays.fill(buf, (byte) 4);
+        diskSpaceManager.readPage(pageNums[3], readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testPageSize() {
+        final int pageSize = 4 * DiskSpaceManager.PAGE_SIZE;
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true,
+                                                    pageSize);
+        assertEquals(pageSize, diskSpaceManager.getPageSize());
+        int partNum = diskSpaceManager.allocPart();
+        // past the pages a header page manages with the default page size
+        long pageNum = DiskSpaceManager.getVirtualPageNum(partNum,
+                       DiskSpaceManagerImpl.dataPagesPerHeader(pageSize) + 5);
+        diskSpaceManager.allocPage(pageNum);
+        byte[] buf = new byte[pageSize];
+        Arrays.fill(buf, (byte) 42);
+        diskSpaceManager.writePage(pageNum, buf);
+        try {
+            diskSpaceManager.writePage(pageNum, new byte[DiskSpaceManager.PAGE_SIZE]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+        diskSpaceManager.close();
+
+        // the page size a database was created with is kept
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(pageSize, diskSpaceManager.getPageSize());
+        byte[] readbuf = new byte[pageSize];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertTrue(diskSpaceManager.pageAllocated(pageNum));
+        assertFalse(diskSpaceManager.pageAllocated(pageNum - 1));
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageSizeBad() {
+        new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, 3 * 4096);
+    }
+
+    @Test
+    public void testPageCodec() {
+        Random random = new Random(186);
+        byte[][] pages = new byte[3][DiskSpaceManager.PAGE_SIZE];
+        // random bytes, fixed-width records followed by zeroed free space, and a run of one byte
+        random.nextBytes(pages[0]);
+        for (int i = 0; i < 1000; ++i) {
+            pages[1][i] = (byte) (i % 16 < 4 ? random.nextInt() : 'a' + i % 3);
+        }
+        Arrays.fill(pages[2], (byte) 7);
+        byte[] compressed = new byte[DiskSpaceManager.PAGE_SIZE];
+        assertEquals(-1, PageCodec.compress(pages[0], pages[0].length, compressed, 0, compressed.length));
+        for (int i = 1; i < pages.length; ++i) {
+            int length = PageCodec.compress(pages[i], pages[i].length, compressed, 0, compressed.length);
+            assertTrue(length > 0 && length < DiskSpaceManager.PAGE_SIZE / 4);
+            byte[] decompressed = new byte[DiskSpaceManager.PAGE_SIZE];
+            PageCodec.decompress(compressed, 0, length, decompressed, decompressed.length);
+            assertArrayEquals(pages[i], decompressed);
+        }
+    }
+
+    @Test
+    public void testCompressed() {
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf1, 0, 100, (byte) 1);
+        new Random(186).nextBytes(buf2);
+        diskSpaceManager.writePage(pageNum1, buf1);
+
+        // existing pages are copied over
+        assertFalse(impl.isCompressed(partNum));
+        impl.setCompressed(partNum, true);
+        assertTrue(impl.isCompressed(partNum));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+
+        // pages that do not compress are stored as is
+        diskSpaceManager.writePage(pageNum2, buf2);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        long pageNum3 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.readPage(pageNum3, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+        diskSpaceManager.writePage(pageNum1, buf2);
+        diskSpaceManager.writePage(pageNum2, buf1);
+        diskSpaceManager.close();
+
+        // compression is persisted, along with the latest copy of each page
+        diskSpaceManager = getDiskSpaceManager();
+        impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        assertTrue(impl.isCompressed(partNum));
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf1, readbuf);
+
+        impl.setCompressed(partNum, false);
+        assertFalse(new File(CompressedPageStore.fileNameFor(managerRoot.resolve("" + partNum).toString())).exists());
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf1, readbuf);
+
+        impl.setCompressed(partNum, true);
+        diskSpaceManager.freePart(partNum);
+        assertFalse(managerRoot.resolve("" + partNum).toFile().exists());
+        assertFalse(new File(CompressedPageStore.fileNameFor(managerRoot.resolve("" + partNum).toString())).exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompressedMetrics() {
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        int partNum = diskSpaceManager.allocPart();
+        impl.setCompressed(partNum, true);
+        StorageMetrics metrics = diskSpaceManager.getMetrics();
+        StorageMetrics.PartitionClass partitionClass = metrics.getPartitionClass(partNum);
+        assertTrue(Double.isNaN(metrics.getCompressionRatio(partitionClass)));
+
+        // mostly empty pages, as at the end of a table
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, 0, 512, (byte) 'x');
+        for (int i = 0; i < 10; ++i) {
+            diskSpaceManager.writePage(diskSpaceManager.allocPage(partNum), buf);
+        }
+        assertTrue(metrics.getCompressionRatio(partitionClass) > 10);
+        long saved = metrics.getCount(partitionClass, StorageMetrics.Counter.IO_BYTES_SAVED);
+        assertTrue(saved > 0);
+        diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(partNum, 0), buf);
+        assertTrue(metrics.getCount(partitionClass, StorageMetrics.Counter.IO_BYTES_SAVED) > saved);
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Reads the same pages alternately through memory maps and positional channel reads, on
+     * a partition that fits in the OS page cache (the case memory maps are meant for).
+     */
+    @Test
+    public void testMemoryMappedAndChannelReads() {
+        final int numPages = 256;
+        final int numRounds = 2;
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[numPages];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        ByteBuffer readbuf = ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE);
+        for (int round = 0; round < numRounds; ++round) {
+            for (boolean mapped : new boolean[] { false, true }) {
+                impl.setMemoryMapped(partNum, mapped);
+                for (int i = 0; i < numPages; ++i) {
+                    readbuf.clear();
+                    diskSpaceManager.readPage(pageNums[i], readbuf);
+                    assertEquals((byte) i, readbuf.get(0));
+                    assertEquals((byte) i, readbuf.get(DiskSpaceManager.PAGE_SIZE - 1));
+                }
+            }
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testLazyPartitionOpen() {
+        final int numParts = 40;
+        diskSpaceManager = getDiskSpaceManager();
+        long[] pageNums = new long[numParts];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numParts; ++i) {
+            int partNum = diskSpaceManager.allocPart();
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        impl.setMaxOpenPartitions(8);
+        assertEquals(0, impl.getNumOpenPartitions());
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int round = 0; round < 2; ++round) {
+            for (int i = 0; i < numParts; ++i) {
+                diskSpaceManager.readPage(pageNums[i], readbuf);
+                assertEquals((byte) i, readbuf[0]);
+                assertTrue(impl.getNumOpenPartitions() <= 8);
+            }
+        }
+        // closed partitions are opened again for writes and allocations
+        Arrays.fill(buf, (byte) 100);
+        diskSpaceManager.writePage(pageNums[0], buf);
+        long pageNum = diskSpaceManager.allocPage(DiskSpaceManager.getPartNum(pageNums[1]));
+        assertEquals(pageNums[1] + 1, pageNum);
+        diskSpaceManager.freePart(DiskSpaceManager.getPartNum(pageNums[2]));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNums[0], readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertTrue(diskSpaceManager.pageAllocated(pageNum));
+        assertFalse(new File(managerRoot.toFile(), Integer.toString(DiskSpaceManager.getPartNum(pageNums[2]))).exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testHeaderPageCache() {
+        final int numHeaders = PartitionHandle.MAX_CACHED_HEADER_PAGES + 4;
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[numHeaders];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numHeaders; ++i) {
+            // the first page managed by the i-th header page
+            pageNums[i] = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum,
+                          i * DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER));
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        // header pages are dropped and read in again as other header pages are used
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int round = 0; round < 2; ++round) {
+            for (int i = 0; i < numHeaders; ++i) {
+                diskSpaceManager.readPage(pageNums[i], readbuf);
+                assertEquals((byte) i, readbuf[0]);
+                assertFalse(diskSpaceManager.pageAllocated(pageNums[i] + 1));
+            }
+        }
+        assertEquals(pageNums[0] + 1, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.freePage(pageNums[numHeaders - 1]);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        assertTrue(diskSpaceManager.pageAllocated(pageNums[numHeaders - 2]));
+        assertFalse(diskSpaceManager.pageAllocated(pageNums[numHeaders - 1]));
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testLargeCatalogStartup() {
+        // one more partition than can be open at once
+        final int numParts = DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_PARTITIONS + 1;
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < numParts; ++i) {
+            diskSpaceManager.allocPart();
+        }
+        diskSpaceManager.close();
+
+        // startup only lists the directory: partition files are opened when first used
+        diskSpaceManager = getDiskSpaceManager();
+        DiskSpaceManagerImpl impl = (DiskSpaceManagerImpl) diskSpaceManager;
+        assertEquals(0, impl.getNumOpenPartitions());
+
+        for (int i = 0; i < numParts; ++i) {
+            assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(i, 0)));
+        }
+        assertEquals(DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_PARTITIONS, impl.getNumOpenPartitions());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMetrics() {
+        diskSpaceManager = getDiskSpaceManager();
+        StorageMetrics metrics = diskSpaceManager.getMetrics();
+        diskSpaceManager.allocPart(0);
+        int tablePart = diskSpaceManager.allocPart(3);
+        int indexPart = diskSpaceManager.allocPart(4);
+        metrics.setPartitionClass(indexPart, StorageMetrics.PartitionClass.INDEX);
+        assertEquals(StorageMetrics.PartitionClass.LOG, metrics.getPartitionClass(0));
+        assertEquals(StorageMetrics.PartitionClass.TABLE, metrics.getPartitionClass(tablePart));
+
+        long tablePage = diskSpaceManager.allocPage(tablePart);
+        long indexPage = diskSpaceManager.allocPage(indexPart);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.writePage(indexPage, buf);
+        diskSpaceManager.readPage(indexPage, buf);
+        diskSpaceManager.readPage(indexPage, buf);
+        diskSpaceManager.readPage(tablePage, buf);
+
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.TABLE, StorageMetrics.Counter.PAGE_ALLOCS));
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.INDEX, StorageMetrics.Counter.PAGE_ALLOCS));
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.TABLE, StorageMetrics.Counter.PAGE_READS));
+        assertEquals(2, metrics.getCount(StorageMetrics.PartitionClass.INDEX, StorageMetrics.Counter.PAGE_READS));
+        assertEquals(3, metrics.getCount(StorageMetrics.Counter.PAGE_READS));
+        assertEquals(2, metrics.getHistogram(StorageMetrics.PartitionClass.INDEX,
+                StorageMetrics.Latency.PAGE_READ).getCount());
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("index.page_reads"));
+
+        // freed partitions lose their class
+        diskSpaceManager.freePart(indexPart);
+        assertEquals(StorageMetrics.PartitionClass.TABLE, metrics.getPartitionClass(indexPart));
+
+        diskSpaceManager.close();
+    }
+}
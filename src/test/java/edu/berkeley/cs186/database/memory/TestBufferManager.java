@@ -1,18 +1,34 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
+import edu.berkeley.cs186.database.concurrency.LoggingLockManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.io.StorageMetrics;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -210,6 +226,40 @@ public class TestBufferManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testOffHeapReload() {
+        bufferManager.close();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy(), true);
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        frame1.writeBytes((short) 67, (short) 4, expected);
+        frame1.unpin();
+
+        // force an eviction
+        for (int i = 0; i < 9; ++i) {
+            bufferManager.fetchNewPageFrame(partNum).unpin();
+        }
+
+        assertFalse(frame1.isValid());
+
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(frame1.getPageNum(), page);
+        assertArrayEquals(expected, Arrays.copyOfRange(page, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+
+        // reload page
+        frame1 = bufferManager.fetchPageFrame(frame1.getPageNum());
+        frame1.readBytes((short) 67, (short) 4, actual);
+        frame1.unpin();
+
+        assertArrayEquals(expected, actual);
+    }
+
     @Test
     public void testRequestValidFrame() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -320,6 +370,513 @@ public class TestBufferManager {
         assertTrue(frame7.isValid());
     }
 
+    @Test
+    public void testCleanDirtyPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum);
+        frame1.writeBytes((short) 67, (short) 4, expected);
+        frame2.writeBytes((short) 67, (short) 4, expected);
+        frame1.unpin();
+
+        // frame2 is still pinned, so only frame1 is written
+        assertEquals(1, bufferManager.cleanDirtyPages(5));
+        assertEquals(1, bufferManager.getNumBackgroundFlushes());
+        diskSpaceManager.readPage(frame1.getPageNum(), actual);
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+
+        frame2.unpin();
+        assertEquals(1, bufferManager.cleanDirtyPages(5));
+        assertEquals(0, bufferManager.cleanDirtyPages(5));
+        assertEquals(2, bufferManager.getNumBackgroundFlushes());
+
+        // evicting clean pages does not need any more writes
+        bufferManager.evictAll();
+        assertEquals(0, bufferManager.getNumForegroundFlushes());
+        assertFalse(frame1.isValid());
+        assertFalse(frame2.isValid());
+    }
+
+    @Test
+    public void testCleanDirtyPagesOnlyLocksWrittenFrames() throws Exception {
+        // writes started while blocked only complete once pendingWrite is completed
+        AtomicBoolean block = new AtomicBoolean();
+        CompletableFuture<Void> pendingWrite = new CompletableFuture<>();
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public CompletableFuture<Void> writePageAsync(long page, ByteBuffer buf) {
+                if (!block.get()) {
+                    return super.writePageAsync(page, buf);
+                }
+                writeStarted.countDown();
+                return pendingWrite;
+            }
+        };
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+            BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum);
+            frame1.unpin();
+            frame2.unpin();
+            bufferManager.cleanDirtyPages(5);
+
+            frame1.pin();
+            frame1.writeBytes((short) 67, (short) 4, new byte[] { 1, 2, 3, 4 });
+            frame1.unpin();
+            block.set(true);
+            Future<Integer> cleaned = executor.submit(() -> bufferManager.cleanDirtyPages(5));
+            assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+            // the clean frame is not held while frame1 is being written
+            Future<?> fetched = executor.submit(() -> bufferManager.fetchPageFrame(frame2.getPageNum()).unpin());
+            fetched.get(5, TimeUnit.SECONDS);
+            assertFalse(cleaned.isDone());
+
+            pendingWrite.complete(null);
+            assertEquals(1, (int) cleaned.get(5, TimeUnit.SECONDS));
+        } finally {
+            pendingWrite.complete(null);
+            executor.shutdownNow();
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testBackgroundCleaner() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        frame1.writeBytes((short) 67, (short) 4, new byte[] { 1, 2, 3, 4 });
+        frame1.unpin();
+
+        bufferManager.startBackgroundCleaner(1, 5);
+        try {
+            for (int i = 0; i < 1000 && bufferManager.getNumBackgroundFlushes() == 0; ++i) {
+                Thread.sleep(5);
+            }
+        } finally {
+            bufferManager.stopBackgroundCleaner();
+        }
+        assertEquals(1, bufferManager.getNumBackgroundFlushes());
+
+        bufferManager.evictAll();
+        assertEquals(0, bufferManager.getNumForegroundFlushes());
+    }
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[3];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        bufferManager.evictAll();
+
+        // read-ahead is disabled by default
+        bufferManager.prefetch(pageNums[0]);
+        assertEquals(0, bufferManager.getNumPrefetches());
+
+        // 5 frames only allow reading 1 page ahead
+        bufferManager.setReadAheadPages(4);
+        assertEquals(1, bufferManager.getReadAheadPages());
+
+        bufferManager.prefetch(pageNums[1]);
+        for (int i = 0; i < 1000 && bufferManager.getNumPrefetches() == 0; ++i) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, bufferManager.getNumPrefetches());
+
+        long numIOs = bufferManager.getNumIOs();
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[1]);
+        frame.unpin();
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testFetchPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[4];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            buf[BufferManager.RESERVED_SPACE] = (byte) i;
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        long ios = bufferManager.getNumIOs();
+
+        // one hit, two misses, and a page listed twice
+        long[] toFetch = new long[] { pageNums[3], pageNums[0], pageNums[2], pageNums[3] };
+        BufferManager.Frame[] frames = bufferManager.fetchPageFrames(toFetch);
+        assertEquals(ios + 2, bufferManager.getNumIOs());
+        assertSame(frames[0], frames[3]);
+        byte[] actual = new byte[1];
+        for (int i = 0; i < frames.length; ++i) {
+            assertTrue(frames[i].isPinned());
+            assertEquals(toFetch[i], frames[i].getPageNum());
+            frames[i].readBytes((short) 0, (short) 1, actual);
+            assertEquals(DiskSpaceManager.getPageNum(toFetch[i]), actual[0]);
+        }
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+        for (BufferFrame frame : frames) {
+            assertFalse(frame.isPinned());
+        }
+    }
+
+    @Test
+    public void testFetchPagesFailure() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[6];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        BufferFrame hit = bufferManager.fetchPageFrame(pageNums[0]);
+        hit.unpin();
+
+        // more pages than frames: nothing is left pinned
+        try {
+            bufferManager.fetchPageFrames(pageNums);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        assertFalse(hit.isPinned());
+        BufferManager.Frame[] frames = bufferManager.fetchPageFrames(Arrays.copyOf(pageNums, 5));
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+
+        // unallocated page: nothing is pinned
+        diskSpaceManager.freePage(pageNums[5]);
+        try {
+            bufferManager.fetchPageFrames(new long[] { pageNums[0], pageNums[5] });
+            fail();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+        assertFalse(frames[0].isPinned());
+    }
+
+    @Test
+    public void testBulkAccessStrategy() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                new LRUEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            long[] hotPages = new long[4];
+            for (int i = 0; i < hotPages.length; ++i) {
+                BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+                hotPages[i] = frame.getPageNum();
+                frame.unpin();
+            }
+            long[] coldPages = new long[20];
+            for (int i = 0; i < coldPages.length; ++i) {
+                coldPages[i] = diskSpaceManager.allocPage(partNum);
+            }
+
+            // small operations use the shared pool
+            assertNull(bufferManager.getBulkAccessStrategy(2, 32));
+
+            // rings are capped at a quarter of the buffer
+            BufferAccessStrategy strategy = bufferManager.getBulkAccessStrategy(coldPages.length, 32);
+            assertNotNull(strategy);
+            assertEquals(2, strategy.getRingSize());
+
+            strategy.run(() -> {
+                for (long pageNum : coldPages) {
+                    bufferManager.fetchPageFrame(pageNum).unpin();
+                }
+            });
+            // the first two pages fill the ring from free frames, and the rest reuse the ring
+            assertEquals(coldPages.length - 2, bufferManager.getNumRingReuses());
+
+            long numIOs = bufferManager.getNumIOs();
+            for (long pageNum : hotPages) {
+                bufferManager.fetchPageFrame(pageNum).unpin();
+            }
+            assertEquals(numIOs, bufferManager.getNumIOs());
+
+            // the strategy is no longer active
+            bufferManager.fetchPageFrame(coldPages[0]).unpin();
+            assertEquals(coldPages.length - 2, bufferManager.getNumRingReuses());
+        } finally {
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        StorageMetrics metrics = bufferManager.getMetrics();
+        int partNum = diskSpaceManager.allocPart(1);
+        assertEquals(StorageMetrics.PartitionClass.CATALOG, metrics.getPartitionClass(partNum));
+
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.writeBytes((short) 0, (short) 4, intToBytes(186));
+        frame.unpin();
+        bufferManager.fetchPageFrame(pageNum).unpin();
+        bufferManager.evict(pageNum);
+        bufferManager.fetchPageFrame(pageNum).unpin();
+
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.CATALOG, StorageMetrics.Counter.HITS));
+        assertEquals(2, metrics.getCount(StorageMetrics.PartitionClass.CATALOG, StorageMetrics.Counter.MISSES));
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.CATALOG, StorageMetrics.Counter.EVICTIONS));
+        assertEquals(1, metrics.getCount(StorageMetrics.PartitionClass.CATALOG,
+                StorageMetrics.Counter.DIRTY_WRITE_BACKS));
+        assertEquals(1.0 / 3, metrics.getHitRatio(StorageMetrics.PartitionClass.CATALOG), 1e-9);
+        assertEquals(0, metrics.getCount(StorageMetrics.PartitionClass.TABLE, StorageMetrics.Counter.MISSES));
+        assertTrue(Double.isNaN(metrics.getHitRatios().get("table")));
+    }
+
+    @Test
+    public void testWarmRestart() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("resident_pages", null);
+        try {
+            BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                    new LRUEvictionPolicy());
+            bufferManager.enableWarmRestart(file);
+            int partNum = diskSpaceManager.allocPart(1);
+            long[] pageNums = new long[3];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+                pageNums[i] = frame.getPageNum();
+                frame.unpin();
+            }
+            bufferManager.fetchPageFrame(pageNums[0]).unpin();
+            assertEquals(Arrays.asList(pageNums[0], pageNums[2], pageNums[1]),
+                    bufferManager.getResidentPagesByRecency());
+            bufferManager.close();
+
+            // pages freed since the list was saved are skipped
+            diskSpaceManager.freePage(pageNums[2]);
+            bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                    new LRUEvictionPolicy());
+            bufferManager.enableWarmRestart(file);
+            bufferManager.startWarmUp();
+            for (int i = 0; i < 1000 && bufferManager.getNumWarmUpLoads() < 2; ++i) {
+                Thread.sleep(5);
+            }
+            assertEquals(2, bufferManager.getNumWarmUpLoads());
+            assertFalse(Files.exists(file));
+
+            long numIOs = bufferManager.getNumIOs();
+            bufferManager.fetchPageFrame(pageNums[0]).unpin();
+            bufferManager.fetchPageFrame(pageNums[1]).unpin();
+            assertEquals(numIOs, bufferManager.getNumIOs());
+            bufferManager.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testPinnedBuffer() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        try {
+            page.getBuffer().position(10).putInt(186).putLong(-1L);
+
+            Buffer buf = page.getPinnedBuffer();
+            assertEquals(186, buf.getInt(10));
+            buf.position(10);
+            assertEquals(186, buf.getInt());
+            assertEquals(-1L, buf.getLong());
+            assertEquals(22, buf.position());
+
+            // writes go through the buffer manager and are visible to the view
+            buf.position(4).slice().putShort((short) 7).putInt(8);
+            assertEquals(7, buf.getShort(4));
+            assertEquals(8, page.getBuffer().getInt(6));
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPinnedBufferUnpinned() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        page.unpin();
+        page.getPinnedBuffer();
+    }
+
+    @Test
+    public void testConcurrentFetchWithEviction() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        int numPages = 40;
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.writeBytes((short) 0, (short) 4, intToBytes(i));
+            frame.unpin();
+        }
+
+        // each thread repeatedly pins pages (forcing eviction, since there are far more pages
+        // than frames) and checks that every frame it gets holds the page it asked for
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                try {
+                    byte[] buf = new byte[4];
+                    for (int j = 0; j < 2000; ++j) {
+                        int i = (j * 7 + seed * 13) % numPages;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+                        try {
+                            assertEquals(pageNums[i], frame.getPageNum());
+                            frame.readBytes((short) 0, (short) 4, buf);
+                            assertArrayEquals(intToBytes(i), buf);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testConcurrentHitsDoNotReload() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        // every page is resident, so fetches from many threads should never touch disk
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; ++t) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 5000; ++j) {
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[(j + seed) % pageNums.length]);
+                        frame.unpin();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
+    private static byte[] intToBytes(int i) {
+        return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+    }
+
+    @Test
+    public void testLogWriteWithSeveralChangedRanges() {
+        List<UpdatePageLogRecord> logged = new ArrayList<>();
+        RecoveryManager recoveryManager = new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                logged.add(new UpdatePageLogRecord(transNum, pageNum, 0L, pageOffset, before, after));
+                return 0L;
+            }
+        };
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 5,
+                new ClockEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            // two ranges of changed bytes, far enough apart to be logged separately
+            byte[] bytes = new byte[100];
+            Arrays.fill(bytes, 0, 4, (byte) 1);
+            Arrays.fill(bytes, 90, 100, (byte) 2);
+            TransactionContext.setTransaction(new DummyTransactionContext(new LoggingLockManager(), 1L));
+            try {
+                page.getBuffer().position(50).put(bytes);
+            } finally {
+                TransactionContext.unsetTransaction();
+                page.unpin();
+            }
+
+            long pageNum = page.getPageNum();
+            assertEquals(Arrays.asList(
+                             new UpdatePageLogRecord(1L, pageNum, 0L, (short) 50, new byte[4], Arrays.copyOfRange(bytes, 0, 4)),
+                             new UpdatePageLogRecord(1L, pageNum, 0L, (short) 140, new byte[10], Arrays.copyOfRange(bytes, 90, 100))
+                         ), logged);
+        } finally {
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testLogBulkWriteAsOneRange() {
+        List<UpdatePageLogRecord> logged = new ArrayList<>();
+        RecoveryManager recoveryManager = new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                logged.add(new UpdatePageLogRecord(transNum, pageNum, 0L, pageOffset, before, after));
+                return 0L;
+            }
+        };
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 5,
+                new ClockEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            // two ranges of changed bytes, which a bulk write logs together
+            byte[] bytes = new byte[100];
+            Arrays.fill(bytes, 0, 4, (byte) 1);
+            Arrays.fill(bytes, 90, 100, (byte) 2);
+            TransactionContext.setTransaction(new DummyTransactionContext(new LoggingLockManager(), 1L));
+            try {
+                page.getBulkWriteBuffer().position(50).put(bytes);
+            } finally {
+                TransactionContext.unsetTransaction();
+                page.unpin();
+            }
+
+            long pageNum = page.getPageNum();
+            assertEquals(Arrays.asList(
+                             new UpdatePageLogRecord(1L, pageNum, 0L, (short) 50, new byte[100], bytes)
+                         ), logged);
+        } finally {
+            bufferManager.close();
+        }
+    }
+
     @Test(expected = PageException.class)
     public void testMissingPart() {
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(0, 0));
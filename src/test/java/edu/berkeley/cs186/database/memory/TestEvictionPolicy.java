@@ -6,6 +6,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -32,7 +34,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -56,6 +58,11 @@ public class TestEvictionPolicy {
         void setPageLSN(long pageLSN) {
         }
 
+        @Override
+        ByteBuffer getDataView() {
+            return null;
+        }
+
         @Override
         BufferFrame requestValidFrame() {
             return null;
@@ -193,4 +200,132 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testLRUKPolicy() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2);
+        BufferFrame[] all = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        policy.hit(frames[1]);
+        policy.hit(frames[2]);
+
+        // frames 0 and 3 have only been referenced once
+        assertEquals(frames[0], policy.evict(all));
+        policy.cleanup(frames[0]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[3], policy.evict(all));
+        policy.cleanup(frames[3]);
+
+        // page 0 is reloaded with its history, so it now has two references
+        policy.init(frames[0]);
+        assertEquals(frames[4], policy.evict(all));
+        policy.cleanup(frames[4]);
+
+        // ...but its second most recent reference is the oldest
+        assertEquals(frames[0], policy.evict(all));
+        frames[0].pin();
+        assertEquals(frames[1], policy.evict(all));
+        frames[1].pin();
+        frames[2].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(all);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[0].unpin();
+        frames[1].unpin();
+        frames[2].unpin();
+    }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        BufferFrame[] all = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+
+        // everything is in A1in, which is evicted in FIFO order
+        assertEquals(frames[0], policy.evict(all));
+        policy.cleanup(frames[0]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[1], policy.evict(all));
+        policy.cleanup(frames[1]);
+
+        // page 0 is remembered in A1out, so it goes to Am when reloaded
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[2], policy.evict(all));
+        policy.cleanup(frames[2]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.hit(frames[0]);
+        // hits while in A1in do not promote a page, even after other references
+        policy.hit(frames[3]);
+        assertEquals(frames[3], policy.evict(all));
+        policy.cleanup(frames[3]);
+        assertEquals(frames[4], policy.evict(all));
+        policy.cleanup(frames[4]);
+
+        // A1in is down to its minimum size, so Am is evicted from
+        assertEquals(frames[0], policy.evict(all));
+        frames[0].pin();
+        frames[5].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(all);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[0].unpin();
+        frames[5].unpin();
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] all = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        policy.hit(frames[1]);
+
+        // frame 1 was referenced twice, so it moved to T2
+        assertEquals(frames[0], policy.evict(all));
+        policy.cleanup(frames[0]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[2], policy.evict(all));
+        policy.cleanup(frames[2]);
+
+        // page 0 is in B1, so it goes to T2 when reloaded, and T1's target size grows
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[3], policy.evict(all));
+        policy.cleanup(frames[3]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.hit(frames[4]);
+
+        // T1 is down to its target size, so T2 is evicted from
+        assertEquals(frames[1], policy.evict(all));
+        frames[0].pin();
+        frames[1].pin();
+        frames[4].pin();
+        frames[5].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(all);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[0].unpin();
+        frames[1].unpin();
+        frames[4].unpin();
+        frames[5].unpin();
+    }
 }
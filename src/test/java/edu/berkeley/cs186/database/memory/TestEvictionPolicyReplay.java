@@ -0,0 +1,137 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a trace of page accesses against a buffer manager with each eviction
+ * policy, and compares hit ratios. The trace alternates between full scans of a
+ * large table (larger than the buffer) and point lookups, most of which go to a
+ * small set of hot pages (like the inner nodes of a B+ tree), which the
+ * scan-resistant policies should keep in memory across scans. A second trace interleaves the lookups with
+ * the scan, reading each scanned page a few times with a lookup in between (like
+ * an index nested loop join over the scanned table).
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestEvictionPolicyReplay {
+    private static final int NUM_FRAMES = 50;
+    private static final int NUM_HOT_PAGES = 20;
+    private static final int NUM_COLD_PAGES = 150;
+    private static final int NUM_ROUNDS = 10;
+    private static final int LOOKUPS_PER_ROUND = 200;
+    private static final int NUM_INTERLEAVED_HOT_PAGES = 40;
+    private static final int RECORDS_PER_PAGE = 2;
+
+    private interface TraceMaker {
+        List<Long> makeTrace(long[] hotPages, long[] coldPages);
+    }
+
+    private static List<Long> makeTrace(long[] hotPages, long[] coldPages) {
+        Random random = new Random(186);
+        List<Long> trace = new ArrayList<>();
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            for (long pageNum : coldPages) {
+                trace.add(pageNum);
+            }
+            for (int i = 0; i < LOOKUPS_PER_ROUND; ++i) {
+                if (random.nextInt(5) == 0) {
+                    trace.add(coldPages[random.nextInt(coldPages.length)]);
+                } else {
+                    trace.add(hotPages[random.nextInt(hotPages.length)]);
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static List<Long> makeInterleavedTrace(long[] hotPages, long[] coldPages) {
+        Random random = new Random(186);
+        List<Long> trace = new ArrayList<>();
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            for (long pageNum : coldPages) {
+                for (int i = 0; i < RECORDS_PER_PAGE; ++i) {
+                    trace.add(pageNum);
+                    trace.add(hotPages[random.nextInt(hotPages.length)]);
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static double replay(Supplier<EvictionPolicy> policy) {
+        return replay(policy, NUM_HOT_PAGES, TestEvictionPolicyReplay::makeTrace);
+    }
+
+    private static double replay(Supplier<EvictionPolicy> policy, int numHotPages,
+                                 TraceMaker traceMaker) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] hotPages = new long[numHotPages];
+        long[] coldPages = new long[NUM_COLD_PAGES];
+        for (int i = 0; i < hotPages.length; ++i) {
+            hotPages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int i = 0; i < coldPages.length; ++i) {
+            coldPages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        List<Long> trace = traceMaker.makeTrace(hotPages, coldPages);
+
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                NUM_FRAMES, policy.get());
+        try {
+            byte[] buf = new byte[4];
+            for (long pageNum : trace) {
+                BufferFrame frame = bufferManager.fetchPageFrame(pageNum);
+                try {
+                    frame.readBytes((short) 0, (short) 4, buf);
+                } finally {
+                    frame.unpin();
+                }
+            }
+            return 1.0 - (double) bufferManager.getNumIOs() / trace.size();
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testScanResistance() {
+        double lru = replay(LRUEvictionPolicy::new);
+        double clock = replay(ClockEvictionPolicy::new);
+        double lruK = replay(LRUKEvictionPolicy::new);
+        double twoQueue = replay(TwoQueueEvictionPolicy::new);
+        double arc = replay(ARCEvictionPolicy::new);
+
+        double baseline = Math.max(lru, clock);
+        assertTrue("LRU-2 hit ratio " + lruK + " <= " + baseline, lruK > baseline);
+        assertTrue("2Q hit ratio " + twoQueue + " <= " + baseline, twoQueue > baseline);
+        assertTrue("ARC hit ratio " + arc + " <= " + baseline, arc > baseline);
+    }
+
+    @Test
+    public void testScanResistanceWithInterleavedLookups() {
+        double lru = replay(LRUEvictionPolicy::new, NUM_INTERLEAVED_HOT_PAGES,
+                TestEvictionPolicyReplay::makeInterleavedTrace);
+        double clock = replay(ClockEvictionPolicy::new, NUM_INTERLEAVED_HOT_PAGES,
+                TestEvictionPolicyReplay::makeInterleavedTrace);
+        double twoQueue = replay(TwoQueueEvictionPolicy::new, NUM_INTERLEAVED_HOT_PAGES,
+                TestEvictionPolicyReplay::makeInterleavedTrace);
+
+        // scanned pages must stay in A1in, so the hot pages keep Am to themselves
+        double baseline = Math.max(lru, clock) + 0.05;
+        assertTrue("2Q hit ratio " + twoQueue + " <= " + baseline, twoQueue > baseline);
+    }
+}
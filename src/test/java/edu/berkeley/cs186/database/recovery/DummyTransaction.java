@@ -6,12 +6,14 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.TableLayout;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.HashMap;
@@ -68,6 +70,9 @@ class DummyTransaction extends Transaction {
     @Override
     public void createTable(Schema s, String tableName) {}
 
+    @Override
+    public void createTable(Schema s, String tableName, TableLayout layout) {}
+
     @Override
     public void dropTable(String tableName) {}
 
@@ -134,6 +139,11 @@ class DummyTransaction extends Transaction {
             return 0;
         }
 
+        @Override
+        public BufferAccessStrategy getBulkAccessStrategy(int numPages, int ringSize) {
+            return null;
+        }
+
         @Override
         public void close() {}
 
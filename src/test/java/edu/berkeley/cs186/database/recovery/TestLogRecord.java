@@ -10,10 +10,12 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 @Category(SystemTests.class)
@@ -60,6 +62,29 @@ public class TestLogRecord {
     @Test
     public void testFreePartSerialize() {
         checkSerialize(new FreePartLogRecord(-98765L, -43210, -77654L));
+        checkSerialize(new FreePartLogRecord(-98765L, -43210, -77654L,
+                                             Arrays.asList(new Pair<>(0, 3), new Pair<>(4, 60000))));
+    }
+
+    /**
+     * FreePart records without page ranges keep the encoding they had before page
+     * ranges existed, so that logs written by older versions can still be read.
+     */
+    @Test
+    public void testFreePartOldFormat() {
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES];
+        ByteBuffer.wrap(b).put((byte) LogType.FREE_PART.getValue()).putLong(-98765L)
+        .putInt(-43210).putLong(-77654L);
+        LogRecord record = new FreePartLogRecord(-98765L, -43210, -77654L);
+        assertEquals(record, LogRecord.fromBytes(ByteBuffer.wrap(b)).orElse(null));
+        assertArrayEquals(b, record.toBytes());
+
+        b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES];
+        ByteBuffer.wrap(b).put((byte) LogType.UNDO_FREE_PART.getValue()).putLong(-98765L)
+        .putInt(-43210).putLong(-77654L).putLong(-91235L);
+        record = new UndoFreePartLogRecord(-98765L, -43210, -77654L, -91235L);
+        assertEquals(record, LogRecord.fromBytes(ByteBuffer.wrap(b)).orElse(null));
+        assertArrayEquals(b, record.toBytes());
     }
 
     @Test
@@ -80,6 +105,8 @@ public class TestLogRecord {
     @Test
     public void testUndoFreePartSerialize() {
         checkSerialize(new UndoFreePartLogRecord(-98765L, -43210, -77654L, -91235L));
+        checkSerialize(new UndoFreePartLogRecord(-98765L, -43210, -77654L, -91235L,
+                                                 Arrays.asList(new Pair<>(0, 3), new Pair<>(4, 60000))));
     }
 
     @Test
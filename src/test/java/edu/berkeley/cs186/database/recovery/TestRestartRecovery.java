@@ -2,10 +2,12 @@ package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.TimeoutScaling;
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.Proj5Part2Tests;
 import edu.berkeley.cs186.database.categories.Proj5Tests;
 import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -853,6 +855,55 @@ public class TestRestartRecovery {
         assertEquals(Collections.singletonMap(10000000002L, LSN2), getDirtyPageTable(recoveryManager));
     }
 
+    /**
+     * Tests that freeing a partition logs a single record for the partition's data pages,
+     * and that the free is undone after a crash.
+     *
+     * T1 updates page 1 of partition 1 (which has pages 0-9), frees page 3, and frees
+     * partition 1, then the database crashes. Checks:
+     *  - the free is logged as one FreePartLogRecord, listing the remaining pages
+     *  - pages of the partition are removed from the DPT, before and after analysis
+     *  - undo allocates the partition and all of its pages again
+     */
+    @Test
+    @Category(SystemTests.class)
+    public void testBulkFreePart() throws Exception {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        DummyTransaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        TransactionContext.setTransaction(transaction1.getTransactionContext());
+        try {
+            getDiskSpaceManager(recoveryManager).freePage(10000000003L);
+            getBufferManager(recoveryManager).freePart(1);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+
+        LogManager logManager = getLogManager(recoveryManager);
+        LogRecord freePart = logManager.fetchLogRecord(getTransactionTable(recoveryManager).get(1L).lastLSN);
+        assertEquals(LogType.FREE_PART_PAGES, freePart.getType());
+        assertEquals(Arrays.asList(new Pair<>(0, 3), new Pair<>(4, 6)),
+                     ((FreePartLogRecord) freePart).getPageRanges());
+        LogRecord freePage = logManager.fetchLogRecord(freePart.getPrevLSN().get());
+        assertEquals(LogType.FREE_PAGE, freePage.getType());
+        assertTrue(getDirtyPageTable(recoveryManager).isEmpty());
+
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        runAnalysis(recoveryManager);
+        assertTrue(getDirtyPageTable(recoveryManager).isEmpty());
+        runRedo(recoveryManager);
+        runUndo(recoveryManager);
+
+        DiskSpaceManager diskSpaceManager = getDiskSpaceManager(recoveryManager);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(1, i)));
+        }
+    }
+
     /*************************************************************************
      * Helpers - these are similar to the ones available in TestARIESStudent *
      *************************************************************************/
@@ -213,6 +213,42 @@ public class TestPageDirectory {
         }
     }
 
+    @Test
+    public void testIteratorReadAhead() throws InterruptedException {
+        createPageDirectory((short) 0);
+
+        short pageSize = pageDirectory.getEffectivePageSize();
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            pages.add(page);
+            page.unpin();
+        }
+        bufferManager.evictAll();
+        bufferManager.setReadAheadPages(8);
+
+        Iterator<Page> iter = pageDirectory.iterator();
+        Page p = iter.next();
+        p.unpin();
+        assertEquals(pages.get(0), p);
+
+        // fetching the first page should start loading the next 8 in the background
+        for (int i = 0; i < 1000 && bufferManager.getNumPrefetches() < 8; ++i) {
+            Thread.sleep(5);
+        }
+        assertEquals(8, bufferManager.getNumPrefetches());
+
+        // stop further read-ahead, so that the I/O count only reflects the scan
+        bufferManager.setReadAheadPages(0);
+        long numIOs = bufferManager.getNumIOs();
+        for (int i = 1; i <= 8; ++i) {
+            p = iter.next();
+            p.unpin();
+            assertEquals(pages.get(i), p);
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
     @Test
     public void testIteratorWithDeletes() {
         createPageDirectory((short) 0);
@@ -236,6 +272,7 @@ public class TestPageDirectory {
                 iterator.remove();
             }
         }
+        assertEquals(pages.size(), pageDirectory.getNumDataPages());
 
         Iterator<Page> iter = pageDirectory.iterator();
         for (Page page : pages) {
@@ -246,4 +283,44 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testFreeSpaceMap() {
+        Page headerPage = bufferManager.fetchNewPage(new DummyLockContext(), 0);
+        headerPage.unpin();
+        createPageDirectory(headerPage.getPageNum(), (short) 0);
+
+        // fill enough pages for several header pages
+        short pageSize = pageDirectory.getEffectivePageSize();
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            pages.add(page);
+            page.unpin();
+        }
+        assertEquals(1000, pageDirectory.getNumDataPages());
+
+        // space freed on any page is found, however far down the header page chain
+        pageDirectory.updateFreeSpace(pages.get(900), (short) 100);
+        pageDirectory.updateFreeSpace(pages.get(10), (short) 50);
+        Page p = pageDirectory.getPageWithSpace((short) 80);
+        p.unpin();
+        assertEquals(pages.get(900), p);
+        p = pageDirectory.getPageWithSpace((short) 50);
+        p.unpin();
+        assertEquals(pages.get(10), p);
+
+        // the entry of a freed page is reused for the next new page
+        pageDirectory.updateFreeSpace(pages.get(500), pageSize);
+        p = pageDirectory.getPageWithSpace(pageSize);
+        p.unpin();
+        assertFalse(pages.contains(p));
+
+        // a page directory loaded from disk rebuilds the map from its header pages
+        pageDirectory.updateFreeSpace(pages.get(700), (short) 200);
+        createPageDirectory(headerPage.getPageNum(), (short) 0);
+        p = pageDirectory.getPageWithSpace((short) 150);
+        p.unpin();
+        assertEquals(pages.get(700), p);
+    }
 }
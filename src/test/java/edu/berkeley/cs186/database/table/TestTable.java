@@ -2,14 +2,18 @@ package edu.berkeley.cs186.database.table;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
+import edu.berkeley.cs186.database.concurrency.LoggingLockManager;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -94,6 +98,261 @@ public class TestTable {
         }
     }
 
+    @Test
+    public void testAddRecords() {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage * 5 / 2; ++i) {
+            records.add(createRecordWithAllTypes(i));
+        }
+        List<RecordId> rids = table.addRecords(records.iterator());
+        assertEquals(records.size(), rids.size());
+        assertEquals(records.size(), table.getStats().getNumRecords());
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i), table.getRecord(rids.get(i)));
+        }
+        // packed into as few pages as possible
+        Set<Long> pages = new HashSet<>();
+        for (RecordId rid : rids) {
+            pages.add(rid.getPageNum());
+        }
+        assertEquals(3, pages.size());
+
+        // gaps left by deletes are filled by less than a page of records
+        for (int i = 0; i < records.size(); i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+        List<Record> more = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage / 4; ++i) {
+            more.add(createRecordWithAllTypes(-i));
+        }
+        List<RecordId> moreRids = table.addRecords(more.iterator());
+        for (int i = 0; i < more.size(); ++i) {
+            assertTrue(pages.contains(moreRids.get(i).getPageNum()));
+            assertEquals(more.get(i), table.getRecord(moreRids.get(i)));
+        }
+        for (int i = 1; i < records.size(); i += 2) {
+            assertEquals(records.get(i), table.getRecord(rids.get(i)));
+        }
+        assertEquals(records.size() / 2 + more.size(), table.getStats().getNumRecords());
+    }
+
+    private PageDirectory createPageDirectory(short pageDirectoryId) {
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+        try {
+            return new PageDirectory(bufferManager, 1, page.getPageNum(), pageDirectoryId, new DummyLockContext());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    private static Table createSlottedTable(PageDirectory pageDirectory) {
+        Schema s = new Schema().add("int", Type.intType()).add("string", Type.stringType(255));
+        return new Table("slotted", s, pageDirectory, new DummyLockContext(), TableLayout.SLOTTED);
+    }
+
+    private static Record createVariableRecord(int i, int length) {
+        return new Record(i, String.join("", Collections.nCopies(length, Integer.toString(i % 10))));
+    }
+
+    /**
+     * Bulk inserts log each data page they fill as a single update, even when the records
+     * leave long runs of unchanged bytes between them (like padding of strings).
+     */
+    @Test
+    public void testAddRecordsLogsOneUpdatePerPage() {
+        Map<Long, Integer> updatesPerPage = new HashMap<>();
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(1);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                // updates of the records of a data page, not of its header
+                if (pageOffset >= PageDirectory.DATA_HEADER_SIZE) {
+                    updatesPerPage.merge(pageNum, 1, Integer::sum);
+                }
+                return 0L;
+            }
+        }, 1024, new ClockEvictionPolicy());
+        try {
+            Schema s = new Schema().add("int", Type.intType()).add("string", Type.stringType(60));
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+            PageDirectory pageDirectory;
+            try {
+                pageDirectory = new PageDirectory(bufferManager, 1, page.getPageNum(), (short) 0,
+                                                  new DummyLockContext());
+            } finally {
+                page.unpin();
+            }
+            Table table = new Table(TABLENAME, s, pageDirectory, new DummyLockContext());
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 3 * table.getNumRecordsPerPage(); ++i) {
+                records.add(new Record(i, "a"));
+            }
+
+            TransactionContext.setTransaction(new DummyTransactionContext(new LoggingLockManager(), 1L));
+            List<RecordId> rids;
+            try {
+                rids = table.addRecords(records.iterator());
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+            Set<Long> dataPages = new HashSet<>();
+            for (RecordId rid : rids) {
+                dataPages.add(rid.getPageNum());
+            }
+            assertEquals(3, dataPages.size());
+            for (long pageNum : dataPages) {
+                assertEquals(Integer.valueOf(1), updatesPerPage.get(pageNum));
+            }
+        } finally {
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testSlottedTable() {
+        PageDirectory slottedPageDirectory = createPageDirectory((short) 1);
+        Table slotted = createSlottedTable(slottedPageDirectory);
+        List<Record> records = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            records.add(createVariableRecord(i, 1 + i % 20));
+            rids.add(slotted.addRecord(records.get(i)));
+        }
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i), slotted.getRecord(rids.get(i)));
+        }
+        // records take their actual size rather than that of STRING(255)
+        int fixedRecordsPerPage = Table.computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(),
+                                  slotted.getSchema());
+        assertTrue(slotted.getNumDataPages() * 5 < records.size() / fixedRecordsPerPage);
+
+        List<Record> scanned = new ArrayList<>();
+        slotted.iterator().forEachRemaining(scanned::add);
+        assertEquals(records.size(), scanned.size());
+        assertEquals(new HashSet<>(records), new HashSet<>(scanned));
+
+        // slots of deleted records are reused, on the same pages
+        int numDataPages = slotted.getNumDataPages();
+        for (int i = 0; i < records.size(); i += 2) {
+            assertEquals(records.get(i), slotted.deleteRecord(rids.get(i)));
+        }
+        try {
+            slotted.getRecord(rids.get(0));
+            fail();
+        } catch (DatabaseException e) {
+            /* do nothing */
+        }
+        for (int i = 0; i < records.size(); i += 2) {
+            records.set(i, createVariableRecord(-i, 1));
+            rids.set(i, slotted.addRecord(records.get(i)));
+        }
+        assertEquals(numDataPages, slotted.getNumDataPages());
+
+        slotted = createSlottedTable(slottedPageDirectory);
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i), slotted.getRecord(rids.get(i)));
+        }
+    }
+
+    @Test
+    public void testSlottedTableUpdates() {
+        Table slotted = createSlottedTable(createPageDirectory((short) 1));
+        List<RecordId> rids = slotted.addRecords(new Iterator<Record>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < 1000;
+            }
+
+            @Override
+            public Record next() {
+                return createVariableRecord(i++, 1);
+            }
+        });
+        assertEquals(1000, rids.size());
+
+        // records that no longer fit on their page are moved, and keep their record ids
+        for (int length : new int[] {200, 5, 250}) {
+            for (int i = 0; i < rids.size(); ++i) {
+                assertEquals(createVariableRecord(i, 1).getValue(0), slotted.updateRecord(rids.get(i),
+                             createVariableRecord(i, length)).getValue(0));
+            }
+            for (int i = 0; i < rids.size(); ++i) {
+                assertEquals(createVariableRecord(i, length), slotted.getRecord(rids.get(i)));
+            }
+            // moved records are scanned once, under their record ids
+            List<RecordId> scanned = new ArrayList<>();
+            slotted.ridIterator().forEachRemaining(scanned::add);
+            assertEquals(new HashSet<>(rids), new HashSet<>(scanned));
+            assertEquals(rids.size(), scanned.size());
+        }
+
+        // all space is returned to the page directory
+        for (int i = 0; i < rids.size(); ++i) {
+            assertEquals(createVariableRecord(i, 250), slotted.deleteRecord(rids.get(i)));
+        }
+        assertEquals(0, slotted.getNumDataPages());
+    }
+
+    @Test
+    public void testPaxTable() {
+        PageDirectory paxPageDirectory = createPageDirectory((short) 1);
+        Table pax = new Table("pax", schema, paxPageDirectory, new DummyLockContext(), TableLayout.PAX);
+        assertEquals(table.getNumRecordsPerPage(), pax.getNumRecordsPerPage());
+        int numRecords = 3 * pax.getNumRecordsPerPage();
+        List<Record> records = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            records.add(createRecordWithAllTypes(i));
+            if (i < numRecords / 2) {
+                rids.add(pax.addRecord(records.get(i)));
+                table.addRecord(records.get(i));
+            }
+        }
+        rids.addAll(pax.addRecords(records.subList(numRecords / 2, numRecords).iterator()));
+        table.addRecords(records.subList(numRecords / 2, numRecords).iterator());
+        assertEquals(3, pax.getNumDataPages());
+        for (int i = 0; i < numRecords; i += 3) {
+            records.set(i, createRecordWithAllTypes(-i));
+            pax.updateRecord(rids.get(i), records.get(i));
+        }
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(records.get(i), pax.getRecord(rids.get(i)));
+        }
+        assertEquals(records.get(1), pax.deleteRecord(rids.get(1)));
+        records.set(1, createRecordWithAllTypes(-1));
+        assertEquals(rids.get(1), pax.addRecord(records.get(1)));
+
+        pax = new Table("pax", schema, paxPageDirectory, new DummyLockContext(), TableLayout.PAX);
+        List<Record> scanned = new ArrayList<>();
+        pax.iterator().forEachRemaining(scanned::add);
+        assertEquals(records.size(), scanned.size());
+        assertEquals(new HashSet<>(records), new HashSet<>(scanned));
+
+        // scans of some columns only read those columns of PAX pages
+        BitSet columns = new BitSet();
+        columns.set(0);
+        columns.set(3);
+        long paxBytesRead = pax.getRecordBytesRead();
+        long fixedBytesRead = table.getRecordBytesRead();
+        Iterator<Record> paxIter = pax.iterator(columns);
+        Iterator<Record> fixedIter = table.iterator(columns);
+        for (Record record : records) {
+            Record paxRecord = paxIter.next();
+            assertEquals(record.getValue(0), paxRecord.getValue(0));
+            assertEquals(record.getValue(3), paxRecord.getValue(3));
+            assertNull(paxRecord.getValue(1));
+            fixedIter.next();
+        }
+        assertFalse(paxIter.hasNext());
+        assertEquals(numRecords * 5, pax.getRecordBytesRead() - paxBytesRead);
+        assertEquals(numRecords * schema.getSizeInBytes(), table.getRecordBytesRead() - fixedBytesRead);
+    }
+
     @Test
     public void testSingleDelete() {
         Record r = createRecordWithAllTypes(0);
@@ -459,4 +718,129 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    /**
+     * Inserts records from several threads at once, and checks that each thread's inserts went
+     * to pages of its own and that every record is intact.
+     */
+    @Test
+    public void testConcurrentInserts() throws InterruptedException {
+        final int numThreads = 4;
+        // whole pages, so that no thread is left with a partly filled page another thread may
+        // take over once it is done
+        final int numRecords = table.getNumRecordsPerPage() * 3;
+        List<List<RecordId>> rids = runConcurrently(table, numThreads, numRecords, false, null);
+
+        Set<Long> seenPages = new HashSet<>();
+        for (int t = 0; t < numThreads; ++t) {
+            Set<Long> pages = new HashSet<>();
+            for (int i = 0; i < numRecords; ++i) {
+                RecordId rid = rids.get(t).get(i);
+                pages.add(rid.getPageNum());
+                assertEquals(createRecordWithAllTypes(t * numRecords + i), table.getRecord(rid));
+            }
+            for (long page : pages) {
+                assertTrue("page " + page + " shared between threads", seenPages.add(page));
+            }
+        }
+        assertEquals(numThreads * numRecords, table.getStats().getNumRecords());
+        assertEquals(numThreads * 3, table.getNumDataPages());
+    }
+
+    /**
+     * Runs concurrent inserts and point reads into one table, both with page latches alone
+     * and serialized by a table-wide lock (as Table used to do), and checks that every
+     * record inserted is found by a scan. The time taken in each mode is reported in the
+     * assertion messages, but not asserted on, since it depends on the machine.
+     */
+    @Test
+    public void testConcurrentInsertBenchmark() throws InterruptedException {
+        final int numThreads = 4;
+        final int numRecords = 5000;
+        long[] nanos = new long[2];
+        int[] counts = new int[2];
+        for (int latched = 0; latched < 2; ++latched) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+            PageDirectory pageDirectory;
+            try {
+                pageDirectory = new PageDirectory(bufferManager, 1, page.getPageNum(), (short) 0,
+                                                  new DummyLockContext());
+            } finally {
+                page.unpin();
+            }
+            Table table = new Table(TABLENAME, schema, pageDirectory, new DummyLockContext());
+            long start = System.nanoTime();
+            runConcurrently(table, numThreads, numRecords, true, latched == 1 ? null : new Object());
+            nanos[latched] = System.nanoTime() - start;
+
+            for (Iterator<Record> iter = table.iterator(); iter.hasNext(); iter.next()) {
+                ++counts[latched];
+            }
+        }
+
+        String results = String.format("table lock: %d us; page latches: %d us",
+                                       nanos[0] / 1000, nanos[1] / 1000);
+        assertEquals(results, numThreads * numRecords / 2, counts[0]);
+        assertEquals(results, numThreads * numRecords / 2, counts[1]);
+    }
+
+    /**
+     * Inserts numRecords records into a table from each of numThreads threads, reading back each
+     * record after inserting it, and then deleting every other record if deleteHalf is set.
+     * @param tableLock lock to hold around each operation, or null
+     * @return ids of the records inserted by each thread
+     */
+    private static List<List<RecordId>> runConcurrently(Table table, int numThreads, int numRecords,
+                                                        boolean deleteHalf, Object tableLock)
+    throws InterruptedException {
+        List<List<RecordId>> rids = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            List<RecordId> threadRids = new ArrayList<>();
+            rids.add(threadRids);
+            int first = t * numRecords;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < numRecords; ++i) {
+                        Record record = createRecordWithAllTypes(first + i);
+                        RecordId rid;
+                        if (tableLock == null) {
+                            rid = table.addRecord(record);
+                            assertEquals(record, table.getRecord(rid));
+                        } else {
+                            synchronized (tableLock) {
+                                rid = table.addRecord(record);
+                            }
+                            synchronized (tableLock) {
+                                assertEquals(record, table.getRecord(rid));
+                            }
+                        }
+                        threadRids.add(rid);
+                    }
+                    for (int i = 0; deleteHalf && i < numRecords; i += 2) {
+                        if (tableLock == null) {
+                            table.deleteRecord(threadRids.get(i));
+                        } else {
+                            synchronized (tableLock) {
+                                table.deleteRecord(threadRids.get(i));
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        return rids;
+    }
 }